@@ -0,0 +1,105 @@
+package com.idfconnect.devtools.maven.proguard;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.maven.monitor.logging.DefaultLog;
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.logging.Logger;
+import org.codehaus.plexus.logging.console.ConsoleLogger;
+
+import proguard.ClassPath;
+import proguard.ClassPathEntry;
+
+/**
+ * Shared fixtures for the benchmarks
+ */
+final class BenchmarkSupport {
+    private BenchmarkSupport() {
+    }
+
+    /**
+     * @return a Maven log which discards everything
+     */
+    static Log quietLog() {
+        return new DefaultLog(new ConsoleLogger(Logger.LEVEL_DISABLED, "benchmark"));
+    }
+
+    /**
+     * Collects up to the provided number of jars, in a stable order, from the directory named by the <code>benchmark.libraries</code> system property
+     * or else from the local Maven repository. Jars with class files that the bundled ProGuard version cannot read are skipped
+     *
+     * @param count
+     * @return the jars
+     */
+    static List<File> libraryJars(int count) {
+        String dir = System.getProperty("benchmark.libraries", System.getProperty("user.home") + "/.m2/repository");
+        List<File> jars = new ArrayList<File>();
+        collectJars(new File(dir), jars, count);
+        if (jars.isEmpty())
+            throw new IllegalStateException("No jars found in " + dir);
+        return jars;
+    }
+
+    /**
+     * @param count
+     * @return a ProGuard class path of up to the provided number of library jars
+     */
+    static ClassPath libraryClassPath(int count) {
+        ClassPath classPath = new ClassPath();
+        for (File jar : libraryJars(count))
+            classPath.add(new ClassPathEntry(jar, false));
+        return classPath;
+    }
+
+    static File createTempDirectory(String prefix) throws IOException {
+        File dir = File.createTempFile(prefix, "");
+        if (!dir.delete() || !dir.mkdir())
+            throw new IOException("Cannot create temporary directory " + dir);
+        return dir;
+    }
+
+    /**
+     * Sets a field of the provided object, such as a mojo parameter that Maven would normally inject
+     *
+     * @param target
+     * @param name
+     * @param value
+     */
+    static void setField(Object target, String name, Object value) {
+        try {
+            Field field = target.getClass().getDeclaredField(name);
+            field.setAccessible(true);
+            field.set(target, value);
+        } catch (Exception e) {
+            throw new IllegalStateException("Cannot set " + name + " on " + target.getClass().getName(), e);
+        }
+    }
+
+    private static boolean isReadable(File jar) {
+        try {
+            return LibraryClassCache.parse(jar, false, true) != null;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static void collectJars(File dir, List<File> jars, int count) {
+        File[] files = dir.listFiles();
+        if (files == null)
+            return;
+        Arrays.sort(files);
+        for (File f : files) {
+            if (jars.size() >= count)
+                return;
+            if (f.isDirectory())
+                collectJars(f, jars, count);
+            else if (f.getName().endsWith(".jar") && !f.getName().endsWith("-sources.jar") && !f.getName().endsWith("-javadoc.jar") && isReadable(f))
+                jars.add(f);
+        }
+    }
+}
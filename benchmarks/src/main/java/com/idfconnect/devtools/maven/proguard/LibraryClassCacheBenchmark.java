@@ -0,0 +1,97 @@
+package com.idfconnect.devtools.maven.proguard;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.logging.Log;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import proguard.ClassPath;
+import proguard.Configuration;
+import proguard.InputReader;
+import proguard.classfile.ClassPool;
+import proguard.classfile.util.WarningPrinter;
+import proguard.classfile.visitor.ClassPoolFiller;
+import proguard.io.ClassFilter;
+import proguard.io.ClassReader;
+
+/**
+ * Compares the time it takes to populate the library class pool from a realistic set of dependency jars: letting ProGuard parse the jars, filling a
+ * cold {@link LibraryClassCache} (parse and store) and filling a warm one (load only).
+ * <p>
+ * The jars are taken from the local Maven repository, or from the directory given by the <code>benchmark.libraries</code> system property.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class LibraryClassCacheBenchmark {
+    @Param({ "150" })
+    public int            jarCount;
+
+    private Log           log;
+    private Configuration configuration;
+    private ClassPath     libraryJars;
+    private File          coldDirectory;
+    private File          warmDirectory;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        log = BenchmarkSupport.quietLog();
+        configuration = new Configuration();
+        libraryJars = BenchmarkSupport.libraryClassPath(jarCount);
+        coldDirectory = BenchmarkSupport.createTempDirectory("library-cache-cold");
+        warmDirectory = BenchmarkSupport.createTempDirectory("library-cache-warm");
+        new LibraryClassCache(warmDirectory, 0, log).fill(configuration, libraryJars, new ClassPool(), new ClassPool());
+    }
+
+    @Setup(Level.Invocation)
+    public void clearColdCache() throws IOException {
+        FileUtils.cleanDirectory(coldDirectory);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        FileUtils.deleteQuietly(coldDirectory);
+        FileUtils.deleteQuietly(warmDirectory);
+    }
+
+    @Benchmark
+    public ClassPool proguard() throws IOException {
+        ClassPool libraryClassPool = new ClassPool();
+        new InputReader(configuration).readInput("Reading library ", libraryJars, 0, libraryJars.size(), new ClassFilter(new ClassReader(true,
+                configuration.skipNonPublicLibraryClasses, configuration.skipNonPublicLibraryClassMembers, new WarningPrinter(), new ClassPoolFiller(
+                        libraryClassPool))));
+        return libraryClassPool;
+    }
+
+    @Benchmark
+    public ClassPool cold() throws IOException {
+        ClassPool libraryClassPool = new ClassPool();
+        new LibraryClassCache(coldDirectory, 0, log).fill(configuration, libraryJars, new ClassPool(), libraryClassPool);
+        return libraryClassPool;
+    }
+
+    @Benchmark
+    public ClassPool warm() throws IOException {
+        ClassPool libraryClassPool = new ClassPool();
+        new LibraryClassCache(warmDirectory, 0, log).fill(configuration, libraryJars, new ClassPool(), libraryClassPool);
+        return libraryClassPool;
+    }
+}
@@ -0,0 +1,182 @@
+package com.idfconnect.devtools.maven.proguard;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
+import org.apache.maven.artifact.versioning.VersionRange;
+import org.apache.maven.project.MavenProject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import proguard.Configuration;
+import proguard.ConfigurationParser;
+import proguard.ParseException;
+
+/**
+ * Measures the parts of {@link ProguardMojo} whose cost grows with the number of dependencies: building the artifact map, preparing the
+ * <em>libraryjars</em> including the <em>excludeLibraryArtifacts</em> matching, building the <em>injars</em> filters, quoting file names, and turning
+ * the resulting options into a ProGuard {@link Configuration}, both with the {@link ConfigurationBuilder} as
+ * {@link ProguardMojo#launchProguard(ProguardMojo.Execution)} does and with the {@link ConfigurationParser} as a forked JVM does.
+ * <p>
+ * The project is synthetic: every dependency is an empty jar in a temporary directory, one in twenty of them is excluded, and all artifacts count as
+ * already resolved, so that no repository is involved.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class MojoArgumentsBenchmark {
+    @Param({ "1000", "5000" })
+    public int                        dependencyCount;
+
+    private File                      directory;
+    private Set<Artifact>             artifacts;
+    private Map<String, Artifact>     artifactMap;
+    private Map<String, File>         resolvedArtifactFiles;
+    private List<File>                jars;
+    private ProguardMojo              mojo;
+    private List<ProguardMojo.Option> prepared;
+    private String[]                  options;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        directory = BenchmarkSupport.createTempDirectory("mojo-arguments");
+        artifacts = new LinkedHashSet<Artifact>();
+        resolvedArtifactFiles = new HashMap<String, File>();
+        jars = new ArrayList<File>();
+        List<String> excluded = new ArrayList<String>();
+        List<String> inputJarPaths = new ArrayList<String>();
+        for (int i = 0; i < dependencyCount; i++) {
+            String groupId = "org.example.group" + (i % 50);
+            String artifactId = "dependency" + i;
+            String version = "1." + (i % 10);
+            File jar = new File(directory, artifactId + "-" + version + ".jar");
+            if (!jar.createNewFile())
+                throw new IOException("Cannot create " + jar);
+            Artifact artifact = new DefaultArtifact(groupId, artifactId, VersionRange.createFromVersion(version), Artifact.SCOPE_COMPILE, "jar", null,
+                    new DefaultArtifactHandler("jar"));
+            artifact.setFile(jar);
+            artifacts.add(artifact);
+            resolvedArtifactFiles.put(ProguardMojo.toAetherArtifact(artifact).toString(), jar);
+            jars.add(jar);
+            inputJarPaths.add(jar.getName());
+            if (i % 20 == 0)
+                excluded.add(groupId + ":" + artifactId + ":" + version);
+        }
+        File inputFile = new File(directory, "input.jar");
+        if (!inputFile.createNewFile())
+            throw new IOException("Cannot create " + inputFile);
+
+        artifactMap = ProguardMojo.createArtifactMap(artifacts);
+
+        MavenProject project = new MavenProject();
+        project.setArtifacts(artifacts);
+        mojo = new ProguardMojo();
+        BenchmarkSupport.setField(mojo, "log", BenchmarkSupport.quietLog());
+        mojo.setLog(BenchmarkSupport.quietLog());
+        BenchmarkSupport.setField(mojo, "mavenProject", project);
+        BenchmarkSupport.setField(mojo, "buildDirectory", directory);
+        BenchmarkSupport.setField(mojo, "inputFile", inputFile.getName());
+        BenchmarkSupport.setField(mojo, "inputJarPaths", inputJarPaths);
+        BenchmarkSupport.setField(mojo, "excludeLibraryArtifacts", excluded);
+        BenchmarkSupport.setField(mojo, "includeJreRuntimeJar", false);
+
+        ProguardMojo.Execution run = newExecution();
+        mojo.prepareInputs(run);
+        mojo.prepareLibraries(run);
+        prepared = run.args;
+        options = new String[run.args.size()];
+        for (int i = 0; i < options.length; i++)
+            options[i] = run.args.get(i).toString();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        FileUtils.deleteQuietly(directory);
+    }
+
+    @Benchmark
+    public Map<String, Artifact> createArtifactMap() {
+        return ProguardMojo.createArtifactMap(artifacts);
+    }
+
+    @Benchmark
+    public ProguardMojo.Execution prepareLibraries() throws Exception {
+        ProguardMojo.Execution run = newExecution();
+        mojo.prepareLibraries(run);
+        return run;
+    }
+
+    @Benchmark
+    public ProguardMojo.Execution prepareInputs() throws Exception {
+        ProguardMojo.Execution run = newExecution();
+        mojo.prepareInputs(run);
+        return run;
+    }
+
+    @Benchmark
+    public ProguardMojo.Execution addInputJar() {
+        ProguardMojo.Execution run = newExecution();
+        for (File jar : jars)
+            mojo.addInputJar(run, jar.getName());
+        return run;
+    }
+
+    @Benchmark
+    public int returnQuotedFilename() {
+        int length = 0;
+        for (File jar : jars)
+            length += ProguardMojo.returnQuotedFilename(jar).length();
+        return length;
+    }
+
+    @Benchmark
+    public Configuration parseConfiguration() throws IOException, ParseException {
+        Configuration configuration = new Configuration();
+        ConfigurationParser parser = new ConfigurationParser(options, System.getProperties());
+        try {
+            parser.parse(configuration);
+        } finally {
+            parser.close();
+        }
+        return configuration;
+    }
+
+    @Benchmark
+    public Configuration buildConfiguration() throws IOException, ParseException {
+        ConfigurationBuilder builder = new ConfigurationBuilder();
+        for (ProguardMojo.Option option : prepared)
+            option.applyTo(builder);
+        return builder.build();
+    }
+
+    private ProguardMojo.Execution newExecution() {
+        ProguardMojo.Execution run = new ProguardMojo.Execution(artifactMap, null, directory);
+        run.resolvedArtifactFiles = resolvedArtifactFiles;
+        return run;
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Generates the synthetic input and library jars used by the scaling suite, in the "synthetic" directory of the project.
+ *
+ * For every size N in the comma separated "scaling.sizes" system property (1000, 10000 and 50000 classes by default) it writes input-N.jar with N
+ * program classes and library-N.jar with N / 2 library classes. The class files are written directly, without a compiler, so that even the largest
+ * size is generated in seconds. Every program class has a field, a method calling the next class and a library class, and a method nothing calls;
+ * every hundredth class is an entry point kept by the ProGuard configuration, so that shrinking, optimization and obfuscation all have work to do.
+ */
+import java.util.jar.JarOutputStream
+import java.util.zip.ZipEntry
+
+class ClassFileWriter {
+    private final List<byte[]> constants = []
+    private final Map<String, Integer> indexes = [:]
+
+    int utf8(String s) {
+        return constant("U" + s) { DataOutputStream out -> out.writeByte(1); out.writeUTF(s) }
+    }
+
+    int classRef(String name) {
+        int nameIndex = utf8(name)
+        return constant("C" + name) { DataOutputStream out -> out.writeByte(7); out.writeShort(nameIndex) }
+    }
+
+    int memberRef(int tag, String owner, String name, String descriptor) {
+        int classIndex = classRef(owner)
+        int nameIndex = utf8(name)
+        int descriptorIndex = utf8(descriptor)
+        int natIndex = constant("N" + name + ":" + descriptor) { DataOutputStream out -> out.writeByte(12); out.writeShort(nameIndex); out.writeShort(descriptorIndex) }
+        return constant("M" + tag + owner + "." + name + ":" + descriptor) { DataOutputStream out -> out.writeByte(tag); out.writeShort(classIndex); out.writeShort(natIndex) }
+    }
+
+    private int constant(String key, Closure writer) {
+        Integer index = indexes[key]
+        if (index != null)
+            return index
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream()
+        writer.call(new DataOutputStream(bytes))
+        constants << bytes.toByteArray()
+        indexes[key] = constants.size()
+        return constants.size()
+    }
+
+    /**
+     * Writes a class file with the provided fields (name, descriptor) and methods (access, name, descriptor, max stack, max locals, code)
+     */
+    byte[] write(String name, List fields, List methods) {
+        int thisIndex = classRef(name)
+        int superIndex = classRef("java/lang/Object")
+        int codeIndex = utf8("Code")
+        List fieldIndexes = fields.collect { [utf8(it[0]), utf8(it[1])] }
+        List methodIndexes = methods.collect { [utf8(it[1]), utf8(it[2])] }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream()
+        DataOutputStream out = new DataOutputStream(bytes)
+        out.writeShort(0xCAFE)
+        out.writeShort(0xBABE)
+        out.writeShort(0)
+        out.writeShort(49)
+        out.writeShort(constants.size() + 1)
+        constants.each { out.write(it) }
+        out.writeShort(0x21)
+        out.writeShort(thisIndex)
+        out.writeShort(superIndex)
+        out.writeShort(0)
+        out.writeShort(fields.size())
+        fieldIndexes.each {
+            out.writeShort(0x02)
+            out.writeShort(it[0])
+            out.writeShort(it[1])
+            out.writeShort(0)
+        }
+        out.writeShort(methods.size())
+        methods.eachWithIndex { method, i ->
+            byte[] code = method[5]
+            out.writeShort(method[0])
+            out.writeShort(methodIndexes[i][0])
+            out.writeShort(methodIndexes[i][1])
+            out.writeShort(1)
+            out.writeShort(codeIndex)
+            out.writeInt(12 + code.length)
+            out.writeShort(method[3])
+            out.writeShort(method[4])
+            out.writeInt(code.length)
+            out.write(code)
+            out.writeShort(0)
+            out.writeShort(0)
+        }
+        out.writeShort(0)
+        out.flush()
+        return bytes.toByteArray()
+    }
+}
+
+byte[] code(int... values) {
+    byte[] bytes = new byte[values.length]
+    values.eachWithIndex { v, i -> bytes[i] = (byte) v }
+    return bytes
+}
+
+String programClass(int i) {
+    return "synthetic/p" + (i / 100 as int) + "/" + ((i % 100 == 0) ? "Entry" : "Class") + i
+}
+
+String libraryClass(int i) {
+    return "library/p" + (i / 100 as int) + "/Library" + i
+}
+
+byte[] constructor(ClassFileWriter cf) {
+    int objectInit = cf.memberRef(10, "java/lang/Object", "<init>", "()V")
+    return code(0x2A, 0xB7, objectInit >> 8, objectInit & 0xFF, 0xB1)
+}
+
+void writeJar(File file, int count, Closure generator) {
+    File temp = new File(file.path + ".tmp")
+    JarOutputStream jar = new JarOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 65536))
+    try {
+        for (int i = 0; i < count; i++) {
+            def generated = generator.call(i)
+            jar.putNextEntry(new ZipEntry(generated[0] + ".class"))
+            jar.write(generated[1])
+            jar.closeEntry()
+        }
+    } finally {
+        jar.close()
+    }
+    if (file.exists())
+        file.delete()
+    assert temp.renameTo(file)
+}
+
+File dir = new File(basedir, "synthetic")
+dir.mkdirs()
+List<Integer> sizes = System.getProperty("scaling.sizes", "1000,10000,50000").split(",").collect { it.trim() as int }
+for (int size : sizes) {
+    int libraryCount = Math.max(1, (size / 2) as int)
+    File input = new File(dir, "input-" + size + ".jar")
+    File library = new File(dir, "library-" + size + ".jar")
+    if (input.isFile() && library.isFile()) {
+        println "Reusing synthetic jars for " + size + " classes"
+        continue
+    }
+    long start = System.currentTimeMillis()
+
+    writeJar(library, libraryCount) { int i ->
+        String name = libraryClass(i)
+        ClassFileWriter cf = new ClassFileWriter()
+        List methods = [
+            [0x01, "<init>", "()V", 1, 1, constructor(cf)],
+            // public static int help(int x) { return x + 1; }
+            [0x09, "help", "(I)I", 2, 1, code(0x1A, 0x04, 0x60, 0xAC)],
+            // public static int other(int x) { return x - 1; }
+            [0x09, "other", "(I)I", 2, 1, code(0x1A, 0x04, 0x64, 0xAC)]
+        ]
+        return [name, cf.write(name, [], methods)]
+    }
+
+    writeJar(input, size) { int i ->
+        String name = programClass(i)
+        ClassFileWriter cf = new ClassFileWriter()
+        int next = cf.memberRef(10, programClass((i + 1) % size), "helper", "(I)I")
+        int help = cf.memberRef(10, libraryClass(i % libraryCount), "help", "(I)I")
+        int value = cf.memberRef(9, name, "value", "I")
+        List methods = [
+            [0x01, "<init>", "()V", 1, 1, constructor(cf)],
+            // public int compute(int x) { return Next.helper(Library.help(x)) + value; }
+            [0x01, "compute", "(I)I", 2, 2, code(0x1B, 0xB8, help >> 8, help & 0xFF, 0xB8, next >> 8, next & 0xFF, 0x2A, 0xB4, value >> 8, value & 0xFF, 0x60, 0xAC)],
+            // public static int helper(int x) { return x + 1; }
+            [0x09, "helper", "(I)I", 2, 1, code(0x1A, 0x04, 0x60, 0xAC)],
+            // public void unused() { }
+            [0x01, "unused", "()V", 0, 1, code(0xB1)]
+        ]
+        return [name, cf.write(name, [["value", "I"]], methods)]
+    }
+    println "Generated synthetic jars for " + size + " classes in " + (System.currentTimeMillis() - start) + " ms"
+}
+return true
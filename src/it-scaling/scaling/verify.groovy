@@ -0,0 +1,52 @@
+/*
+ * Compares the wall time and peak RSS of each invocation, read from the phase report it wrote, against baseline.properties.
+ *
+ * The build fails if either is worse than its baseline by more than the tolerance: the "scaling.tolerance" system property, else the "tolerance"
+ * entry of the baseline, else 0.25 (25%). A different baseline file can be given with the "scaling.baseline" system property. The measured values
+ * are written to target/scaling-results.properties in the same format, so that they can be copied over the baseline after an intended change.
+ */
+Properties baseline = new Properties()
+File baselineFile = new File(System.getProperty("scaling.baseline", new File(basedir, "baseline.properties").path))
+if (baselineFile.isFile())
+    baselineFile.withInputStream { baseline.load(it) }
+double tolerance = (System.getProperty("scaling.tolerance") ?: baseline.getProperty("tolerance", "0.25")) as double
+
+long readLong(String json, String name) {
+    def matcher = json =~ /"${name}": (-?\d+)/
+    assert matcher.find() : "No ${name} in phase report"
+    return matcher.group(1) as long
+}
+
+Properties results = new Properties()
+results.setProperty("tolerance", String.valueOf(tolerance))
+List<String> failures = []
+File target = new File(basedir, "target")
+List<File> reports = (target.listFiles() ?: []).findAll { it.name.startsWith("proguard-") }.collect { new File(it, "proguard-phases.json") }.findAll { it.isFile() }
+assert !reports.isEmpty() : "No phase reports found in " + target
+
+for (File report : reports.sort { it.parentFile.name.substring(9) as int }) {
+    String classes = report.parentFile.name.substring(9)
+    String json = report.text
+    assert json.contains('"outcome": "processed"') : "ProGuard did not process the ${classes} class input"
+    long inputClasses = readLong(json, "inputClasses")
+    assert inputClasses == (classes as long) : "Expected ${classes} input classes but ProGuard read ${inputClasses}"
+
+    Map<String, Long> measured = [wallMillis: readLong(json, "wallMillis"), peakRssBytes: readLong(json, "peakRssBytes")]
+    measured.each { metric, value ->
+        String key = "classes." + classes + "." + metric
+        results.setProperty(key, String.valueOf(value))
+        String expected = baseline.getProperty(key)
+        if (expected == null || value < 0) {
+            println "${key} = ${value} (no baseline)"
+            return
+        }
+        long limit = ((expected as long) * (1 + tolerance)) as long
+        println "${key} = ${value} (baseline ${expected}, limit ${limit})"
+        if (value > limit)
+            failures << "${key} is ${value}, more than ${(int) (tolerance * 100)}% above the baseline of ${expected}"
+    }
+}
+
+new File(target, "scaling-results.properties").withOutputStream { results.store(it, "Scaling results, usable as a baseline") }
+assert failures.isEmpty() : "Scaling regressions:\n" + failures.join("\n")
+return true
@@ -0,0 +1,13 @@
+package it;
+
+public class Buffer {
+    private int count;
+
+    public int next() {
+        return ++count;
+    }
+
+    public String label() {
+        return "Buffer " + count;
+    }
+}
@@ -0,0 +1,13 @@
+package it;
+
+public class Cache {
+    private int count;
+
+    public int next() {
+        return ++count;
+    }
+
+    public String label() {
+        return "Cache " + count;
+    }
+}
@@ -0,0 +1,17 @@
+package it;
+
+public class Circle extends Shape {
+    private final double radius;
+
+    public Circle(double radius) {
+        this.radius = radius;
+    }
+
+    public double area() {
+        return Math.PI * radius * radius;
+    }
+
+    protected String name() {
+        return "circle";
+    }
+}
@@ -0,0 +1,8 @@
+package it;
+
+public class Main {
+    public static void main(String[] args) {
+        Shape shape = new Circle(2);
+        System.out.println(shape.describe() + " " + Util.twice(shape.area()) + " " + new Square(3).describe());
+    }
+}
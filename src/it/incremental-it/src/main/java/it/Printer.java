@@ -0,0 +1,13 @@
+package it;
+
+public class Printer {
+    private int count;
+
+    public int next() {
+        return ++count;
+    }
+
+    public String label() {
+        return "Printer " + count;
+    }
+}
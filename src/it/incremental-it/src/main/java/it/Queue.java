@@ -0,0 +1,13 @@
+package it;
+
+public class Queue {
+    private int count;
+
+    public int next() {
+        return ++count;
+    }
+
+    public String label() {
+        return "Queue " + count;
+    }
+}
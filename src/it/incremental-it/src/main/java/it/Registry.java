@@ -0,0 +1,13 @@
+package it;
+
+public class Registry {
+    private int count;
+
+    public int next() {
+        return ++count;
+    }
+
+    public String label() {
+        return "Registry " + count;
+    }
+}
@@ -0,0 +1,13 @@
+package it;
+
+public abstract class Shape {
+    public abstract double area();
+
+    public String describe() {
+        return name() + ": " + area();
+    }
+
+    protected String name() {
+        return "shape";
+    }
+}
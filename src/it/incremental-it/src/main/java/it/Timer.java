@@ -0,0 +1,13 @@
+package it;
+
+public class Timer {
+    private int count;
+
+    public int next() {
+        return ++count;
+    }
+
+    public String label() {
+        return "Timer " + count;
+    }
+}
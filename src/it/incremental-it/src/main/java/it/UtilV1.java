@@ -0,0 +1,10 @@
+package it;
+
+/**
+ * The first version of Util, compiled by the first build
+ */
+class Util {
+    static double twice(double value) {
+        return 2 * value;
+    }
+}
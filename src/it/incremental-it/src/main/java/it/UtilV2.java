@@ -0,0 +1,10 @@
+package it;
+
+/**
+ * The edited version of Util, compiled instead of UtilV1.java by the incremental build and the full build it is compared with
+ */
+class Util {
+    static double twice(double value) {
+        return value + value;
+    }
+}
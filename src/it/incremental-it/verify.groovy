@@ -0,0 +1,23 @@
+// The second build only processed the classes affected by the edit of Util
+File buildLog = new File( basedir, "build.log" )
+assert buildLog.text =~ /Processing \d+ of \d+ classes incrementally: 1 changed/
+
+// The incremental build wrote the same classes as the full build of the same sources
+File incremental = new File( basedir, "target/classes-obf" )
+File full = new File( basedir, "target/classes-full" )
+def names = { File dir ->
+    def list = []
+    dir.eachFileRecurse { if ( it.isFile() ) list << dir.toURI().relativize( it.toURI() ).path }
+    list.sort()
+}
+assert names( incremental ) == names( full )
+assert names( full ).size() == 13
+names( full ).each { name ->
+    assert new File( incremental, name ).bytes == new File( full, name ).bytes : name
+}
+
+// And kept the names the full build gives
+File mapping = new File( basedir, "target/proguard/proguard.map" )
+File fullMapping = new File( basedir, "target/proguard-full/proguard.map" )
+assert mapping.readLines().sort() == fullMapping.readLines().sort()
+assert fullMapping.text.contains( "it.Util -> " )
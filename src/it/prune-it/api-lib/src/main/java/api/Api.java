@@ -0,0 +1,15 @@
+package api;
+
+import sig.Token;
+import sup.Named;
+
+public class Api extends Named {
+    @Override
+    public String name() {
+        return "api";
+    }
+
+    public Token token() {
+        return new Token();
+    }
+}
@@ -0,0 +1,7 @@
+package api;
+
+public class Extra {
+    public String extra() {
+        return "extra";
+    }
+}
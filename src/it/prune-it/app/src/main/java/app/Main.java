@@ -0,0 +1,12 @@
+package app;
+
+import api.Api;
+
+public class Main {
+    public static void main(String[] args) {
+        // Names neither sup.Named nor sig.Token: the first is only the superclass of Api, the second only in the descriptor of token()
+        Api api = new Api();
+        Object token = api.token();
+        System.out.println(api.describe() + " " + token);
+    }
+}
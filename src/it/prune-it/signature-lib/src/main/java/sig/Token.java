@@ -0,0 +1,8 @@
+package sig;
+
+public class Token {
+    @Override
+    public String toString() {
+        return "token";
+    }
+}
@@ -0,0 +1,9 @@
+package sup;
+
+public abstract class Named {
+    public abstract String name();
+
+    public String describe() {
+        return "named " + name();
+    }
+}
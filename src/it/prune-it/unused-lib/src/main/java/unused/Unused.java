@@ -0,0 +1,7 @@
+package unused;
+
+public class Unused {
+    public String unused() {
+        return "unused";
+    }
+}
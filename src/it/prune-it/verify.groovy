@@ -0,0 +1,24 @@
+import java.util.jar.JarFile
+
+File buildLog = new File( basedir, "build.log" )
+String log = buildLog.text
+
+// Only the dependency none of whose classes the app needs was reported and left out
+def unused = ( log =~ /Unused dependency (\S+): / ).collect { it[1] }
+assert unused == [ "com.idfconnect.devtools.it:prune-it-unused-lib:jar:1.0-SNAPSHOT" ]
+assert ( log =~ /Leaving out library \S*prune-it-unused-lib\S*/ ).count == 1
+
+// The superclass of Api and the return type of Api.token() were kept although the app names neither, and the class of the API library the app
+// does not use was filtered out
+assert !( log =~ /Leaving out library \S*prune-it-(supertype|signature|api)-lib/ )
+assert log =~ /Filtering library \S*prune-it-api-lib\S* to api\/Api\.class\s/
+assert log.contains( "Library pruning kept 3 of 5 library classes" )
+
+File outputJar = new File( basedir, "app/target/prune-it-app-1.0-SNAPSHOT-small.jar" )
+assert outputJar.isFile()
+JarFile jar = new JarFile( outputJar )
+try {
+    assert jar.getEntry( "app/Main.class" ) != null
+} finally {
+    jar.close()
+}
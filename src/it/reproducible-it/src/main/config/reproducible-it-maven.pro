@@ -0,0 +1 @@
+-keep public class it.Main { public static void main(java.lang.String[]); }
@@ -0,0 +1,7 @@
+package it;
+
+class Alpha {
+    String name() {
+        return "Alpha";
+    }
+}
@@ -0,0 +1,7 @@
+package it;
+
+class Beta {
+    String name() {
+        return "Beta";
+    }
+}
@@ -0,0 +1,7 @@
+package it;
+
+class Delta {
+    String name() {
+        return "Delta";
+    }
+}
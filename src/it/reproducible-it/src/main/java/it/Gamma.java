@@ -0,0 +1,7 @@
+package it;
+
+class Gamma {
+    String name() {
+        return "Gamma";
+    }
+}
@@ -0,0 +1,41 @@
+import java.text.SimpleDateFormat
+import java.util.jar.JarFile
+
+// The two builds of the same sources wrote the same archive, byte for byte
+File first = new File( basedir, "target/reproducible-it-1.0-SNAPSHOT-first.jar" )
+File second = new File( basedir, "target/reproducible-it-1.0-SNAPSHOT-second.jar" )
+assert first.isFile()
+assert second.isFile()
+assert first.bytes == second.bytes
+
+// Its entries are in the order of their names and dated project.build.outputTimestamp, which zip entries hold as a local time
+SimpleDateFormat format = new SimpleDateFormat( "yyyy-MM-dd'T'HH:mm:ss" )
+def names = []
+JarFile jar = new JarFile( first )
+try {
+    jar.entries().each { entry ->
+        names << entry.name
+        assert format.format( new Date( entry.time ) ) == "2024-01-01T00:00:00" : entry.name
+    }
+} finally {
+    jar.close()
+}
+assert names.size() == 5
+assert names == new ArrayList( names ).sort()
+
+// The mappings are the same and sorted by original class name
+File mapping = new File( basedir, "target/proguard/proguard.map" )
+File secondMapping = new File( basedir, "target/proguard-second/proguard.map" )
+assert mapping.bytes == secondMapping.bytes
+def classes = mapping.readLines().findAll { !it.startsWith( " " ) }
+assert classes.size() == 5
+assert classes == new ArrayList( classes ).sort()
+
+// The third build left the unchanged archive in place
+File buildLog = new File( basedir, "build.log" )
+assert buildLog.text.contains( "Kept " + first.canonicalPath + " as its 5 entries are unchanged" )
+
+// The first three builds staged the output archive as an archive, as obfuscated names may differ only in case, while the build with lowercase
+// names staged it in a directory; both ways give the same archive
+assert buildLog.text.count( "Staging the output archives as archives" ) == 3
+assert first.bytes == new File( basedir, "target/reproducible-it-1.0-SNAPSHOT-lowercase.jar" ).bytes
@@ -0,0 +1,16 @@
+// The log was retraced line by line into the expected log: frames, exception lines and Caused by: lines are de-obfuscated, ambiguous methods
+// are listed below the first candidate, and lines without obfuscated names are left as they are
+File retraced = new File( basedir, "target/retrace/stacktrace.log" )
+File expected = new File( basedir, "expected.log" )
+assert retraced.isFile()
+def lines = retraced.readLines( "UTF-8" )
+def expectedLines = expected.readLines( "UTF-8" )
+assert lines.size() == expectedLines.size()
+for ( int i = 0; i < lines.size(); i++ )
+    assert lines[i] == expectedLines[i] : "line " + ( i + 1 )
+
+// Every line of a log with mixed line terminators keeps its own, the last line has none as in the log, and a frame whose line number does not
+// fit in an int is left as it is
+File retracedCrlf = new File( basedir, "target/retrace/crlf.log" )
+assert retracedCrlf.isFile()
+assert retracedCrlf.getText( "UTF-8" ) == new File( basedir, "expected-crlf.log" ).getText( "UTF-8" )
@@ -0,0 +1,3 @@
+-keep public class app.Main { public static void main(java.lang.String[]); }
+-keep public class alpha.Alpha { public *; }
+-keep public class beta.Beta { public *; }
@@ -0,0 +1,12 @@
+package alpha;
+
+import alphastore.AlphaStore;
+
+public class Alpha {
+    private final AlphaCounter counter = new AlphaCounter();
+    private final AlphaStore   store   = new AlphaStore();
+
+    public String next() {
+        return store.save("alpha " + counter.increment());
+    }
+}
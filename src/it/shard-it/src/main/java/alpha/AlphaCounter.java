@@ -0,0 +1,9 @@
+package alpha;
+
+public class AlphaCounter {
+    private int count;
+
+    public int increment() {
+        return ++count;
+    }
+}
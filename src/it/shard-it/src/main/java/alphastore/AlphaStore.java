@@ -0,0 +1,10 @@
+package alphastore;
+
+public class AlphaStore {
+    private String last;
+
+    public String save(String value) {
+        last = value;
+        return last;
+    }
+}
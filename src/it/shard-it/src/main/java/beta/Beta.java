@@ -0,0 +1,12 @@
+package beta;
+
+import betastore.BetaStore;
+
+public class Beta {
+    private final BetaCounter counter = new BetaCounter();
+    private final BetaStore   store   = new BetaStore();
+
+    public String next() {
+        return store.save("beta " + counter.increment());
+    }
+}
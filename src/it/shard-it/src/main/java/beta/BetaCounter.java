@@ -0,0 +1,9 @@
+package beta;
+
+public class BetaCounter {
+    private int count;
+
+    public int increment() {
+        return ++count;
+    }
+}
@@ -0,0 +1,10 @@
+package betastore;
+
+public class BetaStore {
+    private String last;
+
+    public String save(String value) {
+        last = value;
+        return last;
+    }
+}
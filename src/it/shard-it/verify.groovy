@@ -0,0 +1,60 @@
+import java.util.jar.JarFile
+
+// The inputs were processed as three shards, each into its own output, by the first and the unobfuscated build, while the build that does not
+// keep every package name processed them in a single run
+File buildLog = new File( basedir, "build.log" )
+assert buildLog.text.count( "Processing 3 shards" ) == 2
+assert buildLog.text.count( "Not processing the inputs in shards because keeppackagenames does not keep package betastore" ) == 1
+
+def entries = { File file ->
+    def map = [:]
+    JarFile jar = new JarFile( file )
+    try {
+        jar.entries().each { entry ->
+            if ( !entry.isDirectory() )
+                map[entry.name] = jar.getInputStream( entry ).bytes
+        }
+    } finally {
+        jar.close()
+    }
+    map
+}
+def shards = { String classifier ->
+    def all = [:]
+    [ classifier, classifier + "-shard-it-1.0-SNAPSHOT-alpha", classifier + "-shard-it-1.0-SNAPSHOT-beta" ].each { name ->
+        File output = new File( basedir, "target/shard-it-1.0-SNAPSHOT-" + name + ".jar" )
+        assert output.isFile()
+        def shard = entries( output )
+        assert !shard.isEmpty()
+        assert all.keySet().intersect( shard.keySet() ).isEmpty()
+        all.putAll( shard )
+    }
+    all
+}
+def sharded = shards( "small" )
+assert sharded.keySet().any { it.startsWith( "alphastore/" ) }
+assert sharded.keySet().any { it.startsWith( "betastore/" ) }
+
+// Together the shards hold the same classes as the single run
+def whole = entries( new File( basedir, "target/shard-it-1.0-SNAPSHOT-whole.jar" ) )
+assert sharded.keySet() == whole.keySet()
+whole.each { name, bytes -> assert sharded[name] == bytes : name }
+
+// And the merged mapping gives the same names
+File mapping = new File( basedir, "target/proguard/proguard.map" )
+File wholeMapping = new File( basedir, "target/proguard-whole/proguard.map" )
+assert mapping.readLines().sort() == wholeMapping.readLines().sort()
+for ( String name : [ "app.Greeter", "alpha.AlphaCounter", "beta.BetaCounter", "alphastore.AlphaStore", "betastore.BetaStore" ] )
+    assert mapping.text.contains( name + " -> " )
+
+// The single run renamed the betastore package, and wrote no shards
+def partial = entries( new File( basedir, "target/shard-it-1.0-SNAPSHOT-partial.jar" ) )
+assert partial.keySet().any { it.startsWith( "alphastore/" ) }
+assert !partial.keySet().any { it.startsWith( "betastore/" ) }
+assert partial.size() == whole.size()
+assert !new File( basedir, "target/shard-it-1.0-SNAPSHOT-partial-shard-it-1.0-SNAPSHOT-beta.jar" ).exists()
+
+// Without obfuscation the shards hold the classes under their own names
+def plain = shards( "plain" )
+for ( String name : [ "app/Greeter.class", "alpha/AlphaCounter.class", "alphastore/AlphaStore.class", "betastore/BetaStore.class" ] )
+    assert plain.containsKey( name )
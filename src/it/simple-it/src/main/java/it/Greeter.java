@@ -0,0 +1,17 @@
+package it;
+
+public class Greeter {
+    private final String name;
+
+    public Greeter(String name) {
+        this.name = name;
+    }
+
+    public String greet() {
+        return "Hello, " + name;
+    }
+
+    public String unused() {
+        return "Goodbye, " + name;
+    }
+}
@@ -1,3 +1,17 @@
-File touchFile = new File( basedir, "target/touch.txt" );
+import java.util.jar.JarFile
 
-assert touchFile.isFile()
+File outputJar = new File( basedir, "target/simple-it-1.0-SNAPSHOT-small.jar" )
+assert outputJar.isFile()
+
+File mapping = new File( basedir, "target/proguard/proguard.map" )
+assert mapping.isFile()
+assert mapping.text.contains( "it.Greeter -> " )
+assert !mapping.text.contains( "unused" )
+
+JarFile jar = new JarFile( outputJar )
+try {
+    assert jar.getEntry( "it/Main.class" ) != null
+    assert jar.getEntry( "it/Greeter.class" ) == null
+} finally {
+    jar.close()
+}
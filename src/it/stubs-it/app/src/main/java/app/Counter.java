@@ -0,0 +1,15 @@
+package app;
+
+import lib.Listener;
+
+public class Counter implements Listener {
+    private int count;
+
+    public void changed(String name) {
+        count += name.length();
+    }
+
+    public int total() {
+        return count;
+    }
+}
@@ -0,0 +1,15 @@
+package app;
+
+import lib.Registry;
+
+public class Main {
+    public static void main(String[] args) throws Exception {
+        Counter counter = new Counter();
+        Registry registry = new Registry();
+        registry.register(counter);
+        TextHandler handler = new TextHandler();
+        System.out.println(handler.handle("world") + " by " + handler.describe());
+        registry.fire("world");
+        System.out.println(counter.total());
+    }
+}
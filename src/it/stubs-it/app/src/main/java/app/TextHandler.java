@@ -0,0 +1,16 @@
+package app;
+
+import lib.Handler;
+import lib.Named;
+
+@Named("text")
+public class TextHandler extends Handler<String> {
+    @Override
+    public String handle(String value) {
+        return PREFIX + quote(value);
+    }
+
+    private String quote(String value) {
+        return "'" + value + "'";
+    }
+}
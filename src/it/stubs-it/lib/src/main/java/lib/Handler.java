@@ -0,0 +1,13 @@
+package lib;
+
+import java.io.IOException;
+
+public abstract class Handler<T> {
+    public static final String PREFIX = "handled ";
+
+    public abstract String handle(T value) throws IOException;
+
+    public String describe() {
+        return getClass().getName();
+    }
+}
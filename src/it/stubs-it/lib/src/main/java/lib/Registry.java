@@ -0,0 +1,17 @@
+package lib;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class Registry {
+    private final List<Listener> listeners = new ArrayList<Listener>();
+
+    public void register(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void fire(String name) {
+        for (Listener listener : listeners)
+            listener.changed(name);
+    }
+}
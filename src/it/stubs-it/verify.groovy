@@ -0,0 +1,35 @@
+import java.util.jar.JarFile
+
+// The second build passed the stub of the library instead of the jar
+File buildLog = new File( basedir, "build.log" )
+assert ( buildLog.text =~ /Generated library stub of \S*stubs-it-lib-1\.0-SNAPSHOT\.jar/ ).count == 1
+File stubs = new File( basedir, "app/target/library-stubs" )
+assert stubs.listFiles().any { it.name.contains( "stubs-it-lib-1.0-SNAPSHOT-" ) && it.name.endsWith( ".jar" ) }
+
+def entries = { File file ->
+    def map = [:]
+    JarFile jar = new JarFile( file )
+    try {
+        jar.entries().each { entry ->
+            if ( !entry.isDirectory() )
+                map[entry.name] = jar.getInputStream( entry ).bytes
+        }
+    } finally {
+        jar.close()
+    }
+    map
+}
+
+// Both builds wrote the same classes
+def withJar = entries( new File( basedir, "app/target/stubs-it-app-1.0-SNAPSHOT-small.jar" ) )
+def withStub = entries( new File( basedir, "app/target/stubs-it-app-1.0-SNAPSHOT-stubbed.jar" ) )
+assert withJar.containsKey( "app/Main.class" )
+assert withJar.keySet() == withStub.keySet()
+withJar.each { name, bytes -> assert withStub[name] == bytes : name }
+
+// And the same mapping, in which the methods overriding library methods, such as the bridge method of handle, kept their names
+File mapping = new File( basedir, "app/target/proguard/proguard.map" )
+File stubMapping = new File( basedir, "app/target/proguard-stubbed/proguard.map" )
+assert mapping.readLines() == stubMapping.readLines()
+assert mapping.text.contains( "java.lang.String handle(java.lang.Object) -> handle" )
+assert mapping.text.contains( "void changed(java.lang.String) -> changed" )
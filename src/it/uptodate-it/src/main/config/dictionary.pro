@@ -0,0 +1,2 @@
+# The dictionary is named relative to this file
+-obfuscationdictionary ../../../target/dictionary/words.txt
@@ -0,0 +1,30 @@
+import java.util.jar.JarFile
+
+File buildLog = new File( basedir, "build.log" )
+String log = buildLog.text
+
+// The build that passes -verbose to ProGuard, as debug logging does, found the outputs of the first build up to date
+assert ( log =~ /ProGuard outputs are up to date, skipping ProGuard processing/ ).count == 1
+
+// The build after the resource changed ran ProGuard again and said why
+assert ( log =~ /Running ProGuard because input \S+classes has changed/ ).count == 1
+
+// The build after the dictionary changed ran ProGuard again although its inputs and options did not change
+assert ( log =~ /Running ProGuard because obfuscationdictionary \S+words.txt has changed/ ).count == 1
+
+// The clean build of the original sources restored the outputs of the first build from the build cache
+assert ( log =~ /Build cache hit for [0-9a-f]{40}/ ).count == 1
+assert ( log =~ /Stored ProGuard outputs in build cache as [0-9a-f]{40}/ ).count == 3
+
+File outputJar = new File( basedir, "target/uptodate-it-obf.jar" )
+assert outputJar.isFile()
+assert new File( basedir, "target/proguard/proguard.map" ).text.contains( "it.Greeter -> " )
+
+JarFile jar = new JarFile( outputJar )
+try {
+    assert jar.getEntry( "it/Main.class" ) != null
+    assert jar.getEntry( "it/Greeter.class" ) == null
+    assert jar.getInputStream( jar.getEntry( "message.properties" ) ).text.trim() == "message=original"
+} finally {
+    jar.close()
+}
@@ -0,0 +1,2 @@
+-keep public class it.Main { public static void main(java.lang.String[]); }
+-keep public class it.Greeter { public *; }
@@ -0,0 +1,13 @@
+package it;
+
+public class Greeter {
+    private final String name;
+
+    public Greeter(String name) {
+        this.name = name;
+    }
+
+    public String greet() {
+        return Punctuation.exclaim("Hello, " + name);
+    }
+}
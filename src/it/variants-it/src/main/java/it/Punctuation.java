@@ -0,0 +1,7 @@
+package it;
+
+class Punctuation {
+    static String exclaim(String s) {
+        return s + "!";
+    }
+}
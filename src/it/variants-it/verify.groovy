@@ -0,0 +1,46 @@
+import java.util.jar.JarFile
+
+// The three variants were processed side by side
+File buildLog = new File( basedir, "build.log" )
+assert buildLog.text.contains( "Processing 3 variants" )
+
+def entries = { File file ->
+    def map = [:]
+    JarFile jar = new JarFile( file )
+    try {
+        jar.entries().each { entry ->
+            if ( !entry.isDirectory() )
+                map[entry.name] = jar.getInputStream( entry ).bytes
+        }
+    } finally {
+        jar.close()
+    }
+    map
+}
+def output = { String classifier ->
+    File file = new File( basedir, "target/variants-it-1.0-SNAPSHOT-" + classifier + ".jar" )
+    assert file.isFile() : file
+    entries( file )
+}
+
+// The full variant wrote the same classes as the single run of its configuration
+def full = output( "full" )
+def single = output( "single" )
+assert full.keySet() == single.keySet()
+single.each { name, bytes -> assert full[name] == bytes : name }
+File mapping = new File( basedir, "target/proguard/full/proguard.map" )
+File singleMapping = new File( basedir, "target/proguard-single/proguard.map" )
+assert mapping.readLines().sort() == singleMapping.readLines().sort()
+assert !full.containsKey( "it/Greeter.class" )
+
+// The debug variant did not obfuscate, and its options did not leak into the other variants
+def debug = output( "debug" )
+assert debug.containsKey( "it/Greeter.class" )
+assert !new File( basedir, "target/proguard/debug/proguard.map" ).exists()
+
+// The sdk variant used its own include file and classifier
+def sdk = output( "sdk-edition" )
+assert sdk.containsKey( "it/Greeter.class" )
+assert new File( basedir, "target/proguard/sdk/proguard.map" ).text.contains( "it.Greeter -> it.Greeter" )
+for ( String classifier : [ "full", "debug", "sdk-edition" ] )
+    assert buildLog.text.contains( "variants-it-1.0-SNAPSHOT-" + classifier + ".jar" )
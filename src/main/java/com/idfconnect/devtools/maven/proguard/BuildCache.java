@@ -0,0 +1,261 @@
+package com.idfconnect.devtools.maven.proguard;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * A content-addressed store of ProGuard outputs which can be shared between builds and machines, e.g. on a network volume. Each entry is a directory
+ * named after the cache key of a {@link BuildFingerprint} and holds a copy of every output file of the run that produced it.
+ * <p>
+ * Entries are written to a temporary directory and then renamed into place, so concurrent writers never expose a partially written entry; if two
+ * builds store the same key at once, the first rename wins and the other copy is discarded. The store is kept under a configurable size by evicting
+ * the least recently used entries.
+ */
+class BuildCache {
+    private static final String        ENTRY_FILE     = "entry.properties";
+    private static final String        LAST_USED      = "last-used";
+    private static final String        TEMP_PREFIX    = ".tmp-";
+
+    // Temporary directories older than this were left behind by a build that crashed, and are deleted during eviction
+    private static final long          STALE_TEMP_AGE = 24L * 60 * 60 * 1000;
+
+    // Hit and miss counts for the lifetime of this Maven session
+    private static final AtomicInteger hits           = new AtomicInteger();
+    private static final AtomicInteger misses         = new AtomicInteger();
+
+    private final File                 directory;
+    private final long                 maxSize;
+    private final Log                  log;
+
+    /**
+     * @param directory
+     *            the root directory of the cache
+     * @param maxSize
+     *            the maximum size of the cache in bytes; the least recently used entries are evicted once it is exceeded
+     * @param log
+     */
+    BuildCache(File directory, long maxSize, Log log) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+        this.log = log;
+    }
+
+    /**
+     * Restores the files stored under the provided key to the provided locations. Files that are already the same as the stored ones are left in
+     * place, with their modification times
+     *
+     * @param key
+     * @param files
+     *            the files to restore, in the same order as they were stored
+     * @return true if the entry was found and all files were restored, false on a cache miss
+     */
+    boolean restore(String key, List<File> files) {
+        File entry = new File(directory, key);
+        Properties props = readEntry(entry);
+        if (props == null || Integer.parseInt(props.getProperty("files", "-1")) != files.size()) {
+            log.info("Build cache miss for " + key + " " + counts(misses.incrementAndGet(), hits.get()));
+            return false;
+        }
+
+        try {
+            for (int i = 0; i < files.size(); i++) {
+                File cached = new File(entry, Integer.toString(i));
+                File target = files.get(i);
+                if (target.isFile() && target.length() == cached.length() && FileUtils.contentEquals(cached, target)) {
+                    log.debug("Keeping " + target + " as it is the same as " + cached);
+                    continue;
+                }
+                log.debug("Restoring " + target + " from " + cached);
+                File temp = new File(target.getParentFile(), TEMP_PREFIX + target.getName() + "-" + UUID.randomUUID());
+                try {
+                    copy(cached, temp);
+                    if (target.exists())
+                        FileUtils.forceDelete(target);
+                    if (!temp.renameTo(target))
+                        throw new IOException("Cannot rename " + temp + " to " + target);
+                } finally {
+                    if (temp.exists())
+                        FileUtils.deleteQuietly(temp);
+                }
+            }
+        } catch (IOException e) {
+            // The entry may have been evicted by another build while we were reading it
+            log.warn("Could not restore build cache entry " + key + ": " + e.getMessage());
+            log.info("Build cache miss for " + key + " " + counts(misses.incrementAndGet(), hits.get()));
+            return false;
+        }
+
+        touch(new File(entry, LAST_USED));
+        log.info("Build cache hit for " + key + " " + counts(misses.get(), hits.incrementAndGet()));
+        return true;
+    }
+
+    /**
+     * Stores the provided files under the provided key, then evicts old entries if the cache has grown beyond its maximum size
+     *
+     * @param key
+     * @param files
+     * @throws IOException
+     */
+    void store(String key, List<File> files) throws IOException {
+        File entry = new File(directory, key);
+        if (entry.isDirectory()) {
+            log.debug("Build cache entry " + key + " already exists");
+            return;
+        }
+        if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory())
+            throw new IOException("Cannot create build cache directory " + directory);
+
+        File temp = new File(directory, TEMP_PREFIX + key + "-" + UUID.randomUUID());
+        try {
+            if (!temp.mkdir())
+                throw new IOException("Cannot create " + temp);
+            long size = 0;
+            for (int i = 0; i < files.size(); i++) {
+                File cached = new File(temp, Integer.toString(i));
+                copy(files.get(i), cached);
+                size += sizeOf(cached);
+            }
+            Properties props = new Properties();
+            props.setProperty("files", Integer.toString(files.size()));
+            props.setProperty("size", Long.toString(size));
+            OutputStream out = new FileOutputStream(new File(temp, ENTRY_FILE));
+            try {
+                props.store(out, "ProGuard build cache entry");
+            } finally {
+                out.close();
+            }
+            touch(new File(temp, LAST_USED));
+
+            // Publish the entry; if another build got there first, keep theirs
+            if (!temp.renameTo(entry)) {
+                if (!entry.isDirectory())
+                    throw new IOException("Cannot rename " + temp + " to " + entry);
+                log.debug("Build cache entry " + key + " was stored concurrently by another build");
+            } else
+                log.info("Stored ProGuard outputs in build cache as " + key);
+        } finally {
+            if (temp.exists())
+                FileUtils.deleteQuietly(temp);
+        }
+
+        evict();
+    }
+
+    /**
+     * Deletes the least recently used entries until the cache is no larger than its maximum size, along with the temporary directories of builds
+     * that crashed while storing or evicting an entry
+     */
+    private void evict() {
+        File[] entries = directory.listFiles();
+        if (entries == null)
+            return;
+
+        List<File> valid = new ArrayList<File>();
+        long total = 0;
+        long staleBefore = System.currentTimeMillis() - STALE_TEMP_AGE;
+        for (File entry : entries) {
+            if (entry.getName().startsWith(TEMP_PREFIX)) {
+                // A build still storing this entry would have written it recently
+                if (entry.lastModified() < staleBefore) {
+                    log.debug("Deleting stale build cache directory " + entry.getName());
+                    FileUtils.deleteQuietly(entry);
+                }
+                continue;
+            }
+            if (!entry.isDirectory())
+                continue;
+            Properties props = readEntry(entry);
+            if (props == null)
+                continue;
+            total += Long.parseLong(props.getProperty("size", "0"));
+            valid.add(entry);
+        }
+        if (total <= maxSize)
+            return;
+
+        File[] sorted = valid.toArray(new File[valid.size()]);
+        Arrays.sort(sorted, new Comparator<File>() {
+            public int compare(File a, File b) {
+                long la = new File(a, LAST_USED).lastModified();
+                long lb = new File(b, LAST_USED).lastModified();
+                return (la < lb) ? -1 : ((la == lb) ? 0 : 1);
+            }
+        });
+        for (File entry : sorted) {
+            if (total <= maxSize)
+                break;
+            Properties props = readEntry(entry);
+            long size = (props != null) ? Long.parseLong(props.getProperty("size", "0")) : 0;
+
+            // Move the entry out of the way first so no other build can start restoring it
+            File doomed = new File(directory, TEMP_PREFIX + entry.getName() + "-" + UUID.randomUUID());
+            if (entry.renameTo(doomed)) {
+                log.info("Evicting build cache entry " + entry.getName());
+                FileUtils.deleteQuietly(doomed);
+                total -= size;
+            }
+        }
+    }
+
+    private static Properties readEntry(File entry) {
+        File file = new File(entry, ENTRY_FILE);
+        if (!file.isFile())
+            return null;
+        Properties props = new Properties();
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            props.load(in);
+
+            // An entry whose counts cannot be read is as good as missing
+            Integer.parseInt(props.getProperty("files", "-1"));
+            Long.parseLong(props.getProperty("size", "0"));
+            return props;
+        } catch (IOException e) {
+            return null;
+        } catch (NumberFormatException e) {
+            return null;
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    private static void copy(File from, File to) throws IOException {
+        if (from.isDirectory())
+            FileUtils.copyDirectory(from, to);
+        else
+            FileUtils.copyFile(from, to);
+    }
+
+    private static long sizeOf(File file) {
+        return file.isDirectory() ? FileUtils.sizeOfDirectory(file) : file.length();
+    }
+
+    private static void touch(File file) {
+        try {
+            FileUtils.touch(file);
+        } catch (IOException e) {
+            // Only affects eviction order
+        }
+    }
+
+    private static String counts(int missCount, int hitCount) {
+        return "(" + hitCount + " hit(s), " + missCount + " miss(es) in this session)";
+    }
+}
@@ -0,0 +1,314 @@
+package com.idfconnect.devtools.maven.proguard;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * A fingerprint of everything that feeds a ProGuard run: the input files, the library jars, the include file and the generated option list. Each
+ * contribution is recorded as a separate component so that a mismatch against a previous fingerprint can be explained component by component.
+ * <p>
+ * File contents are hashed, but the digests are cached by path, length and modification time so that unchanged files are not read again on the next
+ * build. Besides the per-component view used for the local up-to-date check, the fingerprint also yields a location independent cache key which does
+ * not depend on where the files happen to live, so that it can be shared between machines.
+ */
+class BuildFingerprint {
+    /**
+     * Name of the file, relative to the ProGuard output directory, in which the fingerprint of the last successful run is kept
+     */
+    static final String         FINGERPRINT_FILE = "proguard.fingerprint";
+
+    private static final String COMPONENT_PREFIX = "component.";
+    private static final String STAT_PREFIX      = "stat.";
+    private static final String VALUE_PREFIX     = "value.";
+    private static final String MISSING          = "missing";
+    private static final char[] HEX              = "0123456789abcdef".toCharArray();
+
+    // Component name to digest, in the order the components were added
+    private final Map<String, String> components = new LinkedHashMap<String, String>();
+
+    // The location independent parts of this fingerprint, in the order they were added
+    private final List<String>        keyParts   = new ArrayList<String>();
+
+    // File digests keyed by absolute path, from the previous fingerprint (read) and for this one (written)
+    private final Properties          previousStats;
+    private final Properties          stats      = new Properties();
+
+    // Values stored along with this fingerprint, such as a result derived from what it covers, which are not part of it
+    private final Properties          values     = new Properties();
+
+    /**
+     * Creates an empty fingerprint, optionally reusing the cached file digests of a previous fingerprint
+     *
+     * @param previous
+     *            the previous fingerprint, may be null
+     */
+    BuildFingerprint(BuildFingerprint previous) {
+        this.previousStats = (previous != null) ? previous.stats : new Properties();
+    }
+
+    /**
+     * Loads a previously stored fingerprint
+     *
+     * @param file
+     * @return the fingerprint, or null if the file does not exist, cannot be read or is corrupt
+     */
+    static BuildFingerprint load(File file) {
+        if (!file.isFile())
+            return null;
+        Properties props = new Properties();
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            props.load(in);
+        } catch (IOException e) {
+            return null;
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+
+        BuildFingerprint fingerprint = new BuildFingerprint(null);
+        int count;
+        try {
+            count = Integer.parseInt(props.getProperty("components", "0"));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        for (int i = 0; i < count; i++) {
+            String name = props.getProperty(COMPONENT_PREFIX + i + ".name");
+            String digest = props.getProperty(COMPONENT_PREFIX + i + ".digest");
+            if (name != null && digest != null)
+                fingerprint.components.put(name, digest);
+        }
+        for (String key : props.stringPropertyNames()) {
+            if (key.startsWith(STAT_PREFIX))
+                fingerprint.stats.setProperty(key.substring(STAT_PREFIX.length()), props.getProperty(key));
+            else if (key.startsWith(VALUE_PREFIX))
+                fingerprint.values.setProperty(key.substring(VALUE_PREFIX.length()), props.getProperty(key));
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Stores this fingerprint
+     *
+     * @param file
+     * @throws IOException
+     */
+    void store(File file) throws IOException {
+        Properties props = new Properties();
+        props.setProperty("components", Integer.toString(components.size()));
+        int i = 0;
+        for (Map.Entry<String, String> entry : components.entrySet()) {
+            props.setProperty(COMPONENT_PREFIX + i + ".name", entry.getKey());
+            props.setProperty(COMPONENT_PREFIX + i + ".digest", entry.getValue());
+            i++;
+        }
+        for (String key : stats.stringPropertyNames())
+            props.setProperty(STAT_PREFIX + key, stats.getProperty(key));
+        for (String key : values.stringPropertyNames())
+            props.setProperty(VALUE_PREFIX + key, values.getProperty(key));
+
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(file);
+            props.store(out, "ProGuard build fingerprint - do not edit");
+        } finally {
+            IOUtils.closeQuietly(out);
+        }
+    }
+
+    /**
+     * Adds the contents of the provided file or directory as a component of this fingerprint
+     *
+     * @param role
+     *            a short description of what the file is used for, e.g. <em>input</em> or <em>library</em>
+     * @param file
+     * @throws IOException
+     */
+    void addFile(String role, File file) throws IOException {
+        String digest = digestFileOrDirectory(file);
+        components.put(role + " " + file.getAbsolutePath(), digest);
+        keyParts.add(role + "=" + digest);
+    }
+
+    /**
+     * Adds a String value as a component of this fingerprint
+     *
+     * @param role
+     * @param value
+     */
+    void addString(String role, String value) {
+        String digest = digestString(value);
+        components.put(role, digest);
+        keyParts.add(role + "=" + digest);
+    }
+
+    /**
+     * Adds a String value which only applies to this machine, such as an absolute output path. It is taken into account by the up-to-date check but not
+     * by the cache key
+     *
+     * @param role
+     * @param value
+     */
+    void addLocalString(String role, String value) {
+        components.put(role, digestString(value));
+    }
+
+    /**
+     * Stores a value along with this fingerprint, without making it part of it
+     *
+     * @param name
+     * @param value
+     */
+    void setValue(String name, String value) {
+        values.setProperty(name, value);
+    }
+
+    /**
+     * @param name
+     * @return a value stored along with this fingerprint, or null
+     */
+    String getValue(String name) {
+        return values.getProperty(name);
+    }
+
+    /**
+     * Returns a single, location independent digest over the contents of this fingerprint
+     *
+     * @return the digest as a hex String
+     */
+    String getCacheKey() {
+        MessageDigest md = newDigest();
+        for (String part : keyParts) {
+            md.update(utf8(part));
+            md.update((byte) '\n');
+        }
+        return toHex(md.digest());
+    }
+
+    /**
+     * Compares this fingerprint with a previous one and describes every difference
+     *
+     * @param previous
+     *            the previous fingerprint, may be null
+     * @return a list of reasons why the fingerprints differ; an empty list means they match
+     */
+    List<String> describeChanges(BuildFingerprint previous) {
+        List<String> reasons = new ArrayList<String>();
+        if (previous == null) {
+            reasons.add("no fingerprint of a previous run was found");
+            return reasons;
+        }
+        for (Map.Entry<String, String> entry : components.entrySet()) {
+            String old = previous.components.get(entry.getKey());
+            if (old == null)
+                reasons.add(entry.getKey() + " was added");
+            else if (!old.equals(entry.getValue()))
+                reasons.add(entry.getKey() + " has changed");
+        }
+        for (String name : previous.components.keySet()) {
+            if (!components.containsKey(name))
+                reasons.add(name + " was removed");
+        }
+        return reasons;
+    }
+
+    private String digestFileOrDirectory(File file) throws IOException {
+        if (!file.exists())
+            return MISSING;
+        if (file.isFile())
+            return digestFile(file);
+
+        // Directories are hashed as the sorted list of their relative file names and file digests
+        MessageDigest md = newDigest();
+        digestDirectory(file, "", md);
+        return toHex(md.digest());
+    }
+
+    private void digestDirectory(File dir, String prefix, MessageDigest md) throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null)
+            return;
+        Arrays.sort(files);
+        for (File f : files) {
+            String name = prefix + f.getName();
+            if (f.isDirectory())
+                digestDirectory(f, name + "/", md);
+            else {
+                md.update(utf8(name));
+                md.update((byte) 0);
+                md.update(utf8(digestFile(f)));
+            }
+        }
+    }
+
+    private String digestFile(File file) throws IOException {
+        String path = file.getAbsolutePath();
+        String stat = file.length() + "," + file.lastModified() + ",";
+        String cached = previousStats.getProperty(path);
+        String digest;
+        if (cached != null && cached.startsWith(stat))
+            digest = cached.substring(stat.length());
+        else {
+            MessageDigest md = newDigest();
+            InputStream in = new FileInputStream(file);
+            try {
+                byte[] buffer = new byte[65536];
+                int n;
+                while ((n = in.read(buffer)) != -1)
+                    md.update(buffer, 0, n);
+            } finally {
+                in.close();
+            }
+            digest = toHex(md.digest());
+        }
+        stats.setProperty(path, stat + digest);
+        return digest;
+    }
+
+    private static String digestString(String value) {
+        MessageDigest md = newDigest();
+        md.update(utf8(value));
+        return toHex(md.digest());
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not available", e);
+        }
+    }
+
+    private static byte[] utf8(String s) {
+        try {
+            return s.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,240 @@
+package com.idfconnect.devtools.maven.proguard;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import proguard.ClassPath;
+import proguard.ClassPathEntry;
+import proguard.Configuration;
+import proguard.ConfigurationParser;
+import proguard.ParseException;
+
+/**
+ * Fills in a ProGuard {@link Configuration} from the options prepared by the plug-in. Class path entries, output files and flags are set directly,
+ * so the file names of the inputs and libraries are neither quoted nor tokenized again. Any other option, such as the user-supplied
+ * <em>options</em> and the include file, still goes through the {@link ConfigurationParser}, and all options are applied in the order they are
+ * added.
+ */
+final class ConfigurationBuilder {
+    private final Configuration configuration = new Configuration();
+    private final List<String>  pending       = new ArrayList<String>();
+
+    /**
+     * Adds an option to be parsed by the {@link ConfigurationParser}
+     *
+     * @param option
+     *            the option, such as <code>-keep class Main</code>
+     * @return this builder
+     */
+    ConfigurationBuilder parse(String option) {
+        pending.add(option);
+        return this;
+    }
+
+    /**
+     * Adds an <em>injars</em> entry
+     *
+     * @param file
+     * @param filter
+     *            the filter without its parentheses, may be null
+     * @return this builder
+     * @throws IOException
+     * @throws ParseException
+     */
+    ConfigurationBuilder addProgramJar(File file, String filter) throws IOException, ParseException {
+        flush();
+        configuration.programJars = add(configuration.programJars, new ClassPathEntry(file, false), filter);
+        return this;
+    }
+
+    /**
+     * Adds an <em>outjars</em> entry
+     *
+     * @param file
+     * @return this builder
+     * @throws IOException
+     * @throws ParseException
+     */
+    ConfigurationBuilder addOutputJar(File file) throws IOException, ParseException {
+        flush();
+        configuration.programJars = add(configuration.programJars, new ClassPathEntry(file, true), null);
+        return this;
+    }
+
+    /**
+     * Adds a <em>libraryjars</em> entry
+     *
+     * @param file
+     * @param filter
+     *            the filter without its parentheses, may be null
+     * @return this builder
+     * @throws IOException
+     * @throws ParseException
+     */
+    ConfigurationBuilder addLibraryJar(File file, String filter) throws IOException, ParseException {
+        flush();
+        configuration.libraryJars = add(configuration.libraryJars, new ClassPathEntry(file, false), filter);
+        return this;
+    }
+
+    /**
+     * Sets the file of the <em>printmapping</em> option
+     *
+     * @param file
+     * @return this builder
+     * @throws IOException
+     * @throws ParseException
+     */
+    ConfigurationBuilder setPrintMapping(File file) throws IOException, ParseException {
+        flush();
+        configuration.printMapping = file;
+        return this;
+    }
+
+    /**
+     * Sets the file of the <em>printseeds</em> option
+     *
+     * @param file
+     * @return this builder
+     * @throws IOException
+     * @throws ParseException
+     */
+    ConfigurationBuilder setPrintSeeds(File file) throws IOException, ParseException {
+        flush();
+        configuration.printSeeds = file;
+        return this;
+    }
+
+    /**
+     * Sets the file of the <em>printusage</em> option
+     *
+     * @param file
+     * @return this builder
+     * @throws IOException
+     * @throws ParseException
+     */
+    ConfigurationBuilder setPrintUsage(File file) throws IOException, ParseException {
+        flush();
+        configuration.printUsage = file;
+        return this;
+    }
+
+    /**
+     * Sets the file of the <em>printconfiguration</em> option
+     *
+     * @param file
+     * @return this builder
+     * @throws IOException
+     * @throws ParseException
+     */
+    ConfigurationBuilder setPrintConfiguration(File file) throws IOException, ParseException {
+        flush();
+        configuration.printConfiguration = file;
+        return this;
+    }
+
+    /**
+     * Sets the file of the <em>dump</em> option
+     *
+     * @param file
+     * @return this builder
+     * @throws IOException
+     * @throws ParseException
+     */
+    ConfigurationBuilder setDump(File file) throws IOException, ParseException {
+        flush();
+        configuration.dump = file;
+        return this;
+    }
+
+    /**
+     * Sets a flag that takes no argument, the way the {@link ConfigurationParser} would
+     *
+     * @param name
+     *            the name of the option without its leading dash, such as <code>dontshrink</code>
+     * @return true if the flag was set, false if it is not one this builder knows about and has to be parsed instead
+     * @throws IOException
+     * @throws ParseException
+     */
+    boolean setFlag(String name) throws IOException, ParseException {
+        if (!"dontobfuscate".equals(name) && !"dontshrink".equals(name) && !"dontwarn".equals(name) && !"verbose".equals(name))
+            return false;
+
+        flush();
+        if ("dontobfuscate".equals(name))
+            configuration.obfuscate = false;
+        else if ("dontshrink".equals(name))
+            configuration.shrink = false;
+        else if ("dontwarn".equals(name)) {
+            // An empty list turns off all warnings, but a list from an earlier -dontwarn is kept as the parser does
+            if (configuration.warn == null)
+                configuration.warn = new ArrayList<String>();
+        } else
+            configuration.verbose = true;
+        return true;
+    }
+
+    /**
+     * @return the configuration, with every option added so far applied
+     * @throws IOException
+     * @throws ParseException
+     */
+    Configuration build() throws IOException, ParseException {
+        flush();
+        return configuration;
+    }
+
+    /**
+     * Parses the options added since the last typed one, so that they are applied in order
+     */
+    private void flush() throws IOException, ParseException {
+        if (pending.isEmpty())
+            return;
+        ConfigurationParser parser = new ConfigurationParser(pending.toArray(new String[pending.size()]), System.getProperties());
+        try {
+            parser.parse(configuration);
+        } finally {
+            parser.close();
+        }
+        pending.clear();
+    }
+
+    /**
+     * Adds an entry to a class path, creating the class path if needed. The filter is split into its <code>;</code> separated sections, the last of
+     * which is the general filter, preceded by the jar, war, ear and zip filters as in a ProGuard configuration file
+     */
+    private static ClassPath add(ClassPath classPath, ClassPathEntry entry, String filter) {
+        if (classPath == null)
+            classPath = new ClassPath();
+        if (filter != null) {
+            String[] sections = filter.split(";", -1);
+            int i = sections.length;
+            entry.setFilter(toList(sections[--i]));
+            if (i > 0)
+                entry.setJarFilter(toList(sections[--i]));
+            if (i > 0)
+                entry.setWarFilter(toList(sections[--i]));
+            if (i > 0)
+                entry.setEarFilter(toList(sections[--i]));
+            if (i > 0)
+                entry.setZipFilter(toList(sections[--i]));
+        }
+        classPath.add(entry);
+        return classPath;
+    }
+
+    /**
+     * @return the comma separated elements of a filter section, or null if the section is empty
+     */
+    private static List<String> toList(String section) {
+        List<String> list = new ArrayList<String>();
+        for (String element : section.split(",")) {
+            element = element.trim();
+            if (element.length() > 0)
+                list.add(element);
+        }
+        return list.isEmpty() ? null : list;
+    }
+}
@@ -0,0 +1,75 @@
+package com.idfconnect.devtools.maven.proguard;
+
+import java.util.LinkedList;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Limits the ProGuard runs executing at the same time in the Maven JVM, so that the heap they are estimated to need together stays within a budget.
+ * This keeps parallel builds from running out of memory when many modules reach ProGuard at once.
+ * <p>
+ * Runs are admitted in the order they arrive, so a run needing a large share of the budget is not overtaken forever by smaller ones. A run needing
+ * more than the whole budget is admitted once nothing else is running.
+ */
+final class HeapGovernor {
+    private static final LinkedList<Object> waiting = new LinkedList<Object>();
+    private static long                     used    = 0;
+    private static int                      running = 0;
+
+    private HeapGovernor() {
+    }
+
+    /**
+     * Waits until the provided amount of heap fits within the budget, and reserves it
+     *
+     * @param heap
+     *            the estimated heap needed by the run, in bytes
+     * @param budget
+     *            the heap all concurrent runs may need together, in bytes
+     * @param log
+     * @return the amount reserved, to be passed to {@link #release(long)}
+     * @throws InterruptedException
+     */
+    static long acquire(long heap, long budget, Log log) throws InterruptedException {
+        long reserved = Math.min(heap, budget);
+        Object ticket = new Object();
+        synchronized (HeapGovernor.class) {
+            waiting.addLast(ticket);
+            try {
+                long start = System.currentTimeMillis();
+                boolean waited = false;
+                while (waiting.getFirst() != ticket || (running > 0 && used + reserved > budget)) {
+                    if (!waited) {
+                        log.info("Waiting for " + running + " other ProGuard run(s) to free heap: " + mb(used) + " MB of the " + mb(budget) + " MB budget in use, "
+                                + mb(reserved) + " MB needed");
+                        waited = true;
+                    }
+                    HeapGovernor.class.wait();
+                }
+                if (waited)
+                    log.info("Waited " + (System.currentTimeMillis() - start) + " ms for heap to run ProGuard");
+                used += reserved;
+                running++;
+                return reserved;
+            } finally {
+                waiting.remove(ticket);
+                HeapGovernor.class.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Returns heap reserved by {@link #acquire(long, long, Log)} to the budget
+     *
+     * @param reserved
+     */
+    static synchronized void release(long reserved) {
+        used -= reserved;
+        running--;
+        HeapGovernor.class.notifyAll();
+    }
+
+    private static long mb(long bytes) {
+        return bytes / (1024 * 1024);
+    }
+}
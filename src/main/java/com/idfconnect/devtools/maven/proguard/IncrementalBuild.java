@@ -0,0 +1,538 @@
+package com.idfconnect.devtools.maven.proguard;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Re-processes only the classes of an input directory that changed since the last run, instead of the whole directory.
+ * <p>
+ * The changed classes and the classes that refer to them are the ones written. To rename their references consistently, ProGuard also gets the
+ * classes they refer to as program classes, and the class hierarchy of all of those is closed over superclasses and subclasses so that no library
+ * class extends a program class. The remaining classes of the input directory are passed as a library, and the mapping of the previous run is applied
+ * so that every existing class and member keeps its name. The outputs of the written classes then replace the ones in the output directory; all
+ * other outputs are left as they are.
+ * <p>
+ * This is only sound when ProGuard neither shrinks nor optimizes, since both depend on the whole program. New classes need new names that cannot
+ * clash with the names of the classes that are not processed, so with obfuscation they, like a first run, a change of settings or a change affecting
+ * most classes, lead to a full run. The state of the last successful run, holding a digest of every input file and the complete mapping, is kept
+ * in its own directory.
+ */
+class IncrementalBuild {
+    private static final String  STATE_FILE         = "state.properties";
+    private static final String  MAPPING_FILE       = "mapping.txt";
+    private static final String  SETTINGS_KEY       = "settings";
+    private static final String  FILE_PREFIX        = "file.";
+    private static final Charset UTF_8              = Charset.forName("UTF-8");
+
+    // Above this share of affected classes a full run is about as fast and simpler
+    private static final double  MAX_AFFECTED_SHARE = 0.5;
+
+    private final File                inputDirectory;
+    private final File                outputDirectory;
+    private final File                stateDirectory;
+    private final String              settings;
+    private final boolean             obfuscate;
+    private final Log                 log;
+
+    // Digests of the current input files keyed by relative path, as length, modification time and content digest
+    private final Map<String, String> digests          = new TreeMap<String, String>();
+
+    // What changed since the last run: resources as relative paths, removed classes as internal names
+    private final Set<String>         changedResources = new TreeSet<String>();
+    private final Set<String>         removedResources = new TreeSet<String>();
+    private final Set<String>         removedClasses   = new TreeSet<String>();
+
+    // The internal names of the classes to write
+    private final Set<String>         written          = new TreeSet<String>();
+
+    private boolean                   partial          = false;
+
+    /**
+     * @param inputDirectory
+     *            the classes directory processed by ProGuard
+     * @param outputDirectory
+     *            the output directory of ProGuard
+     * @param stateDirectory
+     *            the directory in which the state of the last run and the staging directories are kept
+     * @param settings
+     *            a description of everything else the output depends on, such as the options and the libraries; any change leads to a full run
+     * @param obfuscate
+     *            whether ProGuard renames classes, in which case the mapping of the last run is applied
+     * @param log
+     */
+    IncrementalBuild(File inputDirectory, File outputDirectory, File stateDirectory, String settings, boolean obfuscate, Log log) {
+        this.inputDirectory = inputDirectory;
+        this.outputDirectory = outputDirectory;
+        this.stateDirectory = stateDirectory;
+        this.settings = BuildFingerprint.toHex(newDigest().digest(settings.getBytes(UTF_8)));
+        this.obfuscate = obfuscate;
+        this.log = log;
+    }
+
+    /**
+     * @return the complete mapping of the last successful run, which is applied to the next incremental one
+     */
+    File getMappingFile() {
+        return new File(stateDirectory, MAPPING_FILE);
+    }
+
+    /**
+     * @return the directory holding the classes to process in an incremental run
+     */
+    File getStagingInput() {
+        return new File(stateDirectory, "in");
+    }
+
+    /**
+     * @return the directory ProGuard writes to in an incremental run
+     */
+    File getStagingOutput() {
+        return new File(stateDirectory, "out");
+    }
+
+    /**
+     * @return the file ProGuard writes the mapping of an incremental run to
+     */
+    File getStagingMapping() {
+        return new File(stateDirectory, "mapping-increment.txt");
+    }
+
+    /**
+     * @return true if only part of the classes is processed, as worked out by {@link #prepare()}
+     */
+    boolean isPartial() {
+        return partial;
+    }
+
+    /**
+     * @return true if a partial run has no classes to process, so that ProGuard need not be launched; changed resources are then copied as they are
+     */
+    boolean isEmpty() {
+        return partial && written.isEmpty();
+    }
+
+    /**
+     * Works out what changed since the last successful run and, if only part of the classes needs to be processed, copies them into the staging input.
+     * The recorded state of the last run is removed, so that a run which fails or is not completed by this class is never taken as a basis for the
+     * next one; its mapping is kept until it is replaced
+     *
+     * @return true if only part of the classes is processed, false if a full run is needed
+     * @throws IOException
+     */
+    boolean prepare() throws IOException {
+        Properties previous = loadState();
+        delete(new File(stateDirectory, STATE_FILE));
+        FileUtils.deleteDirectory(getStagingInput());
+        FileUtils.deleteDirectory(getStagingOutput());
+        delete(getStagingMapping());
+        scan(inputDirectory, "", previous);
+
+        String reason = compare(previous);
+        if (reason != null) {
+            log.info("Processing all classes: " + reason);
+            return false;
+        }
+
+        // Read the class headers to find the classes that refer to the changed ones and the class hierarchy
+        Map<String, ClassInfo> classes = new HashMap<String, ClassInfo>();
+        for (String path : digests.keySet()) {
+            if (isClass(path)) {
+                ClassInfo info = ClassInfo.read(new File(inputDirectory, path), path);
+                classes.put(info.header.name, info);
+            }
+        }
+        Set<String> changedClasses = new HashSet<String>();
+        for (ClassInfo info : classes.values()) {
+            if (!sameDigest(previous, info.path))
+                changedClasses.add(info.header.name);
+        }
+        written.addAll(changedClasses);
+        for (ClassInfo info : classes.values()) {
+            for (String name : info.references) {
+                if (changedClasses.contains(name)) {
+                    written.add(info.header.name);
+                    break;
+                }
+            }
+        }
+
+        Set<String> program = closeHierarchy(classes, referencedBy(classes, written));
+        if (program.size() > classes.size() * MAX_AFFECTED_SHARE) {
+            log.info("Processing all classes: " + program.size() + " of " + classes.size() + " classes are affected by the changes");
+            written.clear();
+            changedResources.clear();
+            return false;
+        }
+
+        // Stage the classes for ProGuard, together with the changed resources
+        File staging = getStagingInput();
+        FileUtils.forceMkdir(staging);
+        for (String name : program)
+            FileUtils.copyFile(new File(inputDirectory, classes.get(name).path), new File(staging, classes.get(name).path));
+        for (String path : changedResources)
+            FileUtils.copyFile(new File(inputDirectory, path), new File(staging, path));
+        FileUtils.forceMkdir(getStagingOutput());
+
+        log.info("Processing " + program.size() + " of " + classes.size() + " classes incrementally: " + changedClasses.size() + " changed, "
+                + (written.size() - changedClasses.size()) + " depending on them, " + (program.size() - written.size()) + " only referenced; "
+                + removedClasses.size() + " removed, " + changedResources.size() + " resource(s) changed and " + removedResources.size() + " removed");
+        partial = true;
+        return true;
+    }
+
+    /**
+     * Completes a successful partial run: the outputs of the written classes and changed resources replace the old ones, the outputs of removed
+     * classes and resources are deleted, and the mapping of the run is merged into the complete mapping
+     *
+     * @param printMapping
+     *            the file to copy the complete mapping to, may be null
+     * @throws IOException
+     */
+    void complete(File printMapping) throws IOException {
+        Map<String, MappingEntry> mapping = obfuscate ? readMapping(getMappingFile()) : new LinkedHashMap<String, MappingEntry>();
+        Map<String, MappingEntry> increment = obfuscate ? readMapping(getStagingMapping()) : new HashMap<String, MappingEntry>();
+
+        for (String name : removedClasses) {
+            MappingEntry entry = mapping.remove(name);
+            delete(new File(outputDirectory, ((entry != null) ? entry.obfuscatedName : name) + ".class"));
+        }
+        for (String name : written) {
+            MappingEntry entry = increment.get(name);
+            if (entry != null)
+                mapping.put(name, entry);
+            String outputName = ((entry != null) ? entry.obfuscatedName : name) + ".class";
+            File output = new File(getStagingOutput(), outputName);
+            if (!output.isFile())
+                throw new IOException("ProGuard did not write " + outputName + " for " + name);
+            FileUtils.copyFile(output, new File(outputDirectory, outputName));
+        }
+        for (String path : removedResources)
+            delete(new File(outputDirectory, path));
+        for (String path : changedResources) {
+            File output = new File(isEmpty() ? inputDirectory : getStagingOutput(), path);
+            if (output.isFile())
+                FileUtils.copyFile(output, new File(outputDirectory, path));
+        }
+
+        FileUtils.deleteDirectory(getStagingInput());
+        FileUtils.deleteDirectory(getStagingOutput());
+        if (obfuscate) {
+            writeMapping(mapping, getMappingFile());
+            delete(getStagingMapping());
+            if (printMapping != null)
+                FileUtils.copyFile(getMappingFile(), printMapping);
+        }
+        storeState();
+    }
+
+    /**
+     * Records the state after a successful full run
+     *
+     * @param printMapping
+     *            the mapping written by the run, may be null if it was written to {@link #getMappingFile()} or there is none
+     * @throws IOException
+     */
+    void recordFullRun(File printMapping) throws IOException {
+        FileUtils.forceMkdir(stateDirectory);
+        if (obfuscate && printMapping != null && !printMapping.equals(getMappingFile()))
+            FileUtils.copyFile(printMapping, getMappingFile());
+        if (obfuscate && !getMappingFile().isFile()) {
+            log.warn("No ProGuard mapping was written, so the next run processes all classes again");
+            return;
+        }
+        storeState();
+    }
+
+    /**
+     * @return the reason why a full run is needed, or null if a partial run will do
+     */
+    private String compare(Properties previous) {
+        if (previous == null)
+            return "there is no state of a previous incremental run";
+        if (!settings.equals(previous.getProperty(SETTINGS_KEY)))
+            return "the options, libraries or include file have changed";
+        if (!outputDirectory.isDirectory())
+            return "the previous output " + outputDirectory + " does not exist";
+        if (obfuscate && !getMappingFile().isFile())
+            return "the mapping of the previous run is missing";
+
+        int newClasses = 0;
+        for (String path : digests.keySet()) {
+            if (sameDigest(previous, path))
+                continue;
+            if (!isClass(path))
+                changedResources.add(path);
+            else if (previous.getProperty(FILE_PREFIX + path) == null)
+                newClasses++;
+        }
+        if (obfuscate && newClasses > 0)
+            return newClasses + " new class(es) need names that do not clash with those of the unchanged classes";
+        for (String key : previous.stringPropertyNames()) {
+            if (!key.startsWith(FILE_PREFIX))
+                continue;
+            String path = key.substring(FILE_PREFIX.length());
+            if (digests.containsKey(path))
+                continue;
+            if (isClass(path))
+                removedClasses.add(path.substring(0, path.length() - ".class".length()));
+            else
+                removedResources.add(path);
+        }
+        return null;
+    }
+
+    /**
+     * @return the provided classes together with the program classes they refer to
+     */
+    private static Set<String> referencedBy(Map<String, ClassInfo> classes, Set<String> names) {
+        Set<String> result = new HashSet<String>(names);
+        for (String name : names) {
+            for (String reference : classes.get(name).references) {
+                if (classes.containsKey(reference))
+                    result.add(reference);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Closes the provided classes over their superclasses, interfaces and subclasses within the program classes
+     */
+    private static Set<String> closeHierarchy(Map<String, ClassInfo> classes, Set<String> names) {
+        Map<String, List<String>> subclasses = new HashMap<String, List<String>>();
+        for (ClassInfo info : classes.values()) {
+            List<String> supers = new ArrayList<String>(Arrays.asList(info.header.interfaceNames));
+            if (info.header.superName != null)
+                supers.add(info.header.superName);
+            for (String name : supers) {
+                List<String> list = subclasses.get(name);
+                if (list == null) {
+                    list = new ArrayList<String>();
+                    subclasses.put(name, list);
+                }
+                list.add(info.header.name);
+            }
+        }
+
+        Set<String> result = new TreeSet<String>();
+        LinkedList<String> pending = new LinkedList<String>(names);
+        while (!pending.isEmpty()) {
+            String name = pending.removeFirst();
+            ClassInfo info = classes.get(name);
+            if (info == null || !result.add(name))
+                continue;
+            if (info.header.superName != null)
+                pending.add(info.header.superName);
+            pending.addAll(Arrays.asList(info.header.interfaceNames));
+            List<String> list = subclasses.get(name);
+            if (list != null)
+                pending.addAll(list);
+        }
+        return result;
+    }
+
+    /**
+     * Computes the digests of all files in the provided directory, reusing those of the previous state for files whose length and modification time
+     * have not changed
+     */
+    private void scan(File dir, String prefix, Properties previous) throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null)
+            return;
+        Arrays.sort(files);
+        for (File f : files) {
+            String path = prefix + f.getName();
+            if (f.isDirectory()) {
+                scan(f, path + "/", previous);
+                continue;
+            }
+            String stat = f.length() + "," + f.lastModified() + ",";
+            String cached = (previous != null) ? previous.getProperty(FILE_PREFIX + path) : null;
+            digests.put(path, (cached != null && cached.startsWith(stat)) ? cached : stat + digest(f));
+        }
+    }
+
+    /**
+     * @return true if the content of the provided input file is the same as in the previous state
+     */
+    private boolean sameDigest(Properties previous, String path) {
+        String old = previous.getProperty(FILE_PREFIX + path);
+        return old != null && contentDigest(old).equals(contentDigest(digests.get(path)));
+    }
+
+    private static String contentDigest(String value) {
+        return value.substring(value.lastIndexOf(',') + 1);
+    }
+
+    private static boolean isClass(String path) {
+        return path.endsWith(".class");
+    }
+
+    private Properties loadState() {
+        File file = new File(stateDirectory, STATE_FILE);
+        if (!file.isFile())
+            return null;
+        Properties props = new Properties();
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            props.load(in);
+        } catch (IOException e) {
+            return null;
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+        return props;
+    }
+
+    private void storeState() throws IOException {
+        Properties props = new Properties();
+        props.setProperty(SETTINGS_KEY, settings);
+        for (Map.Entry<String, String> entry : digests.entrySet())
+            props.setProperty(FILE_PREFIX + entry.getKey(), entry.getValue());
+        OutputStream out = new FileOutputStream(new File(stateDirectory, STATE_FILE));
+        try {
+            props.store(out, "ProGuard incremental state - do not edit");
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void delete(File file) throws IOException {
+        if (file.exists() && !file.delete())
+            throw new IOException("Cannot delete " + file);
+    }
+
+    private static String digest(File file) throws IOException {
+        MessageDigest md = newDigest();
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[65536];
+            int n;
+            while ((n = in.read(buffer)) != -1)
+                md.update(buffer, 0, n);
+        } finally {
+            in.close();
+        }
+        return BuildFingerprint.toHex(md.digest());
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not available", e);
+        }
+    }
+
+    /**
+     * Reads a ProGuard mapping file into one entry per class, keyed by the original class name in internal form
+     */
+    private static Map<String, MappingEntry> readMapping(File file) throws IOException {
+        Map<String, MappingEntry> mapping = new LinkedHashMap<String, MappingEntry>();
+        if (!file.isFile())
+            return mapping;
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            MappingEntry entry = null;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.length() == 0)
+                    continue;
+                if (Character.isWhitespace(line.charAt(0))) {
+                    if (entry != null)
+                        entry.lines.add(line);
+                    continue;
+                }
+                int arrow = line.indexOf(" -> ");
+                if (arrow < 0 || !line.endsWith(":"))
+                    throw new IOException("Unexpected line in mapping " + file + ": " + line);
+                entry = new MappingEntry(line.substring(arrow + 4, line.length() - 1).replace('.', '/'));
+                entry.lines.add(line);
+                mapping.put(line.substring(0, arrow).replace('.', '/'), entry);
+            }
+        } finally {
+            reader.close();
+        }
+        return mapping;
+    }
+
+    private static void writeMapping(Map<String, MappingEntry> mapping, File file) throws IOException {
+        PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+        try {
+            for (MappingEntry entry : mapping.values()) {
+                for (String line : entry.lines)
+                    writer.println(line);
+            }
+        } finally {
+            writer.close();
+        }
+        if (writer.checkError())
+            throw new IOException("Failed to write " + file);
+    }
+
+    /**
+     * The mapping of a single class: its obfuscated name and the lines describing it
+     */
+    private static class MappingEntry {
+        final String       obfuscatedName;
+        final List<String> lines = new ArrayList<String>();
+
+        MappingEntry(String obfuscatedName) {
+            this.obfuscatedName = obfuscatedName;
+        }
+    }
+
+    /**
+     * A class of the input directory with the program classes and other names it refers to
+     */
+    private static class ClassInfo {
+        final String              path;
+        final Set<String>         references = new HashSet<String>();
+        LibraryPruner.ClassHeader header;
+
+        private ClassInfo(String path) {
+            this.path = path;
+        }
+
+        static ClassInfo read(File file, String path) throws IOException {
+            ClassInfo info = new ClassInfo(path);
+            InputStream in = new BufferedInputStream(new FileInputStream(file));
+            try {
+                info.header = LibraryPruner.ClassHeader.read(in, info.references);
+            } finally {
+                in.close();
+            }
+            info.references.remove(info.header.name);
+            return info;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.idfconnect.devtools.maven.proguard;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Splits the program inputs of a ProGuard run into groups that do not reference each other, so that each group can be processed by a run of its
+ * own.
+ * <p>
+ * The constant pools of the classes of each input are scanned as they are by {@link LibraryPruner}. Two inputs belong to the same group if either
+ * one names a class the other defines, directly or through other inputs, or if both define classes in the same package. Each group is obfuscated
+ * on its own, and obfuscated class names are only unique within a package, so keeping every package in one group keeps the obfuscated names of the
+ * groups apart, as long as the names of the packages themselves are kept. An input without classes is a group of its own.
+ */
+final class InputShards {
+    private InputShards() {
+    }
+
+    /**
+     * Groups the provided inputs
+     *
+     * @param inputs
+     *            the program jars, archives or directories
+     * @param packages
+     *            filled with the internal names of the packages of the input classes, the empty string for the default package
+     * @return the groups, each in input order, ordered by their first input
+     * @throws IOException
+     *             if an input cannot be scanned
+     */
+    static List<List<File>> group(List<File> inputs, Set<String> packages) throws IOException {
+        int[] parent = new int[inputs.size()];
+        List<Set<String>> references = new ArrayList<Set<String>>();
+        Map<String, Integer> owners = new HashMap<String, Integer>();
+        Map<String, Integer> packageOwners = new HashMap<String, Integer>();
+        for (int i = 0; i < inputs.size(); i++) {
+            parent[i] = i;
+            Set<String> programClasses = new HashSet<String>();
+            Set<String> referenced = new HashSet<String>();
+            LibraryPruner.scanInputs(Collections.singletonList(inputs.get(i)), programClasses, referenced);
+            for (String name : programClasses) {
+                Integer owner = owners.get(name);
+                if (owner == null)
+                    owners.put(name, i);
+                else
+                    union(parent, owner, i);
+                String packageName = name.substring(0, Math.max(0, name.lastIndexOf('/')));
+                packages.add(packageName);
+                Integer packageOwner = packageOwners.get(packageName);
+                if (packageOwner == null)
+                    packageOwners.put(packageName, i);
+                else
+                    union(parent, packageOwner, i);
+            }
+            references.add(referenced);
+        }
+        for (int i = 0; i < inputs.size(); i++) {
+            for (String name : references.get(i)) {
+                Integer owner = owners.get(name);
+                if (owner != null)
+                    union(parent, owner, i);
+            }
+        }
+
+        Map<Integer, List<File>> groups = new LinkedHashMap<Integer, List<File>>();
+        for (int i = 0; i < inputs.size(); i++) {
+            int root = find(parent, i);
+            List<File> group = groups.get(root);
+            if (group == null) {
+                group = new ArrayList<File>();
+                groups.put(root, group);
+            }
+            group.add(inputs.get(i));
+        }
+        return new ArrayList<List<File>>(groups.values());
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    private static void union(int[] parent, int a, int b) {
+        int rootA = find(parent, a);
+        int rootB = find(parent, b);
+        if (rootA < rootB)
+            parent[rootB] = rootA;
+        else if (rootB < rootA)
+            parent[rootA] = rootB;
+    }
+}
@@ -0,0 +1,197 @@
+package com.idfconnect.devtools.maven.proguard;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.URI;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Locates the class libraries of a modular (Java 9 and later) runtime, which has no <code>rt.jar</code>.
+ * <p>
+ * Only the modules the program can need are used: the modules exporting the packages the input classes refer to, or that the library classes they use
+ * refer to in their supertypes and member signatures, closed over the modules they require, and always <code>java.base</code>. Each module is taken
+ * from the <code>jmods</code> directory of the JDK, or, for runtime images without one, is extracted once from the <code>jrt:/</code> file system
+ * into a plain jar.
+ * <p>
+ * The module graph is read through <code>java.lang.module</code> by reflection, since the plug-in itself is built for older Java versions. It therefore
+ * describes the runtime running the build.
+ */
+class JdkRuntime {
+    /**
+     * The filter applied to jmod files, which also contain native libraries, configuration files and the module descriptor
+     */
+    static final String JMOD_FILTER = "!**module-info.class,**.class";
+
+    private final File javaHome;
+    private final File extractDirectory;
+    private final Log  log;
+
+    /**
+     * @param javaHome
+     *            the home directory of the running Java runtime
+     * @param extractDirectory
+     *            the directory for modules extracted from the <code>jrt:/</code> file system
+     * @param log
+     */
+    JdkRuntime(File javaHome, File extractDirectory, Log log) {
+        this.javaHome = javaHome;
+        this.extractDirectory = extractDirectory;
+        this.log = log;
+    }
+
+    /**
+     * @return true if the running Java runtime is modular
+     */
+    static boolean isModular() {
+        try {
+            Class.forName("java.lang.module.ModuleFinder");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Selects the modules the provided class references can need
+     *
+     * @param referenced
+     *            class names in internal form, as collected by {@link LibraryPruner#closeReferences(List, List)}
+     * @return the names of the selected modules, sorted
+     * @throws IOException
+     *             if the module graph cannot be read
+     */
+    Set<String> selectModules(Set<String> referenced) throws IOException {
+        Map<String, String> packageModules = new HashMap<String, String>();
+        Map<String, List<String>> requires = new HashMap<String, List<String>>();
+        readModuleGraph(packageModules, requires);
+
+        LinkedList<String> pending = new LinkedList<String>();
+        pending.add("java.base");
+        for (String name : referenced) {
+            int slash = name.lastIndexOf('/');
+            if (slash > 0) {
+                String module = packageModules.get(name.substring(0, slash).replace('/', '.'));
+                if (module != null)
+                    pending.add(module);
+            }
+        }
+
+        Set<String> modules = new TreeSet<String>();
+        while (!pending.isEmpty()) {
+            String module = pending.removeFirst();
+            if (modules.add(module) && requires.containsKey(module))
+                pending.addAll(requires.get(module));
+        }
+        return modules;
+    }
+
+    /**
+     * Returns the file holding the classes of the provided module
+     *
+     * @param module
+     * @return the jmod file of the module, or a jar extracted from the runtime image
+     * @throws IOException
+     */
+    File getModuleFile(String module) throws IOException {
+        File jmod = new File(javaHome, "jmods/" + module + ".jmod");
+        if (jmod.isFile())
+            return jmod;
+
+        File dir = new File(extractDirectory, System.getProperty("java.runtime.version", "unknown").replaceAll("[^A-Za-z0-9._+-]", "_"));
+        File jar = new File(dir, module + ".jar");
+        if (!jar.isFile())
+            extract(module, dir, jar);
+        return jar;
+    }
+
+    /**
+     * Reads the packages and the non-static requirements of every system module
+     */
+    private static void readModuleGraph(Map<String, String> packageModules, Map<String, List<String>> requires) throws IOException {
+        try {
+            Class<?> finderClass = Class.forName("java.lang.module.ModuleFinder");
+            Class<?> referenceClass = Class.forName("java.lang.module.ModuleReference");
+            Class<?> descriptorClass = Class.forName("java.lang.module.ModuleDescriptor");
+            Class<?> requiresClass = Class.forName("java.lang.module.ModuleDescriptor$Requires");
+            Method descriptorMethod = referenceClass.getMethod("descriptor");
+            Method nameMethod = descriptorClass.getMethod("name");
+            Method packagesMethod = descriptorClass.getMethod("packages");
+            Method requiresMethod = descriptorClass.getMethod("requires");
+            Method requiresNameMethod = requiresClass.getMethod("name");
+            Method modifiersMethod = requiresClass.getMethod("modifiers");
+
+            Object finder = finderClass.getMethod("ofSystem").invoke(null);
+            for (Object reference : (Set<?>) finderClass.getMethod("findAll").invoke(finder)) {
+                Object descriptor = descriptorMethod.invoke(reference);
+                String module = (String) nameMethod.invoke(descriptor);
+                for (Object pkg : (Set<?>) packagesMethod.invoke(descriptor))
+                    packageModules.put((String) pkg, module);
+                List<String> required = new ArrayList<String>();
+                for (Object r : (Set<?>) requiresMethod.invoke(descriptor)) {
+                    if (!((Set<?>) modifiersMethod.invoke(r)).toString().contains("STATIC"))
+                        required.add((String) requiresNameMethod.invoke(r));
+                }
+                requires.put(module, required);
+            }
+        } catch (Exception e) {
+            throw (IOException) new IOException("Cannot read the module graph of the Java runtime: " + e).initCause(e);
+        }
+    }
+
+    /**
+     * Copies the classes of a module from the <code>jrt:/</code> file system into a jar. The jar is written under a temporary name and then renamed,
+     * so concurrent builds never read a partial file
+     */
+    private void extract(String module, File dir, File jar) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory())
+            throw new IOException("Cannot create directory " + dir);
+        log.info("Extracting Java runtime module " + module + " to " + jar);
+
+        FileSystem jrt = FileSystems.getFileSystem(URI.create("jrt:/"));
+        final Path root = jrt.getPath("/modules", module);
+        File temp = new File(dir, jar.getName() + "." + UUID.randomUUID() + ".tmp");
+        final JarOutputStream out = new JarOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 65536));
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    String name = root.relativize(file).toString().replace('\\', '/');
+                    if (name.endsWith(".class") && !name.equals("module-info.class")) {
+                        out.putNextEntry(new ZipEntry(name));
+                        Files.copy(file, out);
+                        out.closeEntry();
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            out.close();
+            if (!temp.renameTo(jar) && !jar.isFile())
+                throw new IOException("Cannot rename " + temp + " to " + jar);
+        } finally {
+            out.close();
+            if (temp.exists())
+                temp.delete();
+        }
+    }
+}
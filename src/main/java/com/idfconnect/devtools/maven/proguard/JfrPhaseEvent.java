@@ -0,0 +1,73 @@
+package com.idfconnect.devtools.maven.proguard;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The Flight Recorder event of a phase, only ever loaded by {@link PhaseEvents} once it has found the Flight Recorder API
+ */
+@Name("com.idfconnect.proguard.Phase")
+@Label("ProGuard Phase")
+@Category({ "Maven", "ProGuard" })
+@Description("A phase of the ProGuard Maven plug-in or of ProGuard itself")
+@StackTrace(false)
+final class JfrPhaseEvent extends Event {
+    @Label("Phase")
+    String phase;
+
+    @Label("Execution")
+    @Description("The variant or shard the phase belongs to")
+    String execution;
+
+    @Label("Artifact")
+    @Description("The coordinates of the artifact the phase works on")
+    String artifact;
+
+    @Label("Classes")
+    @Description("The number of classes the phase works on, or -1")
+    long   classes;
+
+    @Label("Files")
+    @Description("The number of files the phase works on, or -1")
+    int    files;
+
+    @Label("Size")
+    @Description("The number of bytes the phase works on, or -1")
+    @DataAmount
+    long   bytes;
+
+    static boolean isAvailable() {
+        return FlightRecorder.isAvailable();
+    }
+
+    /**
+     * @return the started event, or null if the event is not enabled in any recording
+     */
+    static Object start(String phase, String execution) {
+        JfrPhaseEvent event = new JfrPhaseEvent();
+        if (!event.isEnabled())
+            return null;
+        event.phase = phase;
+        event.execution = execution;
+        event.begin();
+        return event;
+    }
+
+    static void commit(Object started, String artifact, long classes, int files, long bytes) {
+        JfrPhaseEvent event = (JfrPhaseEvent) started;
+        event.end();
+        if (!event.shouldCommit())
+            return;
+        event.artifact = artifact;
+        event.classes = classes;
+        event.files = files;
+        event.bytes = bytes;
+        event.commit();
+    }
+}
@@ -0,0 +1,340 @@
+package com.idfconnect.devtools.maven.proguard;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.maven.plugin.logging.Log;
+
+import proguard.ClassPath;
+import proguard.ClassPathEntry;
+import proguard.Configuration;
+import proguard.InputReader;
+import proguard.classfile.ClassPool;
+import proguard.classfile.LibraryClass;
+import proguard.classfile.LibraryField;
+import proguard.classfile.LibraryMethod;
+import proguard.classfile.io.LibraryClassReader;
+import proguard.classfile.util.WarningPrinter;
+import proguard.classfile.visitor.ClassPoolFiller;
+import proguard.classfile.visitor.ClassPresenceFilter;
+import proguard.classfile.visitor.ClassVisitor;
+import proguard.io.ClassFilter;
+import proguard.io.ClassReader;
+import proguard.util.FileNameParser;
+import proguard.util.ListParser;
+import proguard.util.StringMatcher;
+
+/**
+ * A persistent cache of pre-parsed library classes. The first time a library jar is seen, its classes are parsed exactly as ProGuard would parse them
+ * as library classes, and the result - names, access flags, hierarchy and member signatures - is saved in a compact binary form keyed by the SHA-1 of
+ * the jar. Later runs load that form instead of inflating and parsing the class files again.
+ * <p>
+ * The parsed classes can also be shared in memory with the other executions of the same Maven session through {@link SharedLibraryPools}. Classes
+ * taken from there are leased until {@link #release()} is called.
+ * <p>
+ * Entries that cannot be cached this way (directories, archives with nested archives, entries with nested archive filters) are left to ProGuard.
+ */
+class LibraryClassCache {
+    private static final int MAGIC          = 0x50474c43;
+    private static final int FORMAT_VERSION = 1;
+
+    private final File         directory;
+    private final int          sharedPoolMaxClasses;
+    private final Log          log;
+    private final List<String> leases = new ArrayList<String>();
+
+    /**
+     * @param directory
+     *            the directory in which the pre-parsed jars are kept, or null to keep nothing on disk
+     * @param sharedPoolMaxClasses
+     *            the maximum number of classes kept in memory for the other executions of the session, or 0 to share nothing
+     * @param log
+     */
+    LibraryClassCache(File directory, int sharedPoolMaxClasses, Log log) {
+        this.directory = directory;
+        this.sharedPoolMaxClasses = sharedPoolMaxClasses;
+        this.log = log;
+    }
+
+    /**
+     * Fills the library class pool from the provided library class path, in class path order. As with ProGuard, a library class is ignored if a class
+     * of the same name is already in the program class pool or was found earlier on the library class path
+     *
+     * @param configuration
+     * @param libraryJars
+     * @param programClassPool
+     * @param libraryClassPool
+     * @throws IOException
+     */
+    void fill(Configuration configuration, ClassPath libraryJars, ClassPool programClassPool, ClassPool libraryClassPool) throws IOException {
+        long start = System.currentTimeMillis();
+        int shared = 0;
+        int loaded = 0;
+        int parsed = 0;
+        int direct = 0;
+
+        ClassVisitor filler = new ClassPresenceFilter(programClassPool, null, new ClassPresenceFilter(libraryClassPool, null, new ClassPoolFiller(libraryClassPool)));
+        for (int i = 0; i < libraryJars.size(); i++) {
+            ClassPathEntry entry = libraryJars.get(i);
+            List<CachedClass> classes = null;
+            if (isCacheable(entry)) {
+                String flags = (configuration.skipNonPublicLibraryClasses ? "c" : "") + (configuration.skipNonPublicLibraryClassMembers ? "m" : "");
+                String key = SharedLibraryPools.key(entry.getFile(), flags);
+                if (sharedPoolMaxClasses > 0)
+                    classes = SharedLibraryPools.acquire(key);
+                if (classes != null) {
+                    leases.add(key);
+                    log.debug("Reusing " + classes.size() + " library classes of " + entry.getFile() + " from an earlier execution");
+                    shared++;
+                } else {
+                    File cacheFile = (directory != null) ? new File(directory, sha1(entry.getFile()) + "-" + flags + ".lib") : null;
+                    if (cacheFile != null)
+                        classes = read(cacheFile);
+                    if (classes != null) {
+                        log.debug("Loaded " + classes.size() + " library classes of " + entry.getFile() + " from " + cacheFile);
+                        loaded++;
+                    } else {
+                        classes = parse(entry.getFile(), configuration.skipNonPublicLibraryClasses, configuration.skipNonPublicLibraryClassMembers);
+                        if (classes != null) {
+                            if (cacheFile != null)
+                                write(cacheFile, classes);
+                            parsed++;
+                        }
+                    }
+                    if (classes != null && sharedPoolMaxClasses > 0 && SharedLibraryPools.register(key, classes, sharedPoolMaxClasses))
+                        leases.add(key);
+                }
+            }
+
+            if (classes == null) {
+                // Leave anything we cannot cache to ProGuard
+                ClassPath single = new ClassPath();
+                single.add(entry);
+                WarningPrinter warningPrinter = new WarningPrinter(System.err, configuration.warn);
+                new InputReader(configuration).readInput("Reading library ", single, 0, 1,
+                        new ClassFilter(new ClassReader(true, configuration.skipNonPublicLibraryClasses, configuration.skipNonPublicLibraryClassMembers,
+                                warningPrinter, filler)));
+                direct++;
+                continue;
+            }
+
+            StringMatcher matcher = (entry.getFilter() != null) ? new ListParser(new FileNameParser()).parse(entry.getFilter()) : null;
+            for (CachedClass cached : classes) {
+                if (matcher == null || matcher.matches(cached.entryName))
+                    cached.clazz.accept(filler);
+            }
+        }
+
+        log.info("Prepared " + libraryClassPool.size() + " library classes in " + (System.currentTimeMillis() - start) + " ms (" + shared
+                + " jar(s) shared with earlier executions, " + loaded + " loaded from the library cache, " + parsed + " parsed, " + direct
+                + " read by ProGuard)");
+    }
+
+    /**
+     * Returns the classes leased from the shared pools by {@link #fill(Configuration, ClassPath, ClassPool, ClassPool)}. The library class pool must
+     * no longer be used afterwards
+     */
+    void release() {
+        for (String key : leases)
+            SharedLibraryPools.release(key);
+        leases.clear();
+    }
+
+    /**
+     * Only plain archives without nested archive filters are cached
+     */
+    private static boolean isCacheable(ClassPathEntry entry) {
+        return entry.getFile().isFile() && (entry.isJar() || entry.isZip()) && entry.getJarFilter() == null && entry.getWarFilter() == null
+                && entry.getEarFilter() == null && entry.getZipFilter() == null;
+    }
+
+    /**
+     * Parses all of the classes in the provided archive as library classes
+     *
+     * @return the parsed classes, or null if the archive contains nested archives and should be read by ProGuard instead
+     */
+    static List<CachedClass> parse(File file, boolean skipNonPublicClasses, boolean skipNonPublicMembers) throws IOException {
+        List<CachedClass> classes = new ArrayList<CachedClass>();
+        ZipFile zip = new ZipFile(file);
+        try {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                String name = entry.getName();
+                if (entry.isDirectory())
+                    continue;
+                String lower = name.toLowerCase();
+                if (lower.endsWith(".jar") || lower.endsWith(".war") || lower.endsWith(".ear") || lower.endsWith(".zip"))
+                    return null;
+                if (!lower.endsWith(".class"))
+                    continue;
+
+                InputStream in = zip.getInputStream(entry);
+                try {
+                    LibraryClass clazz = new LibraryClass();
+                    clazz.accept(new LibraryClassReader(new DataInputStream(new BufferedInputStream(in)), skipNonPublicClasses, skipNonPublicMembers));
+                    if (clazz.getName() != null)
+                        classes.add(new CachedClass(name, clazz));
+                } catch (Exception e) {
+                    throw (IOException) new IOException("Can't process class [" + name + "] in " + file + " (" + e.getMessage() + ")").initCause(e);
+                } finally {
+                    in.close();
+                }
+            }
+        } finally {
+            zip.close();
+        }
+        return classes;
+    }
+
+    /**
+     * Reads a pre-parsed jar
+     *
+     * @return the classes, or null if the file does not exist or is not valid
+     */
+    static List<CachedClass> read(File cacheFile) {
+        if (!cacheFile.isFile())
+            return null;
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile), 65536));
+            try {
+                if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION)
+                    return null;
+                int count = in.readInt();
+                List<CachedClass> classes = new ArrayList<CachedClass>(count);
+                for (int i = 0; i < count; i++) {
+                    String entryName = in.readUTF();
+                    LibraryClass clazz = new LibraryClass();
+                    clazz.u2accessFlags = in.readUnsignedShort();
+                    clazz.thisClassName = in.readUTF();
+                    clazz.superClassName = readNullableUTF(in);
+                    clazz.interfaceNames = new String[in.readUnsignedShort()];
+                    for (int j = 0; j < clazz.interfaceNames.length; j++)
+                        clazz.interfaceNames[j] = in.readUTF();
+                    clazz.fields = new LibraryField[in.readUnsignedShort()];
+                    for (int j = 0; j < clazz.fields.length; j++)
+                        clazz.fields[j] = new LibraryField(in.readUnsignedShort(), in.readUTF(), in.readUTF());
+                    clazz.methods = new LibraryMethod[in.readUnsignedShort()];
+                    for (int j = 0; j < clazz.methods.length; j++)
+                        clazz.methods[j] = new LibraryMethod(in.readUnsignedShort(), in.readUTF(), in.readUTF());
+                    classes.add(new CachedClass(entryName, clazz));
+                }
+                return classes;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes a pre-parsed jar. The file is written under a temporary name and then renamed, so concurrent builds never read a partial file
+     */
+    void write(File cacheFile, List<CachedClass> classes) {
+        if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+            log.warn("Cannot create library cache directory " + directory);
+            return;
+        }
+        File temp = new File(directory, cacheFile.getName() + "." + UUID.randomUUID() + ".tmp");
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 65536));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(classes.size());
+                for (CachedClass cached : classes) {
+                    LibraryClass clazz = cached.clazz;
+                    out.writeUTF(cached.entryName);
+                    out.writeShort(clazz.u2accessFlags);
+                    out.writeUTF(clazz.thisClassName);
+                    writeNullableUTF(out, clazz.superClassName);
+                    String[] interfaces = (clazz.interfaceNames != null) ? clazz.interfaceNames : new String[0];
+                    out.writeShort(interfaces.length);
+                    for (String name : interfaces)
+                        out.writeUTF(name);
+                    int fieldCount = (clazz.fields != null) ? clazz.fields.length : 0;
+                    out.writeShort(fieldCount);
+                    for (int j = 0; j < fieldCount; j++) {
+                        out.writeShort(clazz.fields[j].u2accessFlags);
+                        out.writeUTF(clazz.fields[j].name);
+                        out.writeUTF(clazz.fields[j].descriptor);
+                    }
+                    int methodCount = (clazz.methods != null) ? clazz.methods.length : 0;
+                    out.writeShort(methodCount);
+                    for (int j = 0; j < methodCount; j++) {
+                        out.writeShort(clazz.methods[j].u2accessFlags);
+                        out.writeUTF(clazz.methods[j].name);
+                        out.writeUTF(clazz.methods[j].descriptor);
+                    }
+                }
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(cacheFile) && !cacheFile.isFile())
+                log.warn("Cannot rename " + temp + " to " + cacheFile);
+        } catch (IOException e) {
+            log.warn("Cannot write library cache file " + cacheFile + ": " + e.getMessage());
+        } finally {
+            if (temp.exists())
+                temp.delete();
+        }
+    }
+
+    private static String readNullableUTF(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeNullableUTF(DataOutputStream out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null)
+            out.writeUTF(s);
+    }
+
+    static String sha1(File file) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not available", e);
+        }
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[65536];
+            int n;
+            while ((n = in.read(buffer)) != -1)
+                md.update(buffer, 0, n);
+        } finally {
+            in.close();
+        }
+        return BuildFingerprint.toHex(md.digest());
+    }
+
+    /**
+     * A library class together with the name of the archive entry it was read from, which is needed to apply class path filters
+     */
+    static class CachedClass {
+        final String       entryName;
+        final LibraryClass clazz;
+
+        CachedClass(String entryName, LibraryClass clazz) {
+            this.entryName = entryName;
+            this.clazz = clazz;
+        }
+    }
+}
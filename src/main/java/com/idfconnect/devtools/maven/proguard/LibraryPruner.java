@@ -0,0 +1,534 @@
+package com.idfconnect.devtools.maven.proguard;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Works out which library classes the program classes can possibly need, so that ProGuard does not have to read the rest.
+ * <p>
+ * The constant pools of the input classes are scanned for every type they name: class references, member descriptors, generic signatures, annotation
+ * types and string constants that look like class names. The referenced library classes, together with all of their superclasses and interfaces, are
+ * the ones ProGuard needs to build a complete class hierarchy. Each library then gets a class filter listing just those classes, and libraries that
+ * contribute none at all can be left out.
+ */
+class LibraryPruner {
+    // ProGuard matches filters through a chain of nested matchers, so very long filters are not worth the stack depth
+    private static final int MAX_FILTER_ENTRIES = 2000;
+
+    private final Log        log;
+
+    /**
+     * @param log
+     */
+    LibraryPruner(Log log) {
+        this.log = log;
+    }
+
+    /**
+     * Determines how much of each library is used by the inputs
+     *
+     * @param inputs
+     *            the program jars, archives or directories
+     * @param libraries
+     *            the library jars or directories, in class path order
+     * @return the usage of each library, in the same order
+     * @throws IOException
+     */
+    List<LibraryUsage> prune(List<File> inputs, List<File> libraries) throws IOException {
+        long start = System.currentTimeMillis();
+
+        // Collect every name the program classes might refer to
+        Set<String> programClasses = new HashSet<String>();
+        Set<String> referenced = new HashSet<String>();
+        scanInputs(inputs, programClasses, referenced);
+
+        // Index the library classes; as with ProGuard, the first class of any name wins
+        final Map<String, ClassHeader> index = new HashMap<String, ClassHeader>();
+        List<LibraryUsage> usages = new ArrayList<LibraryUsage>();
+        for (File library : libraries) {
+            final LibraryUsage usage = new LibraryUsage(library);
+            usages.add(usage);
+            if (!library.exists())
+                continue;
+            if (library.getName().endsWith(".jmod")) {
+                // Java runtime modules are already selected as a whole by JdkRuntime
+                usage.prunable = false;
+                continue;
+            }
+            final List<ClassHeader> headers = new ArrayList<ClassHeader>();
+            try {
+                usage.prunable = visit(library, new EntryHandler() {
+                    public boolean handle(String name, InputStream in) throws IOException {
+                        if (name == null)
+                            return false;
+                        ClassHeader header = ClassHeader.read(in, null);
+                        header.entryName = name;
+                        headers.add(header);
+                        return true;
+                    }
+                });
+            } catch (IOException e) {
+                log.debug("Library " + library + " is read in full because it cannot be scanned: " + e.getMessage());
+                usage.prunable = false;
+            }
+
+            // Libraries that are read in full still take part in the hierarchy, as far as they could be scanned
+            usage.classes.addAll(headers);
+            for (ClassHeader header : headers) {
+                if (!index.containsKey(header.name))
+                    index.put(header.name, header);
+            }
+        }
+
+        // Close the referenced library classes over their supertypes
+        Set<String> needed = new HashSet<String>();
+        LinkedList<String> pending = new LinkedList<String>();
+        for (String name : referenced) {
+            if (!programClasses.contains(name) && index.containsKey(name))
+                pending.add(name);
+        }
+        for (String name : programClasses)
+            pending.add(name);
+        while (!pending.isEmpty()) {
+            String name = pending.removeFirst();
+            ClassHeader header = index.get(name);
+            if (header == null || !needed.add(name))
+                continue;
+            if (header.superName != null)
+                pending.add(header.superName);
+            pending.addAll(Arrays.asList(header.interfaceNames));
+        }
+
+        int total = 0;
+        int kept = 0;
+        for (LibraryUsage usage : usages) {
+            for (ClassHeader header : usage.classes) {
+                if (needed.contains(header.name) && index.get(header.name) == header)
+                    usage.usedEntries.add(header.entryName);
+            }
+            total += usage.classes.size();
+            kept += usage.prunable ? usage.usedEntries.size() : usage.classes.size();
+        }
+        log.info("Library pruning kept " + kept + " of " + total + " library classes, scanned in " + (System.currentTimeMillis() - start) + " ms");
+        return usages;
+    }
+
+    /**
+     * Collects every name the inputs might refer to, together with the supertypes and the types in the member descriptors of the library classes
+     * they need, closed over the libraries. This finds the classes outside of the libraries that the libraries need in turn, such as the Java
+     * runtime classes a library class extends, implements or uses in its signatures
+     *
+     * @param inputs
+     *            the program jars, archives or directories
+     * @param libraries
+     *            the library jars or directories, in class path order
+     * @return the names, an over-approximation like the one of {@link #scanInputs(List, Set, Set)}
+     * @throws IOException
+     */
+    Set<String> closeReferences(List<File> inputs, List<File> libraries) throws IOException {
+        Set<String> programClasses = new HashSet<String>();
+        Set<String> referenced = new HashSet<String>();
+        scanInputs(inputs, programClasses, referenced);
+
+        // Index the library classes with their member types; as with ProGuard, the first class of any name wins
+        final Map<String, ClassHeader> index = new HashMap<String, ClassHeader>();
+        for (File library : libraries) {
+            if (!library.exists() || library.getName().endsWith(".jmod"))
+                continue;
+            try {
+                visit(library, new EntryHandler() {
+                    public boolean handle(String name, InputStream in) throws IOException {
+                        if (name == null)
+                            return true;
+                        ClassHeader header = ClassHeader.read(in, null, true);
+                        if (!index.containsKey(header.name))
+                            index.put(header.name, header);
+                        return true;
+                    }
+                });
+            } catch (IOException e) {
+                log.debug("Library " + library + " is left out of the reference closure because it cannot be scanned: " + e.getMessage());
+            }
+        }
+
+        Set<String> closure = new HashSet<String>(referenced);
+        Set<String> visited = new HashSet<String>();
+        LinkedList<String> pending = new LinkedList<String>(referenced);
+        while (!pending.isEmpty()) {
+            String name = pending.removeFirst();
+            ClassHeader header = index.get(name);
+            if (header == null || programClasses.contains(name) || !visited.add(name))
+                continue;
+            List<String> types = new ArrayList<String>(header.memberTypes);
+            if (header.superName != null)
+                types.add(header.superName);
+            types.addAll(Arrays.asList(header.interfaceNames));
+            for (String type : types) {
+                if (closure.add(type))
+                    pending.add(type);
+            }
+        }
+        return closure;
+    }
+
+    /**
+     * Scans the constant pools of all of the classes in the provided inputs
+     *
+     * @param inputs
+     *            the program jars, archives or directories
+     * @param programClasses
+     *            receives the names of the classes in the inputs
+     * @param referenced
+     *            receives every name the classes might refer to. This over-approximates: it includes all strings of the constant pools
+     * @throws IOException
+     */
+    static void scanInputs(List<File> inputs, final Set<String> programClasses, final Set<String> referenced) throws IOException {
+        for (File input : inputs) {
+            if (!input.exists())
+                continue;
+            visit(input, new EntryHandler() {
+                public boolean handle(String name, InputStream in) throws IOException {
+                    if (name == null)
+                        return true;
+                    ClassHeader header = ClassHeader.read(in, referenced);
+                    programClasses.add(header.name);
+                    return true;
+                }
+            });
+        }
+    }
+
+    /**
+     * Feeds every class file in the provided jar, archive or directory to the handler. Nested archives are visited as well, with a null entry name
+     *
+     * @return false if the handler declined an entry
+     */
+    private static boolean visit(File file, EntryHandler handler) throws IOException {
+        if (file.isDirectory())
+            return visitDirectory(file, "", handler);
+        InputStream in = new BufferedInputStream(new FileInputStream(file), 65536);
+        try {
+            if (file.getName().toLowerCase().endsWith(".class"))
+                return handler.handle(file.getName(), in);
+            return visitArchive(in, handler);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static boolean visitDirectory(File dir, String prefix, EntryHandler handler) throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null)
+            return true;
+        Arrays.sort(files);
+        for (File f : files) {
+            String name = prefix + f.getName();
+            if (f.isDirectory()) {
+                if (!visitDirectory(f, name + "/", handler))
+                    return false;
+            } else if (isArchive(name)) {
+                if (!handler.handle(null, null) || !visit(f, handler))
+                    return false;
+            } else if (name.toLowerCase().endsWith(".class")) {
+                InputStream in = new BufferedInputStream(new FileInputStream(f));
+                try {
+                    if (!handler.handle(name, in))
+                        return false;
+                } finally {
+                    in.close();
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean visitArchive(InputStream in, EntryHandler handler) throws IOException {
+        ZipInputStream zip = new ZipInputStream(in);
+        ZipEntry entry;
+        while ((entry = zip.getNextEntry()) != null) {
+            String name = entry.getName();
+            if (entry.isDirectory())
+                continue;
+            if (isArchive(name)) {
+                if (!handler.handle(null, null))
+                    return false;
+                // The nested archive must not close the outer one
+                if (!visitArchive(new FilterInputStream(zip) {
+                    @Override
+                    public void close() {
+                    }
+                }, handler))
+                    return false;
+            } else if (name.toLowerCase().endsWith(".class")) {
+                if (!handler.handle(name, zip))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isArchive(String name) {
+        String lower = name.toLowerCase();
+        return lower.endsWith(".jar") || lower.endsWith(".war") || lower.endsWith(".ear") || lower.endsWith(".zip");
+    }
+
+    /**
+     * Receives class file entries
+     */
+    private interface EntryHandler {
+        /**
+         * @param name
+         *            the entry name of the class file, or null when a nested archive is about to be visited
+         * @param in
+         *            the class file contents
+         * @return false to stop visiting
+         */
+        boolean handle(String name, InputStream in) throws IOException;
+    }
+
+    /**
+     * How much of a single library is used
+     */
+    static class LibraryUsage {
+        final File              file;
+        final List<ClassHeader> classes     = new ArrayList<ClassHeader>();
+        final List<String>      usedEntries = new ArrayList<String>();
+        boolean                 prunable    = true;
+
+        LibraryUsage(File file) {
+            this.file = file;
+        }
+
+        /**
+         * @return the library file
+         */
+        File getFile() {
+            return file;
+        }
+
+        /**
+         * @return true if none of the classes in this library are needed
+         */
+        boolean isUnused() {
+            return prunable && usedEntries.isEmpty();
+        }
+
+        /**
+         * Returns a ProGuard file filter matching the classes which are needed from this library. Where every class of a package is needed, the
+         * package is matched with a wildcard
+         *
+         * @return the filter, or null if the whole library should be read
+         */
+        String getFilter() {
+            if (!prunable || usedEntries.size() == classes.size())
+                return null;
+
+            Map<String, Integer> packageSizes = new HashMap<String, Integer>();
+            for (ClassHeader header : classes) {
+                String pkg = packageOf(header.entryName);
+                Integer count = packageSizes.get(pkg);
+                packageSizes.put(pkg, (count == null) ? 1 : count + 1);
+            }
+            Map<String, List<String>> usedByPackage = new LinkedHashMap<String, List<String>>();
+            for (String entry : usedEntries) {
+                String pkg = packageOf(entry);
+                List<String> list = usedByPackage.get(pkg);
+                if (list == null) {
+                    list = new ArrayList<String>();
+                    usedByPackage.put(pkg, list);
+                }
+                list.add(entry);
+            }
+
+            List<String> items = new ArrayList<String>();
+            for (Map.Entry<String, List<String>> e : usedByPackage.entrySet()) {
+                if (e.getValue().size() == packageSizes.get(e.getKey()))
+                    items.add(e.getKey() + "*.class");
+                else
+                    items.addAll(e.getValue());
+            }
+            if (items.size() > MAX_FILTER_ENTRIES)
+                return null;
+
+            StringBuilder sb = new StringBuilder();
+            for (String item : items) {
+                if (sb.length() > 0)
+                    sb.append(',');
+                sb.append(item);
+            }
+            return sb.toString();
+        }
+
+        private static String packageOf(String entryName) {
+            return entryName.substring(0, entryName.lastIndexOf('/') + 1);
+        }
+    }
+
+    /**
+     * The parts of a class file needed to build the class hierarchy
+     */
+    static class ClassHeader {
+        String       name;
+        String       superName;
+        String[]     interfaceNames;
+        String       entryName;
+
+        // The types named in the field and method descriptors, if they were read
+        Set<String>  memberTypes = null;
+
+        /**
+         * Reads the header of a class file
+         *
+         * @param stream
+         * @param referenced
+         *            if not null, receives every type name mentioned in the constant pool
+         * @return the header
+         * @throws IOException
+         */
+        static ClassHeader read(InputStream stream, Set<String> referenced) throws IOException {
+            return read(stream, referenced, false);
+        }
+
+        /**
+         * Reads the header of a class file, and optionally the types named in its field and method descriptors
+         *
+         * @param stream
+         * @param referenced
+         *            if not null, receives every type name mentioned in the constant pool
+         * @param members
+         *            whether to read the fields and methods into {@link #memberTypes}
+         * @return the header
+         * @throws IOException
+         */
+        static ClassHeader read(InputStream stream, Set<String> referenced, boolean members) throws IOException {
+            DataInputStream in = new DataInputStream(stream);
+            if (in.readInt() != 0xcafebabe)
+                throw new IOException("Not a class file");
+            in.readUnsignedShort();
+            in.readUnsignedShort();
+            int count = in.readUnsignedShort();
+            String[] utf8 = new String[count];
+            int[] classNameIndexes = new int[count];
+            for (int i = 1; i < count; i++) {
+                int tag = in.readUnsignedByte();
+                switch (tag) {
+                case 1:
+                    utf8[i] = in.readUTF();
+                    break;
+                case 7:
+                    classNameIndexes[i] = in.readUnsignedShort();
+                    break;
+                case 8:
+                case 16:
+                case 19:
+                case 20:
+                    in.readUnsignedShort();
+                    break;
+                case 15:
+                    in.readUnsignedByte();
+                    in.readUnsignedShort();
+                    break;
+                case 3:
+                case 4:
+                case 9:
+                case 10:
+                case 11:
+                case 12:
+                case 17:
+                case 18:
+                    in.readInt();
+                    break;
+                case 5:
+                case 6:
+                    in.readLong();
+                    i++;
+                    break;
+                default:
+                    throw new IOException("Unknown constant pool tag " + tag);
+                }
+            }
+
+            ClassHeader header = new ClassHeader();
+            in.readUnsignedShort();
+            header.name = utf8[classNameIndexes[in.readUnsignedShort()]];
+            int superIndex = in.readUnsignedShort();
+            header.superName = (superIndex != 0) ? utf8[classNameIndexes[superIndex]] : null;
+            header.interfaceNames = new String[in.readUnsignedShort()];
+            for (int i = 0; i < header.interfaceNames.length; i++)
+                header.interfaceNames[i] = utf8[classNameIndexes[in.readUnsignedShort()]];
+
+            if (referenced != null) {
+                for (String s : utf8) {
+                    if (s != null)
+                        addTypeNames(s, referenced);
+                }
+            }
+
+            if (members) {
+                header.memberTypes = new HashSet<String>();
+                // The fields, then the methods
+                for (int table = 0; table < 2; table++) {
+                    int memberCount = in.readUnsignedShort();
+                    for (int i = 0; i < memberCount; i++) {
+                        in.readUnsignedShort();
+                        in.readUnsignedShort();
+                        String descriptor = utf8[in.readUnsignedShort()];
+                        if (descriptor != null)
+                            addTypeNames(descriptor, header.memberTypes);
+                        int attributeCount = in.readUnsignedShort();
+                        for (int j = 0; j < attributeCount; j++) {
+                            in.readUnsignedShort();
+                            skipFully(in, in.readInt());
+                        }
+                    }
+                }
+            }
+            return header;
+        }
+
+        private static void skipFully(DataInputStream in, int count) throws IOException {
+            while (count > 0) {
+                int skipped = in.skipBytes(count);
+                if (skipped <= 0) {
+                    in.readByte();
+                    skipped = 1;
+                }
+                count -= skipped;
+            }
+        }
+
+        /**
+         * Adds the string itself, its internal form if it looks like a class name, and every embedded <code>Lname;</code> type descriptor
+         */
+        private static void addTypeNames(String s, Set<String> referenced) {
+            referenced.add(s);
+            if (s.indexOf('.') > 0 && s.indexOf('/') < 0)
+                referenced.add(s.replace('.', '/'));
+            for (int start = s.indexOf('L'); start >= 0; start = s.indexOf('L', start + 1)) {
+                int end = start + 1;
+                while (end < s.length() && "();<>[:. ".indexOf(s.charAt(end)) < 0)
+                    end++;
+                if (end > start + 1 && end < s.length() && (s.charAt(end) == ';' || s.charAt(end) == '<'))
+                    referenced.add(s.substring(start + 1, end));
+            }
+        }
+    }
+}
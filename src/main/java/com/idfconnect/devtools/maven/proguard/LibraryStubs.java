@@ -0,0 +1,581 @@
+package com.idfconnect.devtools.maven.proguard;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Generates and caches API stubs of library jars. ProGuard only needs the names, hierarchy and member signatures of library classes, so a stub keeps
+ * every class with its fields and methods, their generic signatures, thrown exceptions, constant values, inner class information and annotations,
+ * and drops the code of every method, the debugging information and all resources. The constant pool is reduced to the entries the remaining parts
+ * use. Stubs can only be read by ProGuard and similar tools, not loaded by a JVM.
+ * <p>
+ * Stubs are kept in a directory shared by all builds, named after the library and the SHA-1 of the jar, so a stub is only generated once for every
+ * version of a library. The SHA-1 of each jar is kept in an index in the same directory, by path, length and modification time, so that a jar is
+ * only read again when it changed. A jar that cannot be stubbed, such as one with nested archives or classes that cannot be parsed, is used as it
+ * is.
+ */
+class LibraryStubs {
+    // Part of the stub file names, so that stubs of an older format are not used
+    private static final int         FORMAT_VERSION = 1;
+
+    // All stub entries get the same time, so that the stub of a jar is always the same
+    private static final long        ENTRY_TIME     = 315532800000L;
+
+    // Attributes kept on classes, fields and methods; everything else is dropped
+    private static final Set<String> KEPT           = new HashSet<String>(Arrays.asList("ConstantValue", "Signature", "Exceptions", "InnerClasses",
+                                                            "EnclosingMethod", "Deprecated", "Synthetic", "RuntimeVisibleAnnotations",
+                                                            "RuntimeInvisibleAnnotations", "RuntimeVisibleParameterAnnotations",
+                                                            "RuntimeInvisibleParameterAnnotations", "AnnotationDefault"));
+
+    // Name of the index of jar digests, relative to the stub directory
+    private static final String      DIGESTS_FILE   = "digests.properties";
+
+    private final File               directory;
+    private final Log                log;
+
+    // Jar digests keyed by absolute path, as "length,modification time,SHA-1"
+    private final Properties         digests        = new Properties();
+
+    /**
+     * @param directory
+     *            the directory in which the stubs are kept
+     * @param log
+     */
+    LibraryStubs(File directory, Log log) {
+        this.directory = directory;
+        this.log = log;
+        File index = new File(directory, DIGESTS_FILE);
+        if (index.isFile()) {
+            try {
+                InputStream in = new FileInputStream(index);
+                try {
+                    digests.load(in);
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                log.debug("Ignoring library digest index " + index + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Returns the stub of a library jar, generating it if there is none yet
+     *
+     * @param jar
+     * @param name
+     *            a name for the library, such as its artifact coordinates, used in the name of the stub file
+     * @return the stub, or the jar itself if it cannot be stubbed
+     */
+    File getStub(File jar, String name) {
+        if (!jar.isFile() || !jar.getName().matches("(?i).*\\.(jar|zip)"))
+            return jar;
+        try {
+            File stub = new File(directory, name.replaceAll("[^\\w.-]", "_") + "-" + digest(jar) + "-v" + FORMAT_VERSION + ".jar");
+            if (stub.isFile()) {
+                log.debug("Using library stub " + stub + " of " + jar);
+                return stub;
+            }
+            long start = System.currentTimeMillis();
+            if (!write(jar, stub)) {
+                log.debug("Not stubbing " + jar + " because it contains nested archives");
+                return jar;
+            }
+            log.info("Generated library stub of " + jar + " in " + (System.currentTimeMillis() - start) + " ms, " + (jar.length() / 1024) + " KB to "
+                    + (stub.length() / 1024) + " KB");
+            return stub;
+        } catch (IOException e) {
+            log.warn("Using library " + jar + " as it is because it cannot be stubbed: " + e.getMessage());
+            return jar;
+        }
+    }
+
+    /**
+     * Returns the SHA-1 of a jar, from the index if the jar has the same length and modification time as when it was last hashed
+     */
+    private String digest(File jar) throws IOException {
+        String path = jar.getAbsolutePath();
+        String stat = jar.length() + "," + jar.lastModified() + ",";
+        String cached = digests.getProperty(path);
+        if (cached != null && cached.startsWith(stat))
+            return cached.substring(stat.length());
+        String digest = LibraryClassCache.sha1(jar);
+        digests.setProperty(path, stat + digest);
+        saveDigests();
+        return digest;
+    }
+
+    /**
+     * Writes the index of jar digests, through a temporary file that is then moved into place. An index that cannot be written only costs hashing
+     * the jars again
+     */
+    private void saveDigests() {
+        File temp = null;
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory())
+                throw new IOException("Cannot create directory " + directory);
+            temp = File.createTempFile(".digests", ".tmp", directory);
+            OutputStream out = new FileOutputStream(temp);
+            try {
+                digests.store(out, "SHA-1 of library jars by path: length,modification time,SHA-1");
+            } finally {
+                out.close();
+            }
+            File index = new File(directory, DIGESTS_FILE);
+            try {
+                Files.move(temp.toPath(), index.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), index.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            log.debug("Cannot write the library digest index: " + e.getMessage());
+        } finally {
+            if (temp != null && temp.exists() && !temp.delete())
+                log.debug("Could not delete " + temp);
+        }
+    }
+
+    /**
+     * Writes the stub of a jar, through a temporary file that is then moved into place, so that concurrent builds never see a partial stub
+     *
+     * @return false if the jar contains nested archives and should be used as it is
+     */
+    private boolean write(File jar, File stub) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory())
+            throw new IOException("Cannot create directory " + directory);
+        File temp = File.createTempFile(".stub", ".tmp", directory);
+        try {
+            ZipFile zip = new ZipFile(jar);
+            try {
+                List<String> names = new ArrayList<String>();
+                for (Enumeration<? extends ZipEntry> entries = zip.entries(); entries.hasMoreElements();) {
+                    String entryName = entries.nextElement().getName();
+                    if (entryName.matches("(?i).*\\.(jar|war|ear|zip)"))
+                        return false;
+                    if (entryName.endsWith(".class") && !entryName.startsWith("META-INF/") && !entryName.endsWith("module-info.class"))
+                        names.add(entryName);
+                }
+                Collections.sort(names);
+
+                ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 65536));
+                try {
+                    out.setLevel(Deflater.BEST_SPEED);
+                    for (String entryName : names) {
+                        byte[] bytes;
+                        InputStream in = zip.getInputStream(zip.getEntry(entryName));
+                        try {
+                            bytes = readFully(in);
+                        } finally {
+                            in.close();
+                        }
+                        ZipEntry entry = new ZipEntry(entryName);
+                        entry.setTime(ENTRY_TIME);
+                        out.putNextEntry(entry);
+                        try {
+                            out.write(stub(bytes));
+                        } catch (IOException e) {
+                            throw new IOException("Cannot parse " + entryName + ": " + e.getMessage(), e);
+                        }
+                        out.closeEntry();
+                    }
+                } finally {
+                    out.close();
+                }
+            } finally {
+                zip.close();
+            }
+            try {
+                Files.move(temp.toPath(), stub.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), stub.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            return true;
+        } finally {
+            if (temp.exists() && !temp.delete())
+                log.debug("Could not delete " + temp);
+        }
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) != -1)
+            out.write(buffer, 0, n);
+        return out.toByteArray();
+    }
+
+    /**
+     * Strips a class file down to its API
+     *
+     * @param classFile
+     * @return the stub class file
+     * @throws IOException
+     *             if the class file cannot be parsed
+     */
+    static byte[] stub(byte[] classFile) throws IOException {
+        ConstantPool pool = new ConstantPool(classFile);
+
+        // The first pass marks the constants the stub uses, the second writes the stub with the constants renumbered
+        new ClassWalker(classFile, pool).walk(new DataOutputStream(new ByteArrayOutputStream()));
+        pool.renumber();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(classFile.length / 2);
+        new ClassWalker(classFile, pool).walk(new DataOutputStream(bytes));
+        return bytes.toByteArray();
+    }
+
+    /**
+     * The constant pool of a class file, with the constants in use and their new numbers
+     */
+    private static class ConstantPool {
+        final int[]   offsets;
+        final int[]   tags;
+        final boolean[] used;
+        final int[]   numbers;
+        final byte[]  classFile;
+        final int     end;
+        boolean       renumbered = false;
+        int           count      = 1;
+
+        ConstantPool(byte[] classFile) throws IOException {
+            this.classFile = classFile;
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(classFile));
+            if (in.readInt() != 0xCAFEBABE)
+                throw new IOException("Not a class file");
+            in.readUnsignedShort();
+            in.readUnsignedShort();
+            int size = in.readUnsignedShort();
+            offsets = new int[size];
+            tags = new int[size];
+            used = new boolean[size];
+            numbers = new int[size];
+            int offset = 10;
+            for (int i = 1; i < size; i++) {
+                offsets[i] = offset;
+                tags[i] = classFile[offset] & 0xff;
+                int length;
+                switch (tags[i]) {
+                case 1:
+                    length = 3 + (((classFile[offset + 1] & 0xff) << 8) | (classFile[offset + 2] & 0xff));
+                    break;
+                case 7:
+                case 8:
+                case 16:
+                case 19:
+                case 20:
+                    length = 3;
+                    break;
+                case 15:
+                    length = 4;
+                    break;
+                case 3:
+                case 4:
+                case 9:
+                case 10:
+                case 11:
+                case 12:
+                case 17:
+                case 18:
+                    length = 5;
+                    break;
+                case 5:
+                case 6:
+                    length = 9;
+                    break;
+                default:
+                    throw new IOException("Unknown constant pool tag " + tags[i] + " at " + i);
+                }
+                offset += length;
+                if (offset > classFile.length)
+                    throw new IOException("Truncated constant pool");
+                if (tags[i] == 5 || tags[i] == 6)
+                    i++;
+            }
+            end = offset;
+        }
+
+        /**
+         * Marks a constant and the constants it refers to as used, or returns its new number once the pool is renumbered
+         */
+        int use(int index) throws IOException {
+            if (index == 0)
+                return 0;
+            if (index < 0 || index >= tags.length || tags[index] == 0)
+                throw new IOException("Invalid constant pool index " + index);
+            if (renumbered)
+                return numbers[index];
+            if (!used[index]) {
+                used[index] = true;
+                int offset = offsets[index];
+                switch (tags[index]) {
+                case 7:
+                case 8:
+                case 16:
+                case 19:
+                case 20:
+                    use(u2(offset + 1));
+                    break;
+                case 15:
+                    use(u2(offset + 2));
+                    break;
+                case 9:
+                case 10:
+                case 11:
+                case 12:
+                    use(u2(offset + 1));
+                    use(u2(offset + 3));
+                    break;
+                case 17:
+                case 18:
+                    // The bootstrap method index refers to the dropped BootstrapMethods attribute, not to the constant pool
+                    use(u2(offset + 3));
+                    break;
+                default:
+                }
+            }
+            return index;
+        }
+
+        void renumber() {
+            for (int i = 1; i < tags.length; i++) {
+                if (used[i]) {
+                    numbers[i] = count;
+                    count += (tags[i] == 5 || tags[i] == 6) ? 2 : 1;
+                }
+            }
+            renumbered = true;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeShort(count);
+            for (int i = 1; i < tags.length; i++) {
+                if (!used[i])
+                    continue;
+                int offset = offsets[i];
+                switch (tags[i]) {
+                case 7:
+                case 8:
+                case 16:
+                case 19:
+                case 20:
+                    out.writeByte(tags[i]);
+                    out.writeShort(use(u2(offset + 1)));
+                    break;
+                case 15:
+                    out.writeByte(tags[i]);
+                    out.writeByte(classFile[offset + 1]);
+                    out.writeShort(use(u2(offset + 2)));
+                    break;
+                case 9:
+                case 10:
+                case 11:
+                case 12:
+                    out.writeByte(tags[i]);
+                    out.writeShort(use(u2(offset + 1)));
+                    out.writeShort(use(u2(offset + 3)));
+                    break;
+                case 17:
+                case 18:
+                    out.writeByte(tags[i]);
+                    out.writeShort(u2(offset + 1));
+                    out.writeShort(use(u2(offset + 3)));
+                    break;
+                default:
+                    int next = (i + 1 < tags.length && offsets[i + 1] > 0) ? offsets[i + 1] : nextOffset(i);
+                    out.write(classFile, offset, next - offset);
+                }
+            }
+        }
+
+        private int nextOffset(int index) {
+            for (int i = index + 1; i < offsets.length; i++) {
+                if (offsets[i] > 0)
+                    return offsets[i];
+            }
+            return end;
+        }
+
+        String utf8(int index) throws IOException {
+            if (index <= 0 || index >= tags.length || tags[index] != 1)
+                throw new IOException("Invalid UTF-8 constant index " + index);
+            int offset = offsets[index];
+            return new DataInputStream(new ByteArrayInputStream(classFile, offset + 1, u2(offset + 1) + 2)).readUTF();
+        }
+
+        private int u2(int offset) {
+            return ((classFile[offset] & 0xff) << 8) | (classFile[offset + 1] & 0xff);
+        }
+    }
+
+    /**
+     * Walks the parts of a class file that a stub keeps, marking the constants they use or writing them renumbered
+     */
+    private static class ClassWalker {
+        private final DataInputStream in;
+        private final ConstantPool    pool;
+        private DataOutputStream      out;
+
+        ClassWalker(byte[] classFile, ConstantPool pool) throws IOException {
+            this.in = new DataInputStream(new ByteArrayInputStream(classFile, pool.end, classFile.length - pool.end));
+            this.pool = pool;
+        }
+
+        void walk(DataOutputStream target) throws IOException {
+            byte[] header = new byte[8];
+            System.arraycopy(pool.classFile, 0, header, 0, 8);
+            ByteArrayOutputStream rest = new ByteArrayOutputStream();
+            out = new DataOutputStream(rest);
+
+            copy2();
+            constant();
+            constant();
+            int interfaces = copy2();
+            for (int i = 0; i < interfaces; i++)
+                constant();
+            for (int members = 0; members < 2; members++) {
+                int count = copy2();
+                for (int i = 0; i < count; i++) {
+                    copy2();
+                    constant();
+                    constant();
+                    attributes();
+                }
+            }
+            attributes();
+
+            target.write(header);
+            if (pool.renumbered)
+                pool.write(target);
+            rest.writeTo(target);
+            target.flush();
+        }
+
+        private void attributes() throws IOException {
+            int count = in.readUnsignedShort();
+            List<byte[]> kept = new ArrayList<byte[]>();
+            for (int i = 0; i < count; i++) {
+                int nameIndex = in.readUnsignedShort();
+                int length = in.readInt();
+                String name = pool.utf8(nameIndex);
+                if (!KEPT.contains(name)) {
+                    in.skipBytes(length);
+                    continue;
+                }
+
+                // The kept attributes only hold two-byte constant indexes, so renumbering them keeps their length
+                DataOutputStream parent = out;
+                ByteArrayOutputStream body = new ByteArrayOutputStream(length + 6);
+                out = new DataOutputStream(body);
+                out.writeShort(pool.use(nameIndex));
+                out.writeInt(length);
+                attribute(name);
+                out = parent;
+                kept.add(body.toByteArray());
+            }
+            out.writeShort(kept.size());
+            for (byte[] attribute : kept)
+                out.write(attribute);
+        }
+
+        private void attribute(String name) throws IOException {
+            if ("ConstantValue".equals(name) || "Signature".equals(name))
+                constant();
+            else if ("Exceptions".equals(name)) {
+                int count = copy2();
+                for (int i = 0; i < count; i++)
+                    constant();
+            } else if ("InnerClasses".equals(name)) {
+                int count = copy2();
+                for (int i = 0; i < count; i++) {
+                    constant();
+                    constant();
+                    constant();
+                    copy2();
+                }
+            } else if ("EnclosingMethod".equals(name)) {
+                constant();
+                constant();
+            } else if ("RuntimeVisibleAnnotations".equals(name) || "RuntimeInvisibleAnnotations".equals(name))
+                annotations();
+            else if ("RuntimeVisibleParameterAnnotations".equals(name) || "RuntimeInvisibleParameterAnnotations".equals(name)) {
+                int parameters = in.readUnsignedByte();
+                out.writeByte(parameters);
+                for (int i = 0; i < parameters; i++)
+                    annotations();
+            } else if ("AnnotationDefault".equals(name))
+                elementValue();
+        }
+
+        private void annotations() throws IOException {
+            int count = copy2();
+            for (int i = 0; i < count; i++)
+                annotation();
+        }
+
+        private void annotation() throws IOException {
+            constant();
+            int pairs = copy2();
+            for (int i = 0; i < pairs; i++) {
+                constant();
+                elementValue();
+            }
+        }
+
+        private void elementValue() throws IOException {
+            int tag = in.readUnsignedByte();
+            out.writeByte(tag);
+            switch (tag) {
+            case 'e':
+                constant();
+                constant();
+                break;
+            case '@':
+                annotation();
+                break;
+            case '[':
+                int count = copy2();
+                for (int i = 0; i < count; i++)
+                    elementValue();
+                break;
+            default:
+                constant();
+            }
+        }
+
+        private void constant() throws IOException {
+            out.writeShort(pool.use(in.readUnsignedShort()));
+        }
+
+        private int copy2() throws IOException {
+            int value = in.readUnsignedShort();
+            out.writeShort(value);
+            return value;
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package com.idfconnect.devtools.maven.proguard;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Looks up obfuscated names in the binary index of a ProGuard mapping file written by the plug-in next to the <em>printmapping</em> file.
+ * <p>
+ * The index is memory-mapped rather than read, so opening it costs the same for any mapping size and lookups only touch the pages they need. Classes
+ * and their members are sorted by obfuscated name, so that each lookup is a binary search. An index can be shared by any number of threads.
+ * <p>
+ * The file starts with a header of eight big-endian ints: the magic number <code>PGMI</code>, the format version, the number of classes and of
+ * members, the offsets of the class table, the member table and the string pool, and a reserved zero. Each class record holds the obfuscated and
+ * original names, the index of its first member record and its number of members. Each member record holds the obfuscated and original names, the
+ * original type, the original arguments or -1 for a field, the first and last obfuscated line numbers and the first and last original line numbers,
+ * with 0 for line numbers that are not mapped. Names are offsets into the string pool, where each string is an int length followed by that many
+ * bytes of UTF-8.
+ */
+public final class MappingIndex implements Closeable {
+    static final int         MAGIC         = 0x50474D49;
+    static final int         VERSION       = 1;
+    static final int         HEADER_SIZE   = 32;
+    static final int         CLASS_RECORD  = 16;
+    static final int         MEMBER_RECORD = 32;
+
+    private final FileChannel channel;
+    private final ByteBuffer  buffer;
+    private final int         classCount;
+    private final int         classTable;
+    private final int         memberTable;
+    private final int         stringPool;
+
+    private MappingIndex(FileChannel channel, ByteBuffer buffer) throws IOException {
+        this.channel = channel;
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+            throw new IOException("Not a ProGuard mapping index");
+        if (buffer.getInt(4) != VERSION)
+            throw new IOException("Unsupported ProGuard mapping index version " + buffer.getInt(4));
+        this.classCount = buffer.getInt(8);
+        this.classTable = buffer.getInt(16);
+        this.memberTable = buffer.getInt(20);
+        this.stringPool = buffer.getInt(24);
+    }
+
+    /**
+     * Opens an index by mapping it into memory
+     *
+     * @param file
+     * @return the index, to be closed when it is no longer needed
+     * @throws IOException
+     *             if the file cannot be read or is not a mapping index
+     */
+    public static MappingIndex open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        FileChannel channel = raf.getChannel();
+        try {
+            return new MappingIndex(channel, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the number of classes in the mapping
+     */
+    public int getClassCount() {
+        return classCount;
+    }
+
+    /**
+     * Returns the original name of a class
+     *
+     * @param obfuscatedClassName
+     *            the obfuscated name, such as <code>a.b</code>
+     * @return the original name, or null if the class is not in the mapping
+     */
+    public String getClassName(String obfuscatedClassName) {
+        int record = findClass(obfuscatedClassName);
+        return (record < 0) ? null : string(buffer.getInt(record + 4));
+    }
+
+    /**
+     * Returns the original fields and methods of a class that have been given the provided name. Several members can share an obfuscated name,
+     * for example overloaded methods
+     *
+     * @param obfuscatedClassName
+     * @param obfuscatedMemberName
+     * @return the members in the order of their obfuscated line numbers; empty if there are none
+     */
+    public List<Member> getMembers(String obfuscatedClassName, String obfuscatedMemberName) {
+        int record = findClass(obfuscatedClassName);
+        if (record < 0)
+            return Collections.emptyList();
+        int first = buffer.getInt(record + 8);
+        int count = buffer.getInt(record + 12);
+        byte[] key = obfuscatedMemberName.getBytes(StandardCharsets.UTF_8);
+
+        // Find the first member with the name, then collect the ones following it
+        int low = first;
+        int high = first + count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compare(buffer.getInt(member(mid)), key) < 0)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        List<Member> members = new ArrayList<Member>();
+        for (int i = low; i < first + count && compare(buffer.getInt(member(i)), key) == 0; i++)
+            members.add(new Member(member(i)));
+        return members;
+    }
+
+    /**
+     * Returns the original methods of a class that have been given the provided name and that an obfuscated line number belongs to. If none of the
+     * methods with the name has line numbers that include the line, all of them are returned
+     *
+     * @param obfuscatedClassName
+     * @param obfuscatedMethodName
+     * @param lineNumber
+     *            the obfuscated line number, or 0 if it is not known
+     * @return the candidate methods; empty if there are none
+     */
+    public List<Member> getMethods(String obfuscatedClassName, String obfuscatedMethodName, int lineNumber) {
+        List<Member> methods = new ArrayList<Member>();
+        List<Member> matching = new ArrayList<Member>();
+        for (Member member : getMembers(obfuscatedClassName, obfuscatedMethodName)) {
+            if (!member.isMethod())
+                continue;
+            methods.add(member);
+            if (lineNumber > 0 && member.getFirstLine() <= lineNumber && lineNumber <= member.getLastLine())
+                matching.add(member);
+        }
+        return matching.isEmpty() ? methods : matching;
+    }
+
+    /**
+     * Releases the file. The mapped memory itself is released once the index is no longer referenced
+     */
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private int findClass(String name) {
+        byte[] key = name.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = classCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int record = classTable + mid * CLASS_RECORD;
+            int c = compare(buffer.getInt(record), key);
+            if (c < 0)
+                low = mid + 1;
+            else if (c > 0)
+                high = mid - 1;
+            else
+                return record;
+        }
+        return -1;
+    }
+
+    private int member(int index) {
+        return memberTable + index * MEMBER_RECORD;
+    }
+
+    /**
+     * Compares a pooled string with a key by their UTF-8 bytes, without decoding the pooled string
+     */
+    private int compare(int ref, byte[] key) {
+        int start = stringPool + ref + 4;
+        int length = buffer.getInt(stringPool + ref);
+        int n = Math.min(length, key.length);
+        for (int i = 0; i < n; i++) {
+            int c = (buffer.get(start + i) & 0xff) - (key[i] & 0xff);
+            if (c != 0)
+                return c;
+        }
+        return length - key.length;
+    }
+
+    private String string(int ref) {
+        if (ref < 0)
+            return null;
+        int length = buffer.getInt(stringPool + ref);
+        byte[] bytes = new byte[length];
+        ByteBuffer view = buffer.duplicate();
+        // Positioned through Buffer, since the ByteBuffer override added in Java 9 does not exist on Java 8
+        ((Buffer) view).position(stringPool + ref + 4);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * An original field or method. Its names are only decoded when they are asked for
+     */
+    public final class Member {
+        private final int record;
+
+        private Member(int record) {
+            this.record = record;
+        }
+
+        /**
+         * @return the obfuscated name
+         */
+        public String getObfuscatedName() {
+            return string(buffer.getInt(record));
+        }
+
+        /**
+         * @return the original name
+         */
+        public String getName() {
+            return string(buffer.getInt(record + 4));
+        }
+
+        /**
+         * @return the original type of a field, or the original return type of a method
+         */
+        public String getType() {
+            return string(buffer.getInt(record + 8));
+        }
+
+        /**
+         * @return the original argument types of a method separated by commas, or null for a field
+         */
+        public String getArguments() {
+            return string(buffer.getInt(record + 12));
+        }
+
+        /**
+         * @return true if this is a method, false if it is a field
+         */
+        public boolean isMethod() {
+            return buffer.getInt(record + 12) >= 0;
+        }
+
+        /**
+         * @return the first obfuscated line number of a method, or 0
+         */
+        public int getFirstLine() {
+            return buffer.getInt(record + 16);
+        }
+
+        /**
+         * @return the last obfuscated line number of a method, or 0
+         */
+        public int getLastLine() {
+            return buffer.getInt(record + 20);
+        }
+
+        /**
+         * @return the first original line number of a method, or 0 if the line numbers were not changed
+         */
+        public int getOriginalFirstLine() {
+            return buffer.getInt(record + 24);
+        }
+
+        /**
+         * @return the last original line number of a method, or 0 if the line numbers were not changed
+         */
+        public int getOriginalLastLine() {
+            return buffer.getInt(record + 28);
+        }
+
+        /**
+         * Maps an obfuscated line number of this method back to the original one
+         *
+         * @param lineNumber
+         * @return the original line number
+         */
+        public int getOriginalLine(int lineNumber) {
+            int originalFirst = getOriginalFirstLine();
+            if (originalFirst == 0)
+                return lineNumber;
+            int originalLast = getOriginalLastLine();
+            if (originalLast == originalFirst || getLastLine() == getFirstLine())
+                return originalFirst;
+            return originalFirst + (lineNumber - getFirstLine());
+        }
+
+        @Override
+        public String toString() {
+            return getType() + " " + getName() + (isMethod() ? "(" + getArguments() + ")" : "");
+        }
+    }
+}
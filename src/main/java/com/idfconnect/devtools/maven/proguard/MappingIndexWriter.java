@@ -0,0 +1,219 @@
+package com.idfconnect.devtools.maven.proguard;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Writes the binary index of a ProGuard mapping file read by {@link MappingIndex}
+ */
+final class MappingIndexWriter {
+    // original.Class -> a.b:
+    private static final Pattern CLASS_LINE  = Pattern.compile("(\\S+) -> (\\S+):");
+
+    // [first:last:]type name[(arguments)][:originalFirst[:originalLast]] -> obfuscatedName
+    private static final Pattern MEMBER_LINE = Pattern.compile("(?:(\\d+):(\\d+):)?(\\S+) ([^\\s(]+)(?:\\(([^)]*)\\))?(?::(\\d+)(?::(\\d+))?)? -> (\\S+)");
+
+    private static final Comparator<byte[]> BYTE_ORDER = new Comparator<byte[]>() {
+        public int compare(byte[] a, byte[] b) {
+            int n = Math.min(a.length, b.length);
+            for (int i = 0; i < n; i++) {
+                int c = (a[i] & 0xff) - (b[i] & 0xff);
+                if (c != 0)
+                    return c;
+            }
+            return a.length - b.length;
+        }
+    };
+
+    private final List<MappedClass>    classes = new ArrayList<MappedClass>();
+    private final Map<String, Integer> strings = new HashMap<String, Integer>();
+    private final ByteArrayOutputStream pool   = new ByteArrayOutputStream();
+
+    private MappingIndexWriter() {
+    }
+
+    /**
+     * Reads a mapping file and writes its index
+     *
+     * @param mapping
+     * @param index
+     * @return the number of classes in the index
+     * @throws IOException
+     *             if the mapping cannot be read or has a line that is not part of the mapping format
+     */
+    static int write(File mapping, File index) throws IOException {
+        MappingIndexWriter writer = new MappingIndexWriter();
+        writer.read(mapping);
+        writer.write(index);
+        return writer.classes.size();
+    }
+
+    private void read(File mapping) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(mapping), StandardCharsets.UTF_8));
+        try {
+            MappedClass current = null;
+            String line;
+            int number = 0;
+            while ((line = reader.readLine()) != null) {
+                number++;
+                String trimmed = line.trim();
+                if (trimmed.length() == 0 || trimmed.startsWith("#"))
+                    continue;
+                if (!Character.isWhitespace(line.charAt(0))) {
+                    Matcher m = CLASS_LINE.matcher(trimmed);
+                    if (!m.matches())
+                        throw new IOException("Unexpected line " + number + " in " + mapping + ": " + line);
+                    current = new MappedClass(m.group(2), m.group(1));
+                    classes.add(current);
+                } else {
+                    Matcher m = MEMBER_LINE.matcher(trimmed);
+                    if (!m.matches() || current == null)
+                        throw new IOException("Unexpected line " + number + " in " + mapping + ": " + line);
+                    MappedMember member = new MappedMember(m.group(8), m.group(4), m.group(3), m.group(5));
+                    if (m.group(1) != null) {
+                        member.firstLine = Integer.parseInt(m.group(1));
+                        member.lastLine = Integer.parseInt(m.group(2));
+                    }
+                    if (m.group(6) != null) {
+                        member.originalFirstLine = Integer.parseInt(m.group(6));
+                        member.originalLastLine = (m.group(7) != null) ? Integer.parseInt(m.group(7)) : member.originalFirstLine;
+                    }
+                    current.members.add(member);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void write(File index) throws IOException {
+        Collections.sort(classes, new Comparator<MappedClass>() {
+            public int compare(MappedClass a, MappedClass b) {
+                return BYTE_ORDER.compare(a.key, b.key);
+            }
+        });
+        int memberCount = 0;
+        for (MappedClass c : classes) {
+            Collections.sort(c.members, new Comparator<MappedMember>() {
+                public int compare(MappedMember a, MappedMember b) {
+                    int result = BYTE_ORDER.compare(a.key, b.key);
+                    return (result != 0) ? result : a.firstLine - b.firstLine;
+                }
+            });
+            memberCount += c.members.size();
+        }
+
+        int classTable = MappingIndex.HEADER_SIZE;
+        int memberTable = classTable + classes.size() * MappingIndex.CLASS_RECORD;
+        int stringPool = memberTable + memberCount * MappingIndex.MEMBER_RECORD;
+
+        ByteArrayOutputStream tables = new ByteArrayOutputStream(stringPool);
+        DataOutputStream out = new DataOutputStream(tables);
+        int first = 0;
+        for (MappedClass c : classes) {
+            out.writeInt(ref(c.obfuscatedName));
+            out.writeInt(ref(c.originalName));
+            out.writeInt(first);
+            out.writeInt(c.members.size());
+            first += c.members.size();
+        }
+        for (MappedClass c : classes) {
+            for (MappedMember m : c.members) {
+                out.writeInt(ref(m.obfuscatedName));
+                out.writeInt(ref(m.originalName));
+                out.writeInt(ref(m.type));
+                out.writeInt((m.arguments != null) ? ref(m.arguments) : -1);
+                out.writeInt(m.firstLine);
+                out.writeInt(m.lastLine);
+                out.writeInt(m.originalFirstLine);
+                out.writeInt(m.originalLastLine);
+            }
+        }
+        if ((long) stringPool + pool.size() > Integer.MAX_VALUE)
+            throw new IOException("The mapping is too large to be indexed");
+
+        File dir = index.getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory())
+            throw new IOException("Cannot create directory " + dir);
+        DataOutputStream file = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(index), 65536));
+        try {
+            file.writeInt(MappingIndex.MAGIC);
+            file.writeInt(MappingIndex.VERSION);
+            file.writeInt(classes.size());
+            file.writeInt(memberCount);
+            file.writeInt(classTable);
+            file.writeInt(memberTable);
+            file.writeInt(stringPool);
+            file.writeInt(0);
+            tables.writeTo(file);
+            pool.writeTo(file);
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * @return the offset of a string in the pool, adding it if it is not there yet
+     */
+    private int ref(String s) throws IOException {
+        Integer ref = strings.get(s);
+        if (ref == null) {
+            ref = pool.size();
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            DataOutputStream out = new DataOutputStream(pool);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+            strings.put(s, ref);
+        }
+        return ref;
+    }
+
+    private static class MappedClass {
+        final String             obfuscatedName;
+        final String             originalName;
+        final byte[]             key;
+        final List<MappedMember> members = new ArrayList<MappedMember>();
+
+        MappedClass(String obfuscatedName, String originalName) {
+            this.obfuscatedName = obfuscatedName;
+            this.originalName = originalName;
+            this.key = obfuscatedName.getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    private static class MappedMember {
+        final String obfuscatedName;
+        final String originalName;
+        final String type;
+        final String arguments;
+        final byte[] key;
+        int          firstLine         = 0;
+        int          lastLine          = 0;
+        int          originalFirstLine = 0;
+        int          originalLastLine  = 0;
+
+        MappedMember(String obfuscatedName, String originalName, String type, String arguments) {
+            this.obfuscatedName = obfuscatedName;
+            this.originalName = originalName;
+            this.type = type;
+            this.arguments = arguments;
+            this.key = obfuscatedName.getBytes(StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.idfconnect.devtools.maven.proguard;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Gets stale outputs out of the way without waiting for them to be deleted. Each file or directory is moved atomically into a trash directory and
+ * then deleted on a background thread, so that ProGuard can run in the meantime. Where the move is not possible, for example because the trash
+ * directory is on another file system, the file is deleted right away. Anything left in the trash directory by an earlier build is deleted as well.
+ */
+class OutputTrash {
+    private final File                    directory;
+    private final Log                     log;
+    private final Map<Future<Void>, File> deletions = new LinkedHashMap<Future<Void>, File>();
+    private ExecutorService               executor  = null;
+
+    /**
+     * @param directory
+     *            the trash directory, which is created when it is first needed
+     * @param log
+     */
+    OutputTrash(File directory, Log log) {
+        this.directory = directory;
+        this.log = log;
+    }
+
+    /**
+     * Moves a file or directory to the trash and schedules its deletion. Does nothing if it does not exist
+     *
+     * @param file
+     * @throws IOException
+     *             if the file can neither be moved nor deleted
+     */
+    synchronized void discard(File file) throws IOException {
+        Path path = file.toPath();
+        if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS))
+            return;
+        if (executor == null)
+            start();
+
+        File target = new File(directory, file.getName() + "-" + System.nanoTime());
+        try {
+            Files.move(path, target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            log.debug("Cannot move " + file + " to " + directory + ", deleting it right away");
+            delete(path);
+            return;
+        }
+        log.debug("Moved " + file + " to " + target);
+        schedule(target);
+    }
+
+    /**
+     * Waits for all scheduled deletions to finish
+     *
+     * @throws IOException
+     *             if any of them failed, naming the file that could not be deleted
+     */
+    synchronized void await() throws IOException {
+        IOException failure = null;
+        for (Map.Entry<Future<Void>, File> deletion : deletions.entrySet()) {
+            try {
+                deletion.getKey().get();
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    Throwable cause = e.getCause();
+                    failure = new IOException("Cannot delete " + deletion.getValue() + ": " + cause.getMessage(), cause);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while deleting " + deletion.getValue(), e);
+            }
+        }
+        deletions.clear();
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+        if (failure != null)
+            throw failure;
+    }
+
+    /**
+     * Deletes a file, or a directory with all of its contents. Symbolic links are deleted, not followed
+     *
+     * @param path
+     * @throws IOException
+     */
+    static void delete(Path path) throws IOException {
+        Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                if (e != null)
+                    throw e;
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void start() throws IOException {
+        File[] leftovers = directory.listFiles();
+        if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory())
+            throw new IOException("Cannot create directory " + directory);
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "proguard-output-trash");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        if (leftovers != null) {
+            for (File leftover : leftovers)
+                schedule(leftover);
+        }
+    }
+
+    private void schedule(final File file) {
+        deletions.put(executor.submit(new Callable<Void>() {
+            public Void call() throws IOException {
+                long start = System.currentTimeMillis();
+                delete(file.toPath());
+                log.debug("Deleted " + file + " in " + (System.currentTimeMillis() - start) + " ms");
+                return null;
+            }
+        }), file);
+    }
+}
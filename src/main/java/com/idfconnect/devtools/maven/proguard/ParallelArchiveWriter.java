@@ -0,0 +1,599 @@
+package com.idfconnect.devtools.maven.proguard;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Builds an archive from the contents of a directory, or rebuilds one from the entries of another archive, compressing the entries in parallel
+ * instead of through a single deflater.
+ * <p>
+ * Every file is compressed on its own by a pool of threads, and the compressed entries are written in order as soon as they are ready, with at most
+ * a few entries per thread held in memory. Entries with the extension of an already compressed format, such as nested jars and images, are stored
+ * without compression, as are entries that deflating would not make smaller. The manifest comes first, as <code>JarInputStream</code> expects; all
+ * other entries follow in the order of their path names, and like in ProGuard's own output there are no directory entries. Entries carry no file
+ * system permissions or extra fields. The archive is written next to its destination and then moved into place atomically.
+ */
+class ParallelArchiveWriter {
+    private static final int  LOCAL_HEADER     = 0x04034b50;
+    private static final int  CENTRAL_HEADER   = 0x02014b50;
+    private static final int  END_HEADER       = 0x06054b50;
+    private static final int  ZIP64_END_HEADER = 0x06064b50;
+    private static final int  ZIP64_LOCATOR    = 0x07064b50;
+    private static final int  UTF8_FLAG        = 0x0800;
+    private static final long MAX_32           = 0xffffffffL;
+    private static final int  MAX_16           = 0xffff;
+    private static final String MANIFEST       = "META-INF/MANIFEST.MF";
+    private static final TimeZone UTC          = TimeZone.getTimeZone("UTC");
+
+    private static final Comparator<File> BY_NAME = new Comparator<File>() {
+        public int compare(File a, File b) {
+            return a.getName().compareTo(b.getName());
+        }
+    };
+
+    // The order of the entries of an archive written from a directory: the manifest, then the others by path name, compared name by name
+    private static final Comparator<Source> MANIFEST_FIRST = new Comparator<Source>() {
+        public int compare(Source a, Source b) {
+            if (a.name.equals(b.name))
+                return 0;
+            if (MANIFEST.equals(a.name) || MANIFEST.equals(b.name))
+                return MANIFEST.equals(a.name) ? -1 : 1;
+            String[] x = a.name.split("/");
+            String[] y = b.name.split("/");
+            for (int i = 0; i < Math.min(x.length, y.length); i++) {
+                int c = x[i].compareTo(y[i]);
+                if (c != 0)
+                    return c;
+            }
+            return x.length - y.length;
+        }
+    };
+
+    private final int         level;
+    private final int         threads;
+    private final Set<String> storedExtensions;
+    private final Log         log;
+    private long              entryTime        = -1;
+    private boolean           keepUnchanged    = false;
+
+    /**
+     * @param level
+     *            the deflate level, from 0, which stores every entry, to 9
+     * @param threads
+     *            the number of compressing threads, or 0 for one per available processor
+     * @param storedExtensions
+     *            the file name extensions of entries to store without compression, in lower case
+     * @param log
+     */
+    ParallelArchiveWriter(int level, int threads, Set<String> storedExtensions, Log log) {
+        this.level = level;
+        this.threads = (threads > 0) ? threads : Runtime.getRuntime().availableProcessors();
+        this.storedExtensions = storedExtensions;
+        this.log = log;
+    }
+
+    /**
+     * Dates every entry at the provided time instead of at the modification time of its file. The time is written in UTC rather than in the local
+     * time zone, so that the archive is the same wherever it is built
+     *
+     * @param entryTime
+     *            the time in milliseconds since the epoch
+     */
+    void setEntryTime(long entryTime) {
+        this.entryTime = entryTime;
+    }
+
+    /**
+     * Leaves a destination whose contents are the same as those of the new archive in place, with its modification time
+     *
+     * @param keepUnchanged
+     */
+    void setKeepUnchanged(boolean keepUnchanged) {
+        this.keepUnchanged = keepUnchanged;
+    }
+
+    /**
+     * Writes the contents of a directory as an archive
+     *
+     * @param directory
+     * @param archive
+     *            the destination, which is replaced atomically where the file system allows it
+     * @throws IOException
+     */
+    void write(File directory, File archive) throws IOException {
+        List<Source> sources = new ArrayList<Source>();
+        if (new File(directory, MANIFEST).isFile())
+            sources.add(new Source(MANIFEST, new File(directory, MANIFEST)));
+        list(directory, "", sources);
+        write(sources, archive);
+    }
+
+    /**
+     * Writes the entries of an archive as another archive, in the same order and with the same compression as archives written from a directory.
+     * The entries are read and compressed again in parallel, and directory entries are left out
+     *
+     * @param source
+     *            the archive to read, such as one written by ProGuard
+     * @param archive
+     *            the destination, which is replaced atomically where the file system allows it
+     * @throws IOException
+     */
+    void rewrite(File source, File archive) throws IOException {
+        ZipFile zip = new ZipFile(source);
+        try {
+            List<Source> sources = new ArrayList<Source>();
+            for (Enumeration<? extends ZipEntry> entries = zip.entries(); entries.hasMoreElements();) {
+                ZipEntry entry = entries.nextElement();
+                if (!entry.isDirectory())
+                    sources.add(new Source(entry.getName(), zip, entry));
+            }
+            Collections.sort(sources, MANIFEST_FIRST);
+            for (int i = 1; i < sources.size(); i++) {
+                if (sources.get(i).name.equals(sources.get(i - 1).name))
+                    throw new IOException("Duplicate entry " + sources.get(i).name + " in " + source);
+            }
+            write(sources, archive);
+        } finally {
+            zip.close();
+        }
+    }
+
+    private void write(List<Source> sources, File archive) throws IOException {
+        long start = System.currentTimeMillis();
+        File temp = new File(archive.getParentFile(), "." + archive.getName() + ".tmp");
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountingOutputStream out = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 65536));
+        List<Entry> written = new ArrayList<Entry>();
+        long bytes = 0;
+        try {
+            // Keep a bounded window of entries being compressed, and write them in their original order
+            LinkedList<Future<Entry>> window = new LinkedList<Future<Entry>>();
+            int next = 0;
+            while (next < sources.size() || !window.isEmpty()) {
+                while (next < sources.size() && window.size() < threads * 4) {
+                    final Source source = sources.get(next++);
+                    window.add(executor.submit(new Callable<Entry>() {
+                        public Entry call() throws IOException {
+                            return compress(source);
+                        }
+                    }));
+                }
+                Entry entry = window.removeFirst().get();
+                entry.offset = out.count;
+                writeLocalHeader(out, entry);
+                if (entry.data != null)
+                    out.write(entry.data);
+                else if (entry.size > 0)
+                    copy(entry.file, out);
+                entry.data = null;
+                written.add(entry);
+                bytes += entry.size;
+            }
+            writeCentralDirectory(out, written);
+            out.close();
+        } catch (ExecutionException e) {
+            IOUtils.closeQuietly(out);
+            temp.delete();
+            throw (e.getCause() instanceof IOException) ? (IOException) e.getCause() : new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            IOUtils.closeQuietly(out);
+            temp.delete();
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while compressing " + archive, e);
+        } catch (IOException e) {
+            IOUtils.closeQuietly(out);
+            temp.delete();
+            throw e;
+        } finally {
+            executor.shutdownNow();
+        }
+
+        if (keepUnchanged) {
+            if (!ReproducibleOutputs.replaceIfChanged(temp, archive)) {
+                log.info("Kept " + archive + " as its " + written.size() + " entries are unchanged");
+                return;
+            }
+        } else {
+            try {
+                Files.move(temp.toPath(), archive.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), archive.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        log.info("Compressed " + written.size() + " entries (" + (bytes / 1024) + " KB) into " + archive + " (" + (archive.length() / 1024) + " KB) using "
+                + threads + " thread(s) in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /**
+     * Lists the resources of an archive, which are all of its files but the class files
+     *
+     * @param archive
+     * @return the entry names of the resources, in the order of the archive
+     * @throws IOException
+     */
+    static List<String> listResources(File archive) throws IOException {
+        List<String> names = new ArrayList<String>();
+        ZipFile zip = new ZipFile(archive);
+        try {
+            for (Enumeration<? extends ZipEntry> entries = zip.entries(); entries.hasMoreElements();) {
+                ZipEntry entry = entries.nextElement();
+                if (!entry.isDirectory() && !entry.getName().endsWith(".class"))
+                    names.add(entry.getName());
+            }
+        } finally {
+            zip.close();
+        }
+        return names;
+    }
+
+    /**
+     * Extracts an archive into a directory, leaving nested archives as they are. Several archives can be extracted at the same time, into different
+     * directories
+     *
+     * @param archive
+     * @param directory
+     * @param resourceNames
+     *            the names of the resources to extract; other resources are skipped, so that the first of several inputs providing the same
+     *            resource wins, as when ProGuard writes an archive. Class files are always extracted
+     * @throws IOException
+     */
+    static void extract(File archive, File directory, Set<String> resourceNames) throws IOException {
+        String root = directory.getCanonicalPath() + File.separator;
+        ZipInputStream in = new ZipInputStream(new BufferedInputStream(new FileInputStream(archive), 65536));
+        try {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                File file = new File(directory, entry.getName());
+                if (!file.getCanonicalPath().startsWith(root))
+                    throw new IOException("Entry " + entry.getName() + " of " + archive + " points outside of " + directory);
+                if (entry.isDirectory()) {
+                    if (!file.isDirectory() && !file.mkdirs())
+                        throw new IOException("Cannot create directory " + file);
+                    continue;
+                }
+                if (!entry.getName().endsWith(".class") && !resourceNames.contains(entry.getName()))
+                    continue;
+                File parent = file.getParentFile();
+                if (!parent.isDirectory() && !parent.mkdirs())
+                    throw new IOException("Cannot create directory " + parent);
+                OutputStream out = new FileOutputStream(file);
+                try {
+                    IOUtils.copy(in, out);
+                } finally {
+                    out.close();
+                }
+                if (entry.getTime() != -1)
+                    file.setLastModified(entry.getTime());
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Parses a comma separated list of file name extensions
+     *
+     * @param extensions
+     *            such as <code>jar,png</code>, may be null
+     * @return the extensions in lower case
+     */
+    static Set<String> parseExtensions(String extensions) {
+        Set<String> set = new HashSet<String>();
+        if (extensions != null) {
+            for (String extension : extensions.split(",")) {
+                extension = extension.trim().toLowerCase(Locale.ENGLISH);
+                if (extension.startsWith("."))
+                    extension = extension.substring(1);
+                if (extension.length() > 0)
+                    set.add(extension);
+            }
+        }
+        return set;
+    }
+
+    private static void list(File dir, String prefix, List<Source> sources) {
+        File[] files = dir.listFiles();
+        if (files == null)
+            return;
+        // By name rather than by File, whose order depends on whether the file system ignores case
+        Arrays.sort(files, BY_NAME);
+        for (File f : files) {
+            String name = prefix + f.getName();
+            if (f.isDirectory())
+                list(f, name + "/", sources);
+            else if (!MANIFEST.equals(name))
+                sources.add(new Source(name, f));
+        }
+    }
+
+    private Entry compress(Source source) throws IOException {
+        Entry entry = new Entry(source.name, source.file);
+        entry.dosTime = (entryTime != -1) ? dosTime(entryTime, UTC) : dosTime(source.getTime(), TimeZone.getDefault());
+        CRC32 crc = new CRC32();
+        if (source.file != null && (level == 0 || isStored(source.name))) {
+            entry.size = source.file.length();
+            InputStream in = new FileInputStream(source.file);
+            try {
+                byte[] buffer = new byte[65536];
+                int n;
+                while ((n = in.read(buffer)) != -1)
+                    crc.update(buffer, 0, n);
+            } finally {
+                in.close();
+            }
+            entry.crc = crc.getValue();
+            entry.compressedSize = entry.size;
+            return entry;
+        }
+
+        byte[] data = source.read();
+        entry.size = data.length;
+        crc.update(data);
+        entry.crc = crc.getValue();
+        if (level == 0 || isStored(source.name)) {
+            entry.data = data;
+            entry.compressedSize = data.length;
+            return entry;
+        }
+        Deflater deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(64, data.length / 2));
+            byte[] buffer = new byte[65536];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                compressed.write(buffer, 0, n);
+            }
+            if (compressed.size() < data.length) {
+                entry.method = ZipEntry.DEFLATED;
+                entry.data = compressed.toByteArray();
+            } else
+                entry.data = data;
+        } finally {
+            deflater.end();
+        }
+        entry.compressedSize = entry.data.length;
+        return entry;
+    }
+
+    private boolean isStored(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot > name.lastIndexOf('/') && storedExtensions.contains(name.substring(dot + 1).toLowerCase(Locale.ENGLISH));
+    }
+
+    private static void copy(File file, OutputStream out) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            IOUtils.copy(in, out);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void writeLocalHeader(OutputStream out, Entry entry) throws IOException {
+        checkSize(entry);
+        writeInt(out, LOCAL_HEADER);
+        writeShort(out, (entry.method == ZipEntry.DEFLATED) ? 20 : 10);
+        writeShort(out, UTF8_FLAG);
+        writeShort(out, entry.method);
+        writeInt(out, entry.dosTime);
+        writeInt(out, (int) entry.crc);
+        writeInt(out, (int) entry.compressedSize);
+        writeInt(out, (int) entry.size);
+        writeShort(out, entry.nameBytes.length);
+        writeShort(out, 0);
+        out.write(entry.nameBytes);
+    }
+
+    private static void writeCentralDirectory(CountingOutputStream out, List<Entry> entries) throws IOException {
+        long start = out.count;
+        for (Entry entry : entries) {
+            if (entry.offset > MAX_32)
+                throw new IOException("Archives larger than 4 GB are not supported by the parallel compression stage");
+            writeInt(out, CENTRAL_HEADER);
+            writeShort(out, 20);
+            writeShort(out, (entry.method == ZipEntry.DEFLATED) ? 20 : 10);
+            writeShort(out, UTF8_FLAG);
+            writeShort(out, entry.method);
+            writeInt(out, entry.dosTime);
+            writeInt(out, (int) entry.crc);
+            writeInt(out, (int) entry.compressedSize);
+            writeInt(out, (int) entry.size);
+            writeShort(out, entry.nameBytes.length);
+            writeShort(out, 0);
+            writeShort(out, 0);
+            writeShort(out, 0);
+            writeShort(out, 0);
+            writeInt(out, 0);
+            writeInt(out, (int) entry.offset);
+            out.write(entry.nameBytes);
+        }
+        long size = out.count - start;
+        if (start > MAX_32 || size > MAX_32)
+            throw new IOException("Archives larger than 4 GB are not supported by the parallel compression stage");
+
+        // More entries than the classic end record can count need the Zip64 end records
+        if (entries.size() >= MAX_16) {
+            long end = out.count;
+            writeInt(out, ZIP64_END_HEADER);
+            writeLong(out, 44);
+            writeShort(out, 45);
+            writeShort(out, 45);
+            writeInt(out, 0);
+            writeInt(out, 0);
+            writeLong(out, entries.size());
+            writeLong(out, entries.size());
+            writeLong(out, size);
+            writeLong(out, start);
+            writeInt(out, ZIP64_LOCATOR);
+            writeInt(out, 0);
+            writeLong(out, end);
+            writeInt(out, 1);
+        }
+        writeInt(out, END_HEADER);
+        writeShort(out, 0);
+        writeShort(out, 0);
+        writeShort(out, Math.min(entries.size(), MAX_16));
+        writeShort(out, Math.min(entries.size(), MAX_16));
+        writeInt(out, (int) size);
+        writeInt(out, (int) start);
+        writeShort(out, 0);
+    }
+
+    private static void checkSize(Entry entry) throws IOException {
+        if (entry.size > MAX_32 || entry.compressedSize > MAX_32)
+            throw new IOException("Entry " + entry.name + " is larger than 4 GB, which the parallel compression stage does not support");
+    }
+
+    /**
+     * @return the provided time in MS-DOS format, as used by zip entries, which do not record the time zone
+     */
+    private static int dosTime(long time, TimeZone zone) {
+        Calendar calendar = Calendar.getInstance(zone);
+        calendar.setTimeInMillis(time);
+        int year = calendar.get(Calendar.YEAR);
+        if (year < 1980)
+            return (1 << 21) | (1 << 16);
+        return ((year - 1980) << 25) | ((calendar.get(Calendar.MONTH) + 1) << 21) | (calendar.get(Calendar.DAY_OF_MONTH) << 16)
+                | (calendar.get(Calendar.HOUR_OF_DAY) << 11) | (calendar.get(Calendar.MINUTE) << 5) | (calendar.get(Calendar.SECOND) >> 1);
+    }
+
+    private static void writeShort(OutputStream out, int value) throws IOException {
+        out.write(value & 0xff);
+        out.write((value >>> 8) & 0xff);
+    }
+
+    private static void writeInt(OutputStream out, int value) throws IOException {
+        writeShort(out, value & 0xffff);
+        writeShort(out, (value >>> 16) & 0xffff);
+    }
+
+    private static void writeLong(OutputStream out, long value) throws IOException {
+        writeInt(out, (int) value);
+        writeInt(out, (int) (value >>> 32));
+    }
+
+    /**
+     * A file, or an entry of another archive, to add to the archive
+     */
+    private static class Source {
+        final String   name;
+        final File     file;
+        final ZipFile  zip;
+        final ZipEntry entry;
+
+        Source(String name, File file) {
+            this.name = name;
+            this.file = file;
+            this.zip = null;
+            this.entry = null;
+        }
+
+        Source(String name, ZipFile zip, ZipEntry entry) {
+            this.name = name;
+            this.file = null;
+            this.zip = zip;
+            this.entry = entry;
+        }
+
+        long getTime() {
+            return (file != null) ? file.lastModified() : entry.getTime();
+        }
+
+        byte[] read() throws IOException {
+            if (file != null)
+                return Files.readAllBytes(file.toPath());
+            InputStream in = zip.getInputStream(entry);
+            try {
+                return IOUtils.toByteArray(in);
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * An archive entry, compressed but not yet written
+     */
+    private static class Entry {
+        final String name;
+        final byte[] nameBytes;
+        final File   file;
+        int          method         = ZipEntry.STORED;
+        int          dosTime;
+        long         crc            = 0;
+        long         size           = 0;
+        long         compressedSize = 0;
+        long         offset;
+
+        // The compressed or stored data, or null to copy the file when the entry is written
+        byte[]       data;
+
+        Entry(String name, File file) {
+            this.name = name;
+            this.nameBytes = name.getBytes(StandardCharsets.UTF_8);
+            this.file = file;
+        }
+    }
+
+    /**
+     * Counts the bytes written, to know the offsets of the entries
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+        long count = 0;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
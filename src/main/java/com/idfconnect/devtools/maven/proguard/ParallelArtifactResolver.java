@@ -0,0 +1,154 @@
+package com.idfconnect.devtools.maven.proguard;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+import org.eclipse.aether.AbstractRepositoryListener;
+import org.eclipse.aether.DefaultRepositorySystemSession;
+import org.eclipse.aether.RepositoryEvent;
+import org.eclipse.aether.RepositorySystem;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.resolution.ArtifactRequest;
+import org.eclipse.aether.resolution.ArtifactResolutionException;
+import org.eclipse.aether.resolution.ArtifactResult;
+import org.eclipse.aether.util.listener.ChainedRepositoryListener;
+
+/**
+ * Resolves a set of artifacts in batches on a bounded number of threads, instead of one request at a time. The artifacts are split into one batch per
+ * thread, and each batch is a single <code>resolveArtifacts</code> request, so the repository connectors can also combine the downloads of a batch.
+ * The time taken by every artifact is logged, and recorded as a Flight Recorder event if the JVM records them.
+ */
+class ParallelArtifactResolver {
+    private final RepositorySystem        repoSystem;
+    private final RepositorySystemSession repoSession;
+    private final List<RemoteRepository>  remoteRepositories;
+    private final int                     threads;
+    private final Log                     log;
+
+    /**
+     * @param repoSystem
+     * @param repoSession
+     * @param remoteRepositories
+     * @param threads
+     *            the maximum number of concurrent resolution requests
+     * @param log
+     */
+    ParallelArtifactResolver(RepositorySystem repoSystem, RepositorySystemSession repoSession, List<RemoteRepository> remoteRepositories, int threads, Log log) {
+        this.repoSystem = repoSystem;
+        this.repoSession = repoSession;
+        this.remoteRepositories = remoteRepositories;
+        this.threads = Math.max(1, threads);
+        this.log = log;
+    }
+
+    /**
+     * Resolves the provided artifacts
+     *
+     * @param artifacts
+     * @return the resolved files, keyed by the string form of each requested artifact
+     * @throws MojoExecutionException
+     *             if any artifact cannot be resolved
+     */
+    Map<String, File> resolve(List<Artifact> artifacts) throws MojoExecutionException {
+        Map<String, File> files = new LinkedHashMap<String, File>();
+        Map<String, Artifact> unique = new LinkedHashMap<String, Artifact>();
+        for (Artifact artifact : artifacts)
+            unique.put(artifact.toString(), artifact);
+        if (unique.isEmpty())
+            return files;
+
+        long start = System.currentTimeMillis();
+        int batchCount = Math.min(threads, unique.size());
+        List<List<ArtifactRequest>> batches = new ArrayList<List<ArtifactRequest>>();
+        for (int i = 0; i < batchCount; i++)
+            batches.add(new ArrayList<ArtifactRequest>());
+        int i = 0;
+        for (Artifact artifact : unique.values()) {
+            ArtifactRequest request = new ArtifactRequest();
+            request.setArtifact(artifact);
+            request.setRepositories(remoteRepositories);
+            batches.get(i++ % batchCount).add(request);
+        }
+
+        // Time every artifact through the repository events, without losing the listener Maven has installed
+        final DefaultRepositorySystemSession session = new DefaultRepositorySystemSession(repoSession);
+        session.setRepositoryListener(ChainedRepositoryListener.newInstance(repoSession.getRepositoryListener(), new TimingListener()));
+
+        log.info("Resolving " + unique.size() + " artifact(s) using " + batchCount + " thread(s)");
+        ExecutorService executor = Executors.newFixedThreadPool(batchCount);
+        try {
+            List<Future<List<ArtifactResult>>> futures = new ArrayList<Future<List<ArtifactResult>>>();
+            for (final List<ArtifactRequest> batch : batches) {
+                futures.add(executor.submit(new Callable<List<ArtifactResult>>() {
+                    public List<ArtifactResult> call() throws ArtifactResolutionException {
+                        return repoSystem.resolveArtifacts(session, batch);
+                    }
+                }));
+            }
+
+            for (Future<List<ArtifactResult>> future : futures) {
+                for (ArtifactResult result : future.get())
+                    files.put(result.getRequest().getArtifact().toString(), result.getArtifact().getFile());
+            }
+        } catch (ExecutionException e) {
+            throw new MojoExecutionException(e.getCause().getMessage(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted while resolving artifacts", e);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        log.info("Resolved " + files.size() + " artifact(s) in " + (System.currentTimeMillis() - start) + " ms");
+        return files;
+    }
+
+    /**
+     * Logs the time between the start and the end of the resolution of each artifact
+     */
+    private class TimingListener extends AbstractRepositoryListener {
+        private final Map<String, Long>              started = new ConcurrentHashMap<String, Long>();
+        private final Map<String, PhaseEvents.Phase> phases  = new ConcurrentHashMap<String, PhaseEvents.Phase>();
+
+        @Override
+        public void artifactResolving(RepositoryEvent event) {
+            started.put(event.getArtifact().toString(), System.nanoTime());
+            PhaseEvents.Phase phase = PhaseEvents.begin(null, "resolveArtifact", null);
+            if (phase != null) {
+                phase.setArtifact(event.getArtifact().toString());
+                phases.put(event.getArtifact().toString(), phase);
+            }
+        }
+
+        @Override
+        public void artifactResolved(RepositoryEvent event) {
+            PhaseEvents.Phase phase = phases.remove(event.getArtifact().toString());
+            if (phase != null) {
+                if (event.getFile() != null)
+                    phase.setBytes(event.getFile().length());
+                phase.end();
+            }
+            Long begin = started.remove(event.getArtifact().toString());
+            if (begin == null)
+                return;
+            long millis = (System.nanoTime() - begin) / 1000000;
+            if (event.getFile() != null)
+                log.info("Resolved artifact " + event.getArtifact() + " in " + millis + " ms" + ((event.getRepository() != null) ? " from " + event.getRepository() : ""));
+            else
+                log.warn("Failed to resolve artifact " + event.getArtifact() + " after " + millis + " ms");
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.idfconnect.devtools.maven.proguard;
+
+import java.io.File;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Starts the phases of a ProGuard execution, measuring each one in a {@link PhaseReport} if one is written, and recording it as a JDK Flight
+ * Recorder event if the JVM is recording, so that the samples of a recording can be told apart by phase.
+ * <p>
+ * The events are of the type <code>com.idfconnect.proguard.Phase</code>, in the <em>Maven / ProGuard</em> category, and carry the name of the
+ * phase, the execution it belongs to and, where they apply, the artifact coordinates, a number of classes, a number of files and their size in
+ * bytes. On a JVM without the Flight Recorder API, which came with Java 11 and 8u262, no event class is ever loaded, and a phase that is not
+ * reported costs a single check.
+ */
+final class PhaseEvents {
+    private static final boolean AVAILABLE = isAvailable();
+
+    private PhaseEvents() {
+    }
+
+    /**
+     * Starts a phase
+     *
+     * @param report
+     *            the report to measure the phase in, or null
+     * @param name
+     *            the name of the phase
+     * @param execution
+     *            the execution the phase belongs to, such as the name of a variant, or null
+     * @return the phase, to be ended with {@link Phase#end()}, or null if it is neither reported nor recorded
+     */
+    static Phase begin(PhaseReport report, String name, String execution) {
+        return begin(report, name, execution, PhaseReport.THREAD);
+    }
+
+    /**
+     * Starts a phase measured in the provided scope
+     *
+     * @param report
+     *            the report to measure the phase in, or null
+     * @param name
+     *            the name of the phase
+     * @param execution
+     *            the execution the phase belongs to, such as the name of a variant, or null
+     * @param scope
+     *            the scope in which the report measures the CPU time and allocations of the phase, such as {@link PhaseReport#PROCESS}
+     * @return the phase, to be ended with {@link Phase#end()}, or null if it is neither reported nor recorded
+     */
+    static Phase begin(PhaseReport report, String name, String execution, int scope) {
+        Object event = AVAILABLE ? JfrPhaseEvent.start(name, execution) : null;
+        if (report == null && event == null)
+            return null;
+        return new Phase((report != null) ? report.begin(name, execution, scope) : null, event);
+    }
+
+    /**
+     * @return true if the Flight Recorder API is there to record events with
+     */
+    private static boolean isAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event", false, PhaseEvents.class.getClassLoader());
+            return JfrPhaseEvent.isAvailable();
+        } catch (ClassNotFoundException e) {
+            return false;
+        } catch (LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * A phase being measured, recorded or both
+     */
+    static final class Phase {
+        private final PhaseReport.Phase measured;
+        private final Object            event;
+        private String                  artifact = null;
+        private long                    classes  = -1;
+        private int                     files    = -1;
+        private long                    bytes    = -1;
+
+        private Phase(PhaseReport.Phase measured, Object event) {
+            this.measured = measured;
+            this.event = event;
+        }
+
+        /**
+         * @return true if the phase is recorded as an event, so that its attributes are worth computing
+         */
+        boolean isRecorded() {
+            return event != null;
+        }
+
+        /**
+         * @param artifact
+         *            the coordinates of the artifact the phase works on
+         */
+        void setArtifact(String artifact) {
+            this.artifact = artifact;
+        }
+
+        /**
+         * @param classes
+         *            the number of classes the phase works on
+         */
+        void setClasses(long classes) {
+            this.classes = classes;
+        }
+
+        /**
+         * @param bytes
+         *            the number of bytes the phase works on
+         */
+        void setBytes(long bytes) {
+            this.bytes = bytes;
+        }
+
+        /**
+         * Sets the number of files the phase works on and their total size, which is only computed if the phase is recorded
+         *
+         * @param list
+         *            files or directories
+         */
+        void setFiles(List<File> list) {
+            this.files = list.size();
+            if (event == null)
+                return;
+            long total = 0;
+            for (File file : list) {
+                if (file.isDirectory())
+                    total += FileUtils.sizeOfDirectory(file);
+                else
+                    total += file.length();
+            }
+            this.bytes = total;
+        }
+
+        /**
+         * Ends the phase
+         */
+        void end() {
+            if (measured != null)
+                measured.end();
+            if (event != null)
+                JfrPhaseEvent.commit(event, artifact, classes, files, bytes);
+        }
+    }
+}
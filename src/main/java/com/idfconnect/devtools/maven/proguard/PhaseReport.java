@@ -0,0 +1,320 @@
+package com.idfconnect.devtools.maven.proguard;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records the wall time, CPU time, allocated bytes and peak heap of the phases of a ProGuard execution, together with class counts, and writes them
+ * as a JSON document. A report can be shared by the variants or shards of an execution, which run concurrently: each phase and each set of class
+ * counts carries the name of the execution it belongs to.
+ * <p>
+ * CPU time and allocations are those of the thread running the phase, and are reported as -1 where the JVM cannot measure them. A phase that fans
+ * its work out to other threads is measured in {@link #PROCESS} scope instead: its CPU time is that of the whole JVM, including any other
+ * executions running at the same time, and its allocations are not measured. A phase whose work runs in another JVM, such as a forked JVM or the
+ * daemon, is measured in {@link #EXTERNAL} scope, with neither measured. The scope of each phase is written with it. The peak heap is
+ * the highest heap use sampled while the phase ran, at its start, at its end and every {@value #SAMPLE_MILLIS} ms in between, so it can miss short
+ * peaks. It covers the whole JVM, so in parallel builds it includes the heap used by other executions; the peaks of the JVM memory pools are never
+ * reset, as that would lose the peaks of concurrent phases. The report also holds the total wall time of the execution and, on Linux, the peak
+ * resident set size of the JVM so far.
+ */
+class PhaseReport {
+    // Interval at which the heap use is sampled while phases are running
+    static final long                            SAMPLE_MILLIS = 10;
+
+    // Scopes in which the CPU time and allocations of a phase are measured: the thread running it, the whole JVM, or none as it runs elsewhere
+    static final int                             THREAD        = 0;
+    static final int                             PROCESS       = 1;
+    static final int                             EXTERNAL      = 2;
+    private static final String[]                SCOPE_NAMES   = { "thread", "process", "external" };
+
+    private final List<Phase>                    phases        = new ArrayList<Phase>();
+    private final List<Phase>                    running       = new ArrayList<Phase>();
+    private final Map<String, Map<String, Long>> counts        = new LinkedHashMap<String, Map<String, Long>>();
+    private final long                           started       = System.currentTimeMillis();
+    private final long                           startNanos    = System.nanoTime();
+    private String                               outcome       = null;
+    private Thread                               sampler       = null;
+
+    /**
+     * Starts measuring a phase
+     *
+     * @param name
+     * @param execution
+     *            the execution the phase belongs to, such as the name of a variant or shard, or null
+     * @param scope
+     *            the scope in which the CPU time and allocations of the phase are measured: {@link #THREAD}, {@link #PROCESS} or {@link #EXTERNAL}
+     * @return the phase, to be ended with {@link Phase#end()}
+     */
+    Phase begin(String name, String execution, int scope) {
+        long used = heapUsed();
+        Phase phase = new Phase(name, execution, scope);
+        synchronized (this) {
+            phases.add(phase);
+            running.add(phase);
+            phase.peakHeapBytes = used;
+            if (sampler == null) {
+                sampler = new Thread(new Runnable() {
+                    public void run() {
+                        sample();
+                    }
+                }, "proguard-phase-report");
+                sampler.setDaemon(true);
+                sampler.start();
+            }
+        }
+        return phase;
+    }
+
+    /**
+     * Records a class count, such as the number of input classes
+     *
+     * @param execution
+     *            the execution the count belongs to, such as the name of a variant or shard, or null
+     * @param name
+     * @param count
+     */
+    synchronized void setCount(String execution, String name, long count) {
+        Map<String, Long> executionCounts = counts.get(execution);
+        if (executionCounts == null) {
+            executionCounts = new LinkedHashMap<String, Long>();
+            counts.put(execution, executionCounts);
+        }
+        executionCounts.put(name, count);
+    }
+
+    /**
+     * Records how the execution ended, such as <code>processed</code> or <code>up-to-date</code>
+     *
+     * @param outcome
+     */
+    synchronized void setOutcome(String outcome) {
+        this.outcome = outcome;
+    }
+
+    /**
+     * Writes the report
+     *
+     * @param file
+     * @throws IOException
+     */
+    synchronized void write(File file) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n");
+        sb.append("  \"started\": ").append(started).append(",\n");
+        sb.append("  \"outcome\": ").append(quote(outcome)).append(",\n");
+        sb.append("  \"wallMillis\": ").append((System.nanoTime() - startNanos) / 1000000).append(",\n");
+        sb.append("  \"peakRssBytes\": ").append(peakRss()).append(",\n");
+        sb.append("  \"counts\": [");
+        String separator = "\n";
+        for (Map.Entry<String, Map<String, Long>> executionCounts : counts.entrySet()) {
+            sb.append(separator).append("    { \"execution\": ").append(quote(executionCounts.getKey()));
+            for (Map.Entry<String, Long> count : executionCounts.getValue().entrySet())
+                sb.append(", ").append(quote(count.getKey())).append(": ").append(count.getValue());
+            sb.append(" }");
+            separator = ",\n";
+        }
+        sb.append(counts.isEmpty() ? "],\n" : "\n  ],\n");
+        sb.append("  \"phases\": [");
+        separator = "\n";
+        for (Phase phase : phases) {
+            sb.append(separator).append("    { \"name\": ").append(quote(phase.name));
+            sb.append(", \"execution\": ").append(quote(phase.execution));
+            sb.append(", \"wallMillis\": ").append(phase.wallNanos / 1000000);
+            sb.append(", \"scope\": ").append(quote(SCOPE_NAMES[phase.scope]));
+            sb.append(", \"cpuMillis\": ").append((phase.cpuNanos < 0) ? -1 : phase.cpuNanos / 1000000);
+            sb.append(", \"allocatedBytes\": ").append(phase.allocatedBytes);
+            sb.append(", \"peakHeapBytes\": ").append(phase.peakHeapBytes).append(" }");
+            separator = ",\n";
+        }
+        sb.append(phases.isEmpty() ? "]\n" : "\n  ]\n");
+        sb.append("}\n");
+
+        File dir = file.getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory())
+            throw new IOException("Cannot create directory " + dir);
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(sb.toString());
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static String quote(String s) {
+        if (s == null)
+            return "null";
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\')
+                sb.append('\\').append(c);
+            else if (c < 0x20)
+                sb.append(String.format("\\u%04x", (int) c));
+            else
+                sb.append(c);
+        }
+        return sb.append('"').toString();
+    }
+
+    /**
+     * @return the peak resident set size of this JVM in bytes, from <code>/proc/self/status</code>, or -1 if it is not available
+     */
+    private static long peakRss() {
+        File status = new File("/proc/self/status");
+        if (!status.isFile())
+            return -1;
+        try {
+            BufferedReader reader = new BufferedReader(new FileReader(status));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.startsWith("VmHWM:")) {
+                        String[] fields = line.substring(6).trim().split("\\s+");
+                        return Long.parseLong(fields[0]) * 1024;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            // Not available
+        } catch (NumberFormatException e) {
+            // Not available
+        }
+        return -1;
+    }
+
+    /**
+     * @return the CPU time in the provided scope in nanoseconds: that of the current thread or of the JVM, or -1
+     */
+    private static long cpuTime(int scope) {
+        if (scope == PROCESS)
+            return processCpuTime();
+        if (scope != THREAD)
+            return -1;
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        try {
+            return threads.isCurrentThreadCpuTimeSupported() ? threads.getCurrentThreadCpuTime() : -1;
+        } catch (UnsupportedOperationException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return the CPU time of all the threads of this JVM in nanoseconds, or -1
+     */
+    private static long processCpuTime() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        try {
+            if (os instanceof com.sun.management.OperatingSystemMXBean)
+                return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+        } catch (LinkageError e) {
+            // Not a HotSpot JVM
+        }
+        return -1;
+    }
+
+    /**
+     * @return the bytes allocated so far by the current thread if the scope is {@link #THREAD}, or -1
+     */
+    private static long allocatedBytes(int scope) {
+        if (scope != THREAD)
+            return -1;
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        try {
+            if (threads instanceof com.sun.management.ThreadMXBean)
+                return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        } catch (UnsupportedOperationException e) {
+            // Not measured
+        } catch (LinkageError e) {
+            // Not a HotSpot JVM
+        }
+        return -1;
+    }
+
+    /**
+     * @return the bytes of heap in use in this JVM
+     */
+    private static long heapUsed() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * Raises the peak heap of the running phases to the heap in use, every {@link #SAMPLE_MILLIS} ms, until no phase runs any more
+     */
+    private void sample() {
+        while (true) {
+            try {
+                Thread.sleep(SAMPLE_MILLIS);
+            } catch (InterruptedException e) {
+                synchronized (this) {
+                    sampler = null;
+                }
+                return;
+            }
+            long used = heapUsed();
+            synchronized (this) {
+                if (running.isEmpty()) {
+                    sampler = null;
+                    return;
+                }
+                for (Phase phase : running)
+                    phase.peakHeapBytes = Math.max(phase.peakHeapBytes, used);
+            }
+        }
+    }
+
+    /**
+     * A single measured phase
+     */
+    class Phase {
+        private final String name;
+        private final String execution;
+        private final int    scope;
+        private final long   startNanos;
+        private final long   startCpu;
+        private final long   startAllocated;
+        private long         wallNanos      = 0;
+        private long         cpuNanos       = -1;
+        private long         allocatedBytes = -1;
+        private long         peakHeapBytes  = -1;
+
+        private Phase(String name, String execution, int scope) {
+            this.name = name;
+            this.execution = execution;
+            this.scope = scope;
+            this.startCpu = cpuTime(scope);
+            this.startAllocated = allocatedBytes(scope);
+            this.startNanos = System.nanoTime();
+        }
+
+        /**
+         * Stops measuring this phase
+         */
+        void end() {
+            long endNanos = System.nanoTime();
+            long endCpu = cpuTime(scope);
+            long endAllocated = allocatedBytes(scope);
+            long used = heapUsed();
+            synchronized (PhaseReport.this) {
+                running.remove(this);
+                wallNanos = endNanos - startNanos;
+                cpuNanos = (startCpu >= 0 && endCpu >= 0) ? endCpu - startCpu : -1;
+                allocatedBytes = (startAllocated >= 0 && endAllocated >= 0) ? endAllocated - startAllocated : -1;
+                peakHeapBytes = Math.max(peakHeapBytes, used);
+            }
+        }
+    }
+}
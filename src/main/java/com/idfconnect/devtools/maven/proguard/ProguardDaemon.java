@@ -0,0 +1,474 @@
+package com.idfconnect.devtools.maven.proguard;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.lang.ProcessBuilder.Redirect;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+import proguard.Configuration;
+import proguard.ConfigurationParser;
+
+/**
+ * A background JVM that keeps ProGuard loaded and compiled between Maven invocations, so that small ProGuard runs do not each pay for JVM startup,
+ * class loading and warm-up. It also keeps the library classes it has parsed in its {@link SharedLibraryPools}.
+ * <p>
+ * The daemon listens on a local port, which it publishes together with a random access token in a state file under the daemon directory. Requests
+ * are served one at a time: the mojo sends the ProGuard options, and the daemon streams back the output of the run followed by its exit code. The
+ * daemon stops when it has been idle for the configured time, or when a build needs a daemon of a different version: a different plug-in version or
+ * build, or different JVM settings.
+ * <p>
+ * This class is both the client used by the mojo and the entry point of the daemon JVM.
+ */
+public final class ProguardDaemon {
+    private static final String STATE_FILE    = "daemon.properties";
+    private static final String LOCK_FILE     = "daemon.lock";
+    private static final String LOG_FILE      = "daemon.log";
+    private static final long   START_TIMEOUT = 60000;
+
+    private static final String RUN           = "run";
+    private static final String PING          = "ping";
+    private static final String SHUTDOWN      = "shutdown";
+    private static final int    LINE          = 'L';
+    private static final int    EXIT          = 'X';
+
+    // Limits on what a request can make the daemon read, checked before anything is allocated. A token is a UUID, and the options of a run can
+    // carry library filters listing thousands of classes, so strings sent after the token may be larger
+    private static final int    MAX_TOKEN     = 64;
+    private static final int    MAX_STRING    = 1024 * 1024;
+    private static final int    MAX_OPTIONS   = 65536;
+    private static final int    READ_TIMEOUT  = 30000;
+
+    // Output lines longer than this are sent in several messages
+    private static final int    MAX_LINE      = 65536;
+
+    private final File          directory;
+    private final ProguardFork  jvm;
+    private final String        version;
+    private final int           idleTimeout;
+    private final Log           log;
+
+    /**
+     * @param directory
+     *            the directory holding the state and log files of the daemon
+     * @param jvm
+     *            the settings of the daemon JVM
+     * @param pluginVersion
+     *            the version of this plug-in
+     * @param idleTimeout
+     *            the number of seconds after which an idle daemon stops
+     * @param log
+     * @throws MojoExecutionException
+     */
+    ProguardDaemon(File directory, ProguardFork jvm, String pluginVersion, int idleTimeout, Log log) throws MojoExecutionException {
+        this.directory = directory;
+        this.jvm = jvm;
+        this.idleTimeout = idleTimeout;
+        this.log = log;
+
+        // Snapshot builds keep their version, so the class path files are part of the daemon version too
+        StringBuilder sb = new StringBuilder(pluginVersion).append(' ').append(jvm.createJavaCommand());
+        for (File entry : ProguardFork.getClassPathEntries())
+            sb.append(' ').append(entry.length()).append('@').append(entry.lastModified());
+        this.version = sb.toString();
+    }
+
+    /**
+     * Runs ProGuard in the daemon, starting the daemon first if necessary
+     *
+     * @param options
+     *            the ProGuard options
+     * @param libraryCacheDirectory
+     *            the directory of the {@link LibraryClassCache} to use, or null
+     * @param sharedPoolMaxClasses
+     *            the maximum number of library classes the daemon keeps in memory between runs, or 0
+     * @throws MojoExecutionException
+     *             if the daemon cannot be reached or ProGuard fails
+     */
+    void execute(List<String> options, File libraryCacheDirectory, int sharedPoolMaxClasses) throws MojoExecutionException {
+        Properties state = ensureRunning();
+        int exitCode;
+        try {
+            Socket socket = connect(state);
+            try {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                writeString(out, state.getProperty("token"));
+                writeString(out, RUN);
+                writeString(out, (libraryCacheDirectory != null) ? libraryCacheDirectory.getAbsolutePath() : "");
+                out.writeInt(sharedPoolMaxClasses);
+                out.writeInt(options.size());
+                for (String option : options)
+                    writeString(out, option);
+                out.flush();
+                exitCode = readResponse(new DataInputStream(new BufferedInputStream(socket.getInputStream())), log);
+            } finally {
+                socket.close();
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException("Lost the connection to the ProGuard daemon, see " + new File(directory, LOG_FILE), e);
+        }
+        if (exitCode != 0)
+            throw new MojoExecutionException("ProGuard failed in the daemon with exit code " + exitCode);
+    }
+
+    /**
+     * Makes sure a daemon of the right version is running. The check is done under a file lock, so concurrent builds start only one daemon
+     *
+     * @return the state of the running daemon
+     */
+    private Properties ensureRunning() throws MojoExecutionException {
+        if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory())
+            throw new MojoExecutionException("Cannot create the ProGuard daemon directory " + directory);
+        try {
+            RandomAccessFile lockFile = new RandomAccessFile(new File(directory, LOCK_FILE), "rw");
+            try {
+                FileLock lock = lockFile.getChannel().lock();
+                try {
+                    Properties state = readState(directory);
+                    if (state != null && version.equals(state.getProperty("version")) && send(state, PING)) {
+                        log.info("Using the ProGuard daemon on port " + state.getProperty("port"));
+                        return state;
+                    }
+                    if (state != null && !version.equals(state.getProperty("version"))) {
+                        log.info("Stopping the ProGuard daemon on port " + state.getProperty("port") + " because it runs a different version");
+                        send(state, SHUTDOWN);
+                    }
+                    return start();
+                } finally {
+                    lock.release();
+                }
+            } finally {
+                lockFile.close();
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException("Cannot start the ProGuard daemon", e);
+        }
+    }
+
+    /**
+     * Starts a new daemon and waits until it accepts requests
+     */
+    private Properties start() throws MojoExecutionException, IOException {
+        new File(directory, STATE_FILE).delete();
+        List<String> command = jvm.createJavaCommand();
+        command.add(ProguardDaemon.class.getName());
+        command.add(directory.getAbsolutePath());
+        command.add(version);
+        command.add(String.valueOf(idleTimeout));
+        log.info("Starting the ProGuard daemon");
+        log.debug("Daemon command: " + command);
+
+        File logFile = new File(directory, LOG_FILE);
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(Redirect.appendTo(logFile)).start();
+        process.getOutputStream().close();
+
+        long deadline = System.currentTimeMillis() + START_TIMEOUT;
+        while (System.currentTimeMillis() < deadline) {
+            Properties state = readState(directory);
+            if (state != null && version.equals(state.getProperty("version")) && send(state, PING))
+                return state;
+            try {
+                process.exitValue();
+                throw new MojoExecutionException("The ProGuard daemon did not start, see " + logFile);
+            } catch (IllegalThreadStateException e) {
+                // Still running
+            }
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new MojoExecutionException("Interrupted while starting the ProGuard daemon", e);
+            }
+        }
+        throw new MojoExecutionException("The ProGuard daemon did not start within " + (START_TIMEOUT / 1000) + " seconds, see " + logFile);
+    }
+
+    /**
+     * Sends a command without arguments
+     *
+     * @return true if the daemon acknowledged it
+     */
+    private boolean send(Properties state, String command) {
+        try {
+            Socket socket = connect(state);
+            try {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                writeString(out, state.getProperty("token"));
+                writeString(out, command);
+                out.flush();
+                return readResponse(new DataInputStream(new BufferedInputStream(socket.getInputStream())), log) == 0;
+            } finally {
+                socket.close();
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static Socket connect(Properties state) throws IOException {
+        try {
+            return new Socket(InetAddress.getByName("127.0.0.1"), Integer.parseInt(state.getProperty("port")));
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid daemon port " + state.getProperty("port"));
+        }
+    }
+
+    /**
+     * Passes the output lines of a request to the log
+     *
+     * @return the exit code
+     */
+    private static int readResponse(DataInputStream in, Log log) throws IOException {
+        while (true) {
+            int type = in.read();
+            if (type == LINE)
+                ProguardFork.logLine(log, readString(in, MAX_STRING));
+            else if (type == EXIT)
+                return in.readInt();
+            else
+                throw new EOFException("Unexpected end of the daemon response");
+        }
+    }
+
+    private static Properties readState(File directory) {
+        File file = new File(directory, STATE_FILE);
+        if (!file.isFile())
+            return null;
+        Properties state = new Properties();
+        try {
+            InputStream in = new FileInputStream(file);
+            try {
+                state.load(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        return state;
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a string written by {@link #writeString(DataOutputStream, String)}
+     *
+     * @param max
+     *            the maximum length in bytes
+     * @throws IOException
+     *             if the string is longer
+     */
+    private static String readString(DataInputStream in, int max) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > max)
+            throw new IOException("Invalid string length " + length + ", the limit is " + max);
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    /**
+     * Entry point of the daemon JVM. The arguments are the daemon directory, the daemon version and the idle timeout in seconds
+     *
+     * @param args
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        File directory = new File(args[0]);
+        String version = args[1];
+        int idleTimeout = Integer.parseInt(args[2]);
+
+        ServerSocket server = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        server.setSoTimeout(idleTimeout * 1000);
+        String token = UUID.randomUUID().toString();
+        writeState(directory, version, server.getLocalPort(), token);
+        System.out.println("ProGuard daemon listening on port " + server.getLocalPort());
+
+        try {
+            while (true) {
+                Socket socket;
+                try {
+                    socket = server.accept();
+                } catch (SocketTimeoutException e) {
+                    System.out.println("ProGuard daemon stopping after " + idleTimeout + " seconds without requests");
+                    break;
+                }
+                try {
+                    if (!serve(socket, token))
+                        break;
+                } catch (IOException e) {
+                    e.printStackTrace();
+                } finally {
+                    socket.close();
+                }
+            }
+        } finally {
+            server.close();
+            Properties state = readState(directory);
+            if (state != null && token.equals(state.getProperty("token")))
+                new File(directory, STATE_FILE).delete();
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Writes the state file under a temporary name and renames it, readable by the current user only
+     */
+    private static void writeState(File directory, String version, int port, String token) throws IOException {
+        Properties state = new Properties();
+        state.setProperty("version", version);
+        state.setProperty("port", String.valueOf(port));
+        state.setProperty("token", token);
+        File temp = new File(directory, STATE_FILE + "." + token + ".tmp");
+        temp.createNewFile();
+        temp.setReadable(false, false);
+        temp.setReadable(true, true);
+        OutputStream out = new FileOutputStream(temp);
+        try {
+            state.store(out, "ProGuard daemon");
+        } finally {
+            out.close();
+        }
+        File file = new File(directory, STATE_FILE);
+        file.delete();
+        if (!temp.renameTo(file))
+            throw new IOException("Cannot rename " + temp + " to " + file);
+    }
+
+    /**
+     * Serves a single request
+     *
+     * @return false if the daemon should stop
+     */
+    private static boolean serve(Socket socket, String token) throws IOException {
+        // A request exceeding a limit, or not sent in time, fails with an exception and its connection is closed
+        socket.setSoTimeout(READ_TIMEOUT);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        if (!token.equals(readString(in, MAX_TOKEN)))
+            return true;
+
+        String command = readString(in, MAX_TOKEN);
+        int exitCode = 0;
+        if (RUN.equals(command)) {
+            String libraryCacheDirectory = readString(in, MAX_STRING);
+            int sharedPoolMaxClasses = in.readInt();
+            int count = in.readInt();
+            if (count < 0 || count > MAX_OPTIONS)
+                throw new IOException("Invalid option count " + count + ", the limit is " + MAX_OPTIONS);
+            List<String> options = new ArrayList<String>();
+            for (int i = count; i > 0; i--)
+                options.add(readString(in, MAX_STRING));
+            socket.setSoTimeout(0);
+            exitCode = run(options, (libraryCacheDirectory.length() > 0) ? new File(libraryCacheDirectory) : null, sharedPoolMaxClasses, out);
+        }
+        out.write(EXIT);
+        out.writeInt(exitCode);
+        out.flush();
+        return !SHUTDOWN.equals(command);
+    }
+
+    /**
+     * Runs ProGuard with its standard output and error sent to the client
+     *
+     * @return the exit code
+     */
+    private static int run(List<String> options, File libraryCacheDirectory, int sharedPoolMaxClasses, DataOutputStream out) {
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        PrintStream client = new PrintStream(new ClientOutputStream(out), true);
+        System.setOut(client);
+        System.setErr(client);
+        Configuration configuration = new Configuration();
+        try {
+            ConfigurationParser parser = new ConfigurationParser(options.toArray(new String[options.size()]), System.getProperties());
+            try {
+                parser.parse(configuration);
+            } finally {
+                parser.close();
+            }
+
+            // The shared pools outlive the Maven sessions of the clients, so they are tied to the daemon instead
+            LibraryClassCache libraryClassCache = null;
+            if (libraryCacheDirectory != null || sharedPoolMaxClasses > 0) {
+                SharedLibraryPools.beginSession(ProguardDaemon.class);
+                libraryClassCache = new LibraryClassCache(libraryCacheDirectory, sharedPoolMaxClasses, new SystemStreamLog());
+            }
+            new ProguardRunner(configuration, libraryClassCache).execute();
+            return 0;
+        } catch (Exception e) {
+            if (configuration.verbose)
+                e.printStackTrace();
+            else
+                System.err.println("Error: " + e.getMessage());
+            return 1;
+        } finally {
+            client.flush();
+            System.setOut(stdout);
+            System.setErr(stderr);
+        }
+    }
+
+    /**
+     * Sends everything written to it to the client, one line per message
+     */
+    private static class ClientOutputStream extends OutputStream {
+        private final DataOutputStream      out;
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+        ClientOutputStream(DataOutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (b == '\n')
+                flushLine();
+            else if (b != '\r') {
+                line.write(b);
+                if (line.size() >= MAX_LINE)
+                    flushLine();
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (line.size() > 0)
+                flushLine();
+            out.flush();
+        }
+
+        private void flushLine() throws IOException {
+            out.write(LINE);
+            writeString(out, line.toString());
+            line.reset();
+        }
+    }
+}
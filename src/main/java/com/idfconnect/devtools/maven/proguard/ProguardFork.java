@@ -0,0 +1,266 @@
+package com.idfconnect.devtools.maven.proguard;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+import proguard.Configuration;
+import proguard.ConfigurationParser;
+import proguard.ProGuard;
+
+/**
+ * Runs ProGuard in a child JVM with its own heap size, garbage collector and JVM arguments, so that a large ProGuard run does not need a large heap for
+ * the whole Maven build. The options are passed in a configuration file and the output of the child JVM is streamed into the Maven log.
+ * <p>
+ * This class is also the entry point of the child JVM, which runs the same {@link ProguardRunner} as an in-process run.
+ */
+public final class ProguardFork {
+    private static final String LIBRARY_CACHE_OPTION = "--library-cache";
+
+    private final String       maxMemory;
+    private final String       garbageCollector;
+    private final List<String> jvmArgs;
+    private final Log          log;
+
+    /**
+     * @param maxMemory
+     *            the maximum heap size of the child JVM, such as <code>4g</code>, or null for the JVM default
+     * @param garbageCollector
+     *            the garbage collector of the child JVM, such as <code>G1</code> or <code>Parallel</code>, or null for the JVM default
+     * @param jvmArgs
+     *            additional arguments for the child JVM, may be null
+     * @param log
+     */
+    ProguardFork(String maxMemory, String garbageCollector, List<String> jvmArgs, Log log) {
+        this.maxMemory = maxMemory;
+        this.garbageCollector = garbageCollector;
+        this.jvmArgs = jvmArgs;
+        this.log = log;
+    }
+
+    /**
+     * Runs ProGuard in a child JVM and waits for it to complete
+     *
+     * @param options
+     *            the ProGuard options
+     * @param configFile
+     *            the file to pass the options in
+     * @param libraryCacheDirectory
+     *            the directory of the {@link LibraryClassCache} to use, or null
+     * @throws MojoExecutionException
+     *             if the child JVM cannot be started or ProGuard fails
+     */
+    void execute(List<String> options, File configFile, File libraryCacheDirectory) throws MojoExecutionException {
+        try {
+            PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(configFile), "UTF-8"));
+            try {
+                for (String option : options)
+                    writer.println(option);
+            } finally {
+                writer.close();
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to write " + configFile, e);
+        }
+
+        List<String> command = createJavaCommand();
+        command.add(ProguardFork.class.getName());
+        if (libraryCacheDirectory != null) {
+            command.add(LIBRARY_CACHE_OPTION);
+            command.add(libraryCacheDirectory.getAbsolutePath());
+        }
+        command.add(configFile.getAbsolutePath());
+        log.info("Forking ProGuard: " + command);
+
+        int exitCode;
+        try {
+            Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+            process.getOutputStream().close();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null)
+                    logLine(log, line);
+            } finally {
+                reader.close();
+            }
+            exitCode = process.waitFor();
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to run ProGuard in a forked JVM", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted while waiting for the forked ProGuard JVM", e);
+        }
+        if (exitCode != 0)
+            throw new MojoExecutionException("ProGuard failed in the forked JVM with exit code " + exitCode);
+    }
+
+    /**
+     * Returns the command to start a child JVM with the configured settings and the class path needed to run ProGuard, up to the main class
+     *
+     * @return the command
+     * @throws MojoExecutionException
+     */
+    List<String> createJavaCommand() throws MojoExecutionException {
+        List<String> command = new ArrayList<String>();
+        command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+        if (maxMemory != null)
+            command.add("-Xmx" + maxMemory);
+        if (garbageCollector != null)
+            command.add("-XX:+Use" + garbageCollector + "GC");
+        if (jvmArgs != null)
+            command.addAll(jvmArgs);
+        command.add("-cp");
+        command.add(getClassPath());
+        return command;
+    }
+
+    /**
+     * Passes a line of output from a child JVM to the Maven log, at the level it was logged at or written with
+     *
+     * @param log
+     * @param line
+     */
+    static void logLine(Log log, String line) {
+        if (line.startsWith("[debug] "))
+            log.debug(line.substring(8));
+        else if (line.startsWith("[info] "))
+            log.info(line.substring(7));
+        else if (line.startsWith("[warn] "))
+            log.warn(line.substring(7));
+        else if (line.startsWith("[error] "))
+            log.error(line.substring(8));
+        else if (line.startsWith("Warning"))
+            log.warn(line);
+        else if (line.startsWith("Error"))
+            log.error(line);
+        else
+            log.info(line);
+    }
+
+    /**
+     * @return the class path of the child JVM: the jars holding ProGuard, this plug-in and the Maven logging API
+     */
+    private static String getClassPath() throws MojoExecutionException {
+        StringBuilder sb = new StringBuilder();
+        for (File entry : getClassPathEntries()) {
+            if (sb.length() > 0)
+                sb.append(File.pathSeparatorChar);
+            sb.append(entry.getPath());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return the jars or directories holding ProGuard, this plug-in and the Maven logging API
+     * @throws MojoExecutionException
+     */
+    static Set<File> getClassPathEntries() throws MojoExecutionException {
+        Set<File> entries = new LinkedHashSet<File>();
+        for (Class<?> c : new Class<?>[] { ProGuard.class, ProguardFork.class, Log.class }) {
+            try {
+                entries.add(new File(c.getProtectionDomain().getCodeSource().getLocation().toURI()));
+            } catch (Exception e) {
+                throw new MojoExecutionException("Cannot determine the location of " + c.getName(), e);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Estimates the uncompressed size of all of the class files in the provided jars, archives and directories
+     *
+     * @param files
+     * @return the estimated number of bytes
+     */
+    static long estimateClassBytes(List<File> files) {
+        long total = 0;
+        for (File file : files) {
+            if (file.isDirectory())
+                total += estimateClassBytes(listFiles(file));
+            else if (file.getName().endsWith(".class"))
+                total += file.length();
+            else if (file.isFile()) {
+                try {
+                    ZipFile zip = new ZipFile(file);
+                    try {
+                        Enumeration<? extends ZipEntry> entries = zip.entries();
+                        while (entries.hasMoreElements()) {
+                            ZipEntry entry = entries.nextElement();
+                            if (entry.getName().endsWith(".class"))
+                                total += (entry.getSize() >= 0) ? entry.getSize() : entry.getCompressedSize();
+                        }
+                    } finally {
+                        zip.close();
+                    }
+                } catch (IOException e) {
+                    total += file.length();
+                }
+            }
+        }
+        return total;
+    }
+
+    private static List<File> listFiles(File dir) {
+        List<File> list = new ArrayList<File>();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files)
+                list.add(f);
+        }
+        return list;
+    }
+
+    /**
+     * Entry point of the child JVM. The arguments are an optional library cache directory and the ProGuard configuration file
+     *
+     * @param args
+     */
+    public static void main(String[] args) {
+        File libraryCacheDirectory = null;
+        int i = 0;
+        if (args.length > 2 && LIBRARY_CACHE_OPTION.equals(args[0])) {
+            libraryCacheDirectory = new File(args[1]);
+            i = 2;
+        }
+        if (args.length != i + 1) {
+            System.err.println("Error: usage: " + ProguardFork.class.getName() + " [" + LIBRARY_CACHE_OPTION + " directory] configuration-file");
+            System.exit(1);
+        }
+
+        Configuration configuration = new Configuration();
+        try {
+            ConfigurationParser parser = new ConfigurationParser(new File(args[i]), System.getProperties());
+            try {
+                parser.parse(configuration);
+            } finally {
+                parser.close();
+            }
+
+            LibraryClassCache libraryClassCache = (libraryCacheDirectory != null) ? new LibraryClassCache(libraryCacheDirectory, 0, new SystemStreamLog()) : null;
+            new ProguardRunner(configuration, libraryClassCache).execute();
+        } catch (Exception e) {
+            if (configuration.verbose)
+                e.printStackTrace();
+            else
+                System.err.println("Error: " + e.getMessage());
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+}
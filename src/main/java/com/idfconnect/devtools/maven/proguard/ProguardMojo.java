@@ -1,13 +1,31 @@
 package com.idfconnect.devtools.maven.proguard;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.maven.artifact.Artifact;
 import org.apache.maven.plugin.AbstractMojo;
@@ -30,22 +48,27 @@ import org.eclipse.aether.resolution.ArtifactResolutionException;
 import org.eclipse.aether.resolution.ArtifactResult;
 
 import proguard.Configuration;
-import proguard.ConfigurationParser;
+import proguard.ParseException;
 import proguard.ProGuard;
+import proguard.util.FileNameParser;
+import proguard.util.ListParser;
+import proguard.util.StringMatcher;
 
 /**
  * A Maven 3.1 plug-in for using ProGuard to obfuscate project artifacts
  * 
  * @author Richard Sand
  */
-@Mojo(name = "obfuscate", defaultPhase = LifecyclePhase.PROCESS_CLASSES, requiresDependencyResolution = ResolutionScope.COMPILE_PLUS_RUNTIME)
+@Mojo(name = "obfuscate", defaultPhase = LifecyclePhase.PROCESS_CLASSES, requiresDependencyResolution = ResolutionScope.COMPILE_PLUS_RUNTIME, threadSafe = true)
 public final class ProguardMojo extends AbstractMojo {
     /**
      * Internal class for holding a single ProGuard command-line option
      */
     class Option {
-        private String name  = null;
-        private String value = null;
+        private String name   = null;
+        private String value  = null;
+        private File   file   = null;
+        private String filter = null;
 
         public Option() {
         }
@@ -63,6 +86,109 @@ public final class ProguardMojo extends AbstractMojo {
                 getLog().debug("Adding option: " + toString());
         }
 
+        /**
+         * Creates an option for a file, which is set directly on the ProGuard configuration instead of being parsed
+         * 
+         * @param name
+         * @param file
+         * @param filter
+         *            the filter without its parentheses, may be null
+         */
+        public Option(String name, File file, String filter) {
+            // Quoted the way returnQuotedFilename does, from the same canonical file
+            this.name = name;
+            this.file = canonicalFile(file);
+            this.filter = filter;
+            this.value = "'" + this.file.getPath() + "'" + ((filter != null) ? "(" + filter + ")" : "");
+            if (getLog().isDebugEnabled())
+                getLog().debug("Adding option: " + toString());
+        }
+
+        /**
+         * Creates an option for a file, which is set directly on the ProGuard configuration instead of being parsed
+         * 
+         * @param name
+         * @param value
+         *            the value as it is logged
+         * @param file
+         * @param filter
+         *            the filter without its parentheses, may be null
+         */
+        public Option(String name, String value, File file, String filter) {
+            this(name, value);
+            this.file = file;
+            this.filter = filter;
+        }
+
+        /**
+         * Creates a copy of an option, which can be changed without changing the original
+         * 
+         * @param option
+         */
+        public Option(Option option) {
+            this.name = option.name;
+            this.value = option.value;
+            this.file = option.file;
+            this.filter = option.filter;
+        }
+
+        /**
+         * Replaces the filter of this file option
+         * 
+         * @param filter
+         *            the filter without its parentheses
+         */
+        void setFilter(String filter) {
+            this.filter = filter;
+            this.value = returnQuotedFilename(file) + "(" + filter + ")";
+        }
+
+        /**
+         * Applies this option to the ProGuard configuration. Class path entries, output files and flags are set directly; anything else is parsed
+         * 
+         * @param builder
+         * @throws IOException
+         * @throws ParseException
+         */
+        void applyTo(ConfigurationBuilder builder) throws IOException, ParseException {
+            if (file != null && "injars".equals(name))
+                builder.addProgramJar(file, filter);
+            else if (file != null && "libraryjars".equals(name))
+                builder.addLibraryJar(file, filter);
+            else if (file != null && "outjars".equals(name))
+                builder.addOutputJar(file);
+            else if (file != null && "printmapping".equals(name))
+                builder.setPrintMapping(file);
+            else if (file != null && "printseeds".equals(name))
+                builder.setPrintSeeds(file);
+            else if (file != null && "printusage".equals(name))
+                builder.setPrintUsage(file);
+            else if (file != null && "printconfiguration".equals(name))
+                builder.setPrintConfiguration(file);
+            else if (file != null && "dump".equals(name))
+                builder.setDump(file);
+            else if (value != null || !builder.setFlag(name))
+                builder.parse(toString());
+        }
+
+        /**
+         * Returns this option with any leading file name removed from its value, so that the result does not depend on where the files are located.
+         * Filters following a quoted file name are kept
+         * 
+         * @return the portable form of this option
+         */
+        String toPortableString() {
+            if (value == null || !FILE_OPTIONS.contains(name))
+                return toString();
+            String rest = "";
+            if (value.startsWith("'")) {
+                int end = value.indexOf('\'', 1);
+                if (end > 0)
+                    rest = value.substring(end + 1);
+            }
+            return "-" + name + " " + rest;
+        }
+
         @Override
         public String toString() {
             StringBuilder builder = new StringBuilder();
@@ -134,7 +260,154 @@ public final class ProguardMojo extends AbstractMojo {
             return sb.toString();
         }
     }
-    
+
+    /**
+     * Internal class for holding the state of a single execution, so that nothing an execution builds up is kept in the mojo itself
+     */
+    static final class Execution {
+        // The ProGuard arguments list
+        final List<Option>           args                        = new ArrayList<Option>();
+
+        // The aggregate list of all input files
+        final List<File>             inputFileList               = new ArrayList<File>();
+
+        // The aggregate list of all library files
+        final List<File>             libraryFileList             = new ArrayList<File>();
+
+        // The project's artifact map
+        final Map<String, Artifact>  projectArtifactMap;
+
+        // The ProGuard include file, if one is used
+        File                         includeFile                 = null;
+
+        // The files of the artifacts resolved up front, keyed by artifact
+        Map<String, File>            resolvedArtifactFiles       = null;
+
+        List<InternalOutputArtifact> internalOutputArtifactsList = null;
+
+        // The report of the phases of this execution, if one is written
+        final PhaseReport            report;
+
+        // The incremental run of this execution, if the inputs allow one
+        IncrementalBuild             incremental                 = null;
+
+        // The stale outputs being deleted in the background, if any were moved aside
+        OutputTrash                  trash                       = null;
+
+        // The output archives built by the parallel compression stage, keyed by the staging directory ProGuard writes their contents to
+        final Map<File, File>        stagedArchives              = new LinkedHashMap<File, File>();
+
+        // The directory for the files this execution only needs while it runs, such as staged archives
+        final File                   workDirectory;
+
+        // The name of this execution in phase reports and events, that of its work directory unless it is a shard
+        String                       name;
+
+        // The names of the input files, for naming the outputs of shards
+        final Map<File, String>      inputNames                  = new HashMap<File, String>();
+
+        // The shard each input belongs to, keyed by canonical file, if the inputs are processed in shards
+        Map<File, Integer>           shardOfInput                = null;
+
+        // The library jars replaced by their stubs, keyed by canonical stub file
+        final Map<File, File>        libraryStubs                = new HashMap<File, File>();
+
+        // The variant this execution runs, or null if it runs the plug-in configuration itself
+        Variant                      variant                     = null;
+
+        // The estimated uncompressed size of the input and library classes, or -1 if not estimated yet
+        private long                 classBytes                  = -1;
+
+        Execution(Map<String, Artifact> projectArtifactMap, PhaseReport report, File workDirectory) {
+            this.projectArtifactMap = projectArtifactMap;
+            this.report = report;
+            this.workDirectory = workDirectory;
+            this.name = workDirectory.getName();
+        }
+
+        /**
+         * Starts measuring a phase, if a report is written, and recording it, if the JVM records Flight Recorder events. Both carry the name of
+         * this execution, which is the name of the variant or shard it runs
+         *
+         * @param phase
+         * @return the phase, or null
+         */
+        PhaseEvents.Phase begin(String phase) {
+            return PhaseEvents.begin(report, phase, name);
+        }
+
+        /**
+         * Starts a phase like {@link #begin(String)}, measuring its CPU time and allocations in the provided scope
+         *
+         * @param phase
+         * @param scope
+         *            {@link PhaseReport#PROCESS} for a phase that fans its work out to other threads, {@link PhaseReport#EXTERNAL} for one that runs
+         *            in another JVM
+         * @return the phase, or null
+         */
+        PhaseEvents.Phase begin(String phase, int scope) {
+            return PhaseEvents.begin(report, phase, name, scope);
+        }
+
+        /**
+         * Stops measuring a phase started by {@link #begin(String)}
+         *
+         * @param phase
+         */
+        void end(PhaseEvents.Phase phase) {
+            if (phase != null)
+                phase.end();
+        }
+
+        /**
+         * Stops measuring a phase started by {@link #begin(String)} that worked on the provided files
+         *
+         * @param phase
+         * @param files
+         */
+        void end(PhaseEvents.Phase phase, List<File> files) {
+            if (phase != null) {
+                phase.setFiles(files);
+                phase.end();
+            }
+        }
+
+        /**
+         * @return the estimated uncompressed size of the input and library classes
+         */
+        long getClassBytes() {
+            if (classBytes < 0) {
+                List<File> files = new ArrayList<File>(inputFileList);
+                files.addAll(libraryFileList);
+                classBytes = ProguardFork.estimateClassBytes(files);
+            }
+            return classBytes;
+        }
+    }
+
+    // Estimated heap needed by ProGuard for every byte of uncompressed input and library classes
+    private static final long         HEAP_PER_CLASS_BYTE = 5;
+
+    // The file in the ProGuard output directory keeping the runtime modules last selected, with the fingerprint of what they were selected for
+    private static final String       RUNTIME_MODULES_FILE = "runtime-modules.fingerprint";
+
+    // Options whose value starts with a file name
+    private static final List<String> FILE_OPTIONS        = Arrays.asList("injars", "libraryjars", "outjars", "include", "printmapping", "printseeds",
+                                                                  "printusage", "printconfiguration", "dump");
+
+    // Options whose value starts with the names of files ProGuard reads, whose contents are part of the fingerprint when they are not inputs or
+    // libraries of the plug-in itself, such as those named in an include file
+    private static final List<String> READ_FILE_OPTIONS   = Arrays.asList("include", "applymapping", "obfuscationdictionary",
+                                                                  "classobfuscationdictionary", "packageobfuscationdictionary", "injars", "libraryjars");
+
+    // An option reading files in a ProGuard configuration file, or an @ shorthand for -include, and its file names
+    private static final Pattern      READ_FILE_OPTION    = Pattern.compile("(?:^|\\s)(?:-(include|applymapping|obfuscationdictionary|"
+                                                                  + "classobfuscationdictionary|packageobfuscationdictionary|injars|libraryjars)\\s+|@\\s*)"
+                                                                  + "(?!-)((?:'[^']*'|\"[^\"]*\"|[^\\s'\"])+)");
+
+    // The options naming a report file, which every shard writes on its own to be merged afterwards
+    private static final List<String> REPORT_OPTIONS      = Arrays.asList("printmapping", "printseeds", "printusage", "printconfiguration", "dump");
+
     // ////////////////////////////////////////////////////
     // CONFIG AND CONTROL PARAMETERS
     // ////////////////////////////////////////////////////
@@ -211,6 +484,29 @@ public final class ProguardMojo extends AbstractMojo {
     @Parameter(defaultValue = "false")
     private boolean                 dontwarn                     = false;
 
+    /**
+     * Skips ProGuard processing when none of its inputs have changed since the last successful run. A fingerprint of the input files, the library jars,
+     * the include file and the generated ProGuard options is kept in <em>proguardOutputDirectory</em>, along with the files the options and included
+     * files read, such as a mapping to apply or an obfuscation dictionary; if it matches and all of the outputs still exist, the existing outputs
+     * are reused and attached as usual. The check is never applied when an output overwrites one of the inputs. Defaults to true.
+     */
+    @Parameter(defaultValue = "true", property = "proguard.uptodatecheck")
+    private boolean                 upToDateCheck                = true;
+
+    /**
+     * Directory of a build cache shared between builds, e.g. on a network volume used by several CI agents. When set, the outputs, mapping file and
+     * seeds file of every run are stored there under a hash of the input contents, the library contents and the generated ProGuard options, and are
+     * restored from there instead of running ProGuard when a matching entry exists. Not set by default.
+     */
+    @Parameter(property = "proguard.buildcache.directory")
+    private File                    buildCacheDirectory;
+
+    /**
+     * Maximum size in bytes of the <em>buildCacheDirectory</em>. The least recently used entries are evicted once it is exceeded. Defaults to 10 GiB.
+     */
+    @Parameter(defaultValue = "10737418240", property = "proguard.buildcache.maxsize")
+    private long                    buildCacheMaxSize            = 10737418240L;
+
     // ////////////////////////////////////////////////////
     // LIBRARY PARAMETERS
     // ////////////////////////////////////////////////////
@@ -244,13 +540,249 @@ public final class ProguardMojo extends AbstractMojo {
     private boolean                 includeDependencies          = true;
 
     /**
-     * Automatically adds the java runtime jar <code>${java.home}/lib/rt.jar</code> to the ProGuard <em>libraryjars</em>. Defaults to true.
+     * Automatically adds the java runtime jar <code>${java.home}/lib/rt.jar</code> to the ProGuard <em>libraryjars</em>. On Java 9 and later, which
+     * have no runtime jar, the runtime modules that the input classes need are added instead: <code>java.base</code>, the modules of the packages
+     * referenced by the input classes and by the supertypes and member signatures of the library classes they use, and the modules these require. The
+     * selection is kept in <em>proguardOutputDirectory</em> and only made again when the runtime, the inputs or the libraries change. Modules are
+     * read from <code>${java.home}/jmods</code>, or extracted from the runtime image into <em>jdkModuleDirectory</em> if there is no such directory.
+     * Reading modules requires a ProGuard version that supports Java 9 class files, set as a dependency of the plug-in. Defaults to true.
      */
     @Parameter(defaultValue = "true")
     private boolean                 includeJreRuntimeJar         = true;
     @Parameter(defaultValue = "${java.home}/lib/rt.jar", readonly = true)
     private String                  includedJreRuntimeJar;
 
+    /**
+     * Where ProGuard runs: <code>never</code> runs it inside the Maven JVM, <code>always</code> runs it in a child JVM configured by <em>forkMaxMemory</em>,
+     * <em>forkGarbageCollector</em> and <em>forkJvmArgs</em>, and <code>auto</code> forks only if the uncompressed size of the input and library classes
+     * exceeds <em>forkThreshold</em>. The output of the child JVM is passed on to the Maven log. Defaults to never.
+     */
+    @Parameter(defaultValue = "never", property = "proguard.fork")
+    private String                  fork                         = "never";
+
+    /**
+     * Maximum heap size of the forked ProGuard JVM, such as <code>4g</code>. Defaults to the JVM default.
+     */
+    @Parameter(property = "proguard.fork.maxmemory")
+    private String                  forkMaxMemory;
+
+    /**
+     * Garbage collector of the forked ProGuard JVM, such as <code>G1</code>, <code>Parallel</code> or <code>Serial</code>. Defaults to the JVM default.
+     */
+    @Parameter(property = "proguard.fork.gc")
+    private String                  forkGarbageCollector;
+
+    /**
+     * Additional arguments for the forked ProGuard JVM
+     */
+    @Parameter
+    private List<String>            forkJvmArgs;
+
+    /**
+     * Uncompressed size in bytes of the input and library classes above which ProGuard is forked when <em>fork</em> is <code>auto</code>. Defaults to
+     * 268435456 (256 MB).
+     */
+    @Parameter(defaultValue = "268435456", property = "proguard.fork.threshold")
+    private long                    forkThreshold                = 268435456L;
+
+    /**
+     * Whether to run ProGuard in a background JVM that stays running between builds, so later builds skip the JVM startup and warm-up and reuse the
+     * library classes it has already parsed. The daemon JVM is configured by <em>forkMaxMemory</em>, <em>forkGarbageCollector</em> and
+     * <em>forkJvmArgs</em>, and is restarted when these or the plug-in version change. Takes precedence over <em>fork</em>. Defaults to false.
+     */
+    @Parameter(defaultValue = "false", property = "proguard.daemon")
+    private boolean                 daemon                       = false;
+
+    /**
+     * Number of seconds without requests after which the ProGuard daemon stops. Defaults to 3600.
+     */
+    @Parameter(defaultValue = "3600", property = "proguard.daemon.idletimeout")
+    private int                     daemonIdleTimeout            = 3600;
+
+    /**
+     * Directory for the state and log files of the ProGuard daemon. Defaults to <code>${user.home}/.m2/proguard/daemon</code>.
+     */
+    @Parameter(defaultValue = "${user.home}/.m2/proguard/daemon", property = "proguard.daemon.directory")
+    private File                    daemonDirectory;
+
+    @Parameter(defaultValue = "${plugin.version}", readonly = true)
+    private String                  pluginVersion;
+
+    /**
+     * Maximum number of threads used to resolve the <em>inputArtifacts</em>, <em>libraryArtifacts</em> and dependencies. All of them are resolved up
+     * front, split into one batch per thread. Defaults to 4.
+     */
+    @Parameter(defaultValue = "4", property = "proguard.resolution.threads")
+    private int                     resolutionThreads            = 4;
+
+    /**
+     * Heap in bytes that the ProGuard runs inside the Maven JVM may need together. In parallel builds, a run waits while the runs already in progress
+     * would leave too little of the budget for it; a run that needs more than the whole budget runs on its own. The heap a run needs is estimated from
+     * the uncompressed size of its input and library classes. Runs in a forked JVM or the daemon are not counted. Defaults to three quarters of the
+     * maximum heap of the Maven JVM.
+     */
+    @Parameter(defaultValue = "0", property = "proguard.heapbudget")
+    private long                    heapBudget                   = 0;
+
+    /**
+     * Directory for the Java runtime modules extracted by <em>includeJreRuntimeJar</em> from runtime images without a <code>jmods</code> directory.
+     * Defaults to <code>${user.home}/.m2/proguard/jdk-modules</code>.
+     */
+    @Parameter(defaultValue = "${user.home}/.m2/proguard/jdk-modules", property = "proguard.jdkmodule.directory")
+    private File                    jdkModuleDirectory;
+
+    /**
+     * Scans the input classes before running ProGuard and passes it only the library classes they reference, directly or as supertypes of referenced
+     * classes. Each <em>libraryjars</em> entry added by the plug-in gets a class filter, libraries that provide no referenced class are left out, and
+     * unused dependencies are reported. This reduces memory use and library loading time for large dependency trees. Library classes that are only
+     * named in the ProGuard configuration are not seen by the scan. Defaults to false.
+     */
+    @Parameter(defaultValue = "false", property = "proguard.prunelibraries")
+    private boolean                 pruneLibraries               = false;
+
+    /**
+     * Re-processes only the classes that changed since the last run when <em>inputFile</em> is a classes directory, such as
+     * <code>${project.build.outputDirectory}</code>, and the single output artifact is a directory. The changed classes and the classes that refer to
+     * them are processed again with the mapping of the last run applied, so that names stay stable, and all other outputs are kept. This requires
+     * <em>shrink</em> to be false and <em>dontoptimize</em> among the <em>options</em>, since shrinking and optimization depend on the whole program.
+     * New classes with obfuscation, changed options or libraries, and changes affecting most classes lead to a full run. The seeds and other reports
+     * of an incremental run only cover the processed classes. Defaults to false.
+     */
+    @Parameter(defaultValue = "false", property = "proguard.incremental")
+    private boolean                 incremental                  = false;
+
+    /**
+     * Compresses the output archives on several threads instead of letting ProGuard deflate every entry in turn. ProGuard then writes each jar, war,
+     * ear or zip output unpacked to a staging directory under <em>proguardOutputDirectory</em>, reading any input archives from staged copies of
+     * their contents, and the plug-in builds the archive from the staging directory and moves it into place atomically. Nested archives are kept as
+     * they are. Staging adds file system work, so this pays off for large outputs on machines with several cores. Obfuscated class names may differ
+     * only in case, which a case-insensitive file system cannot hold, so an obfuscating run needs <code>-dontusemixedcaseclassnames</code>; otherwise
+     * ProGuard compresses the archives itself. Defaults to false.
+     */
+    @Parameter(defaultValue = "false", property = "proguard.parallelcompression")
+    private boolean                 parallelCompression          = false;
+
+    /**
+     * The deflate level used when <em>parallelCompression</em> is true, from 0, which stores every entry, to 9. Defaults to 6.
+     */
+    @Parameter(defaultValue = "6", property = "proguard.compressionlevel")
+    private int                     compressionLevel             = 6;
+
+    /**
+     * The number of threads compressing entries, and extracting the input archives to the staging directory, when <em>parallelCompression</em> is
+     * true. Defaults to 0, meaning one per available processor.
+     */
+    @Parameter(defaultValue = "0", property = "proguard.compressionthreads")
+    private int                     compressionThreads           = 0;
+
+    /**
+     * Comma separated file name extensions of entries that are stored without compression when <em>parallelCompression</em> is true, because their
+     * contents are already compressed. Entries that deflating would not make smaller are stored as well.
+     */
+    @Parameter(defaultValue = "jar,war,ear,zip,jmod,gz,tgz,bz2,xz,7z,png,jpg,jpeg,gif,webp,woff,woff2,mp3,mp4", property = "proguard.storedextensions")
+    private String                  storedExtensions             = "jar,war,ear,zip,jmod,gz,tgz,bz2,xz,7z,png,jpg,jpeg,gif,webp,woff,woff2,mp3,mp4";
+
+    /**
+     * Makes the output archives and the mapping file the same, byte for byte, for the same inputs and configuration, so that the steps and caches
+     * consuming them see no change. The output archives are staged and built by the plug-in as with <em>parallelCompression</em>, with their entries
+     * in the order of their names, all dated <em>outputTimestamp</em> and without file system permissions, and the classes of the mapping file are
+     * sorted by their original names. An output archive, mapping file or mapping index whose contents are the same as those of the previous run is
+     * left in place with its modification time. An obfuscating run without <code>-dontusemixedcaseclassnames</code> is not staged in directories:
+     * ProGuard writes each archive, which the plug-in then rebuilds the same way. Output directories are written by ProGuard as they are. Defaults to
+     * false.
+     */
+    @Parameter(defaultValue = "false", property = "proguard.reproducible")
+    private boolean                 reproducible                 = false;
+
+    /**
+     * The time the entries of the output archives are dated when <em>reproducible</em> is true, as an ISO 8601 date and time such as
+     * <code>2024-01-01T00:00:00Z</code> or as seconds since the epoch. Defaults to <code>${project.build.outputTimestamp}</code>, the property the
+     * Maven archiver uses for reproducible builds, or to 1980-01-01T00:00:00Z if it is not set.
+     */
+    @Parameter(defaultValue = "${project.build.outputTimestamp}", property = "proguard.outputtimestamp")
+    private String                  outputTimestamp;
+
+    /**
+     * Splits the inputs into groups that neither reference each other's classes nor share a package, and processes each group in a ProGuard run of
+     * its own, several at a time, with the same libraries and options. The group of <em>inputFile</em> is written to the output artifact, and every
+     * other group to an artifact whose classifier is that of the output artifact followed by the name of the group's first input, such as
+     * <code>small-bundle-a</code>. The mappings of the groups are merged into <em>printMappingFile</em>, their seeds into <em>printSeedsFile</em>
+     * and their other reports likewise. Each group is obfuscated on its own, and since no two groups share a package, no two obfuscated classes
+     * get the same name, as long as the package names are kept: obfuscating runs need a <code>-keeppackagenames</code> option that keeps every
+     * package of the inputs. This also needs a single output artifact and options that neither repackage classes nor flatten the package hierarchy,
+     * and does nothing if all inputs end up in one group; the log tells why. Defaults to false.
+     */
+    @Parameter(defaultValue = "false", property = "proguard.shard")
+    private boolean                 shard                        = false;
+
+    /**
+     * The number of groups processed at the same time when <em>shard</em> is true. Runs in process also wait for their share of the heap budget and
+     * obfuscate one group at a time, since the name generation of ProGuard is not thread-safe, and runs in the <em>daemon</em> are always
+     * processed one at a time. Defaults to 0, meaning one per available processor.
+     */
+    @Parameter(defaultValue = "0", property = "proguard.shardthreads")
+    private int                     shardThreads                 = 0;
+
+    /**
+     * Differently configured ProGuard runs over the same inputs and libraries, such as a fully obfuscated build and a shrink-only debug build. Each
+     * variant has a <em>name</em> and can set its own <em>options</em>, <em>proguardIncludeFile</em>, <em>obfuscate</em>, <em>shrink</em> and
+     * <em>outputArtifacts</em>, taking any of the first four it leaves out from the plug-in configuration. A variant without output artifacts gets a
+     * single default one with its name as the classifier. The artifacts are resolved once for all variants, which then run in parallel, and each
+     * variant writes its mapping and other ProGuard files to a directory named after it under <em>proguardOutputDirectory</em>. Each variant reads
+     * the libraries itself unless <em>libraryCache</em> or <em>sharedLibraryPoolMaxClasses</em> lets them share the parsed classes.
+     * Its mapping and seeds are attached with its name as the classifier, and its mapping index with <em>printMappingIndexClassifier</em> followed by
+     * its name. When variants are configured, the plug-in configuration itself is not run on its own. No two variants can write the same output
+     * file, and no variant can write to one of its inputs.
+     */
+    @Parameter
+    private List<Variant>           variants;
+
+    /**
+     * The number of variants processed at the same time. Runs in process also wait for their share of the heap budget and obfuscate one variant
+     * at a time, since the name generation of ProGuard is not thread-safe, and runs in the <em>daemon</em> are always processed one at a time.
+     * Defaults to 0, meaning one per available processor.
+     */
+    @Parameter(defaultValue = "0", property = "proguard.variantthreads")
+    private int                     variantThreads               = 0;
+
+    /**
+     * Keeps a pre-parsed copy of every library jar in <em>libraryCacheDirectory</em>, keyed by the content hash of the jar, and loads the library classes
+     * from there on later runs instead of parsing the jars again. Only jars whose content has changed are parsed. This needs ProGuard 4.9, the
+     * version the plug-in depends on. Defaults to false.
+     */
+    @Parameter(defaultValue = "false", property = "proguard.librarycache")
+    private boolean                 libraryCache                 = false;
+
+    /**
+     * Directory for the pre-parsed library jars used by <em>libraryCache</em>. Defaults to <code>${user.home}/.m2/proguard/library-cache</code>.
+     */
+    @Parameter(defaultValue = "${user.home}/.m2/proguard/library-cache", property = "proguard.librarycache.directory")
+    private File                    libraryCacheDirectory;
+
+    /**
+     * Maximum number of parsed library classes kept in memory and shared between the executions of this plugin in the same Maven session, so that the
+     * modules of a reactor build do not each parse the same runtime jar and dependencies again. Unused classes are released when heap runs short. A
+     * value such as 500000 covers the runtime jar and the dependencies of most reactors. This needs ProGuard 4.9, the version the plug-in depends on.
+     * Defaults to 0, which disables sharing.
+     */
+    @Parameter(defaultValue = "0", property = "proguard.sharedlibrarypool.maxclasses")
+    private int                     sharedLibraryPoolMaxClasses  = 0;
+
+    /**
+     * Passes ProGuard API stubs of the library jars instead of the jars themselves. A stub keeps the classes with their fields, methods, signatures
+     * and annotations, and leaves out the code, debugging information and resources that ProGuard does not need from a library, so that it reads
+     * and holds far fewer bytes. Stubs are generated once per library and kept in <em>libraryStubDirectory</em>, named after the library and the
+     * SHA-1 of the jar. Jars with nested archives and Java runtime modules are passed as they are. Defaults to false.
+     */
+    @Parameter(defaultValue = "false", property = "proguard.stublibraries")
+    private boolean                 stubLibraries                = false;
+
+    /**
+     * Directory for the library stubs generated by <em>stubLibraries</em>. Defaults to <code>${user.home}/.m2/proguard/library-stubs</code>.
+     */
+    @Parameter(defaultValue = "${user.home}/.m2/proguard/library-stubs", property = "proguard.stublibraries.directory")
+    private File                    libraryStubDirectory;
+
     // ////////////////////////////////////////////////////
     // INPUT PARAMETERS
     // ////////////////////////////////////////////////////
@@ -361,6 +893,21 @@ public final class ProguardMojo extends AbstractMojo {
     @Parameter(defaultValue = "true")
     private boolean                 printMappingAttachAsArtifact = true;
 
+    /**
+     * Indicates whether a binary index of the <em>printmapping</em> file should be written next to it, with the extension <em>.idx</em> added. The
+     * index can be memory-mapped with {@link MappingIndex} to look up obfuscated class and member names without parsing the whole mapping. Defaults
+     * to false.
+     */
+    @Parameter(defaultValue = "false", property = "proguard.mappingindex")
+    private boolean                 printMappingIndex            = false;
+
+    /**
+     * Classifier of the attached mapping index, which is attached whenever the <em>printmapping</em> file is. Defaults to
+     * <em>proguard-mapping-index</em>
+     */
+    @Parameter(defaultValue = "proguard-mapping-index")
+    private String                  printMappingIndexClassifier  = "proguard-mapping-index";
+
     /**
      * Indicates whether <em>printseeds</em> should be specified. Defaults to false.
      */
@@ -379,6 +926,102 @@ public final class ProguardMojo extends AbstractMojo {
     @Parameter(defaultValue = "false")
     private boolean                 printSeedsAttachAsArtifact   = false;
 
+    /**
+     * Indicates whether <em>printusage</em> should be specified, to list the classes and class members removed by shrinking. Nothing is listed when
+     * <em>shrink</em> is false. Defaults to false.
+     */
+    @Parameter(defaultValue = "false", property = "proguard.printusage")
+    private boolean                 printUsage                   = false;
+
+    /**
+     * Filename to use with <em>printusage</em>. The report is compressed with gzip if the name ends with <em>.gz</em>. Defaults to
+     * <em>proguard-usage.txt.gz</em>
+     */
+    @Parameter(defaultValue = "proguard-usage.txt.gz")
+    private String                  printUsageFile               = "proguard-usage.txt.gz";
+
+    /**
+     * Classifier of the attached <em>printusage</em> file, followed by the name of the variant for a variant. Defaults to <em>proguard-usage</em>
+     */
+    @Parameter(defaultValue = "proguard-usage")
+    private String                  printUsageClassifier         = "proguard-usage";
+
+    /**
+     * Indicates whether <em>printconfiguration</em> should be specified, to write the complete configuration ProGuard runs with, including the
+     * include file and the options generated by the plug-in. Defaults to false.
+     */
+    @Parameter(defaultValue = "false", property = "proguard.printconfiguration")
+    private boolean                 printConfiguration           = false;
+
+    /**
+     * Filename to use with <em>printconfiguration</em>. The report is compressed with gzip if the name ends with <em>.gz</em>. Defaults to
+     * <em>proguard-configuration.pro.gz</em>
+     */
+    @Parameter(defaultValue = "proguard-configuration.pro.gz")
+    private String                  printConfigurationFile       = "proguard-configuration.pro.gz";
+
+    /**
+     * Classifier of the attached <em>printconfiguration</em> file, followed by the name of the variant for a variant. Defaults to
+     * <em>proguard-configuration</em>
+     */
+    @Parameter(defaultValue = "proguard-configuration")
+    private String                  printConfigurationClassifier = "proguard-configuration";
+
+    /**
+     * Indicates whether <em>dump</em> should be specified, to write the internal structure of the processed classes. Defaults to false.
+     */
+    @Parameter(defaultValue = "false", property = "proguard.dump")
+    private boolean                 dump                         = false;
+
+    /**
+     * Filename to use with <em>dump</em>. The report is compressed with gzip if the name ends with <em>.gz</em>. Defaults to
+     * <em>proguard-dump.txt.gz</em>
+     */
+    @Parameter(defaultValue = "proguard-dump.txt.gz")
+    private String                  dumpFile                     = "proguard-dump.txt.gz";
+
+    /**
+     * Classifier of the attached <em>dump</em> file, followed by the name of the variant for a variant. Defaults to <em>proguard-dump</em>
+     */
+    @Parameter(defaultValue = "proguard-dump")
+    private String                  dumpClassifier               = "proguard-dump";
+
+    /**
+     * Indicates whether the <em>printusage</em>, <em>printconfiguration</em> and <em>dump</em> files should be attached to the project as
+     * artifacts, of the type given by their file extension. Defaults to true.
+     */
+    @Parameter(defaultValue = "true")
+    private boolean                 reportsAttachAsArtifacts     = true;
+
+    /**
+     * Indicates whether to write a JSON report of the wall time, CPU time, allocated bytes and peak heap of each phase of the execution, from the
+     * artifact resolution to each ProGuard processing step, together with the number of input, library and output classes. The phases and class
+     * counts of variants and shards carry their names. The processing steps and class counts are only recorded when ProGuard 4.9 runs inside the
+     * Maven JVM; other versions are recorded as a single step. Phases that run on several threads report the CPU time of the whole Maven JVM and no
+     * allocations, and phases run in a forked JVM or the daemon report neither. Defaults to false.
+     */
+    @Parameter(defaultValue = "false", property = "proguard.phasereport")
+    private boolean                 phaseReport                  = false;
+
+    /**
+     * Filename of the phase report, relative to <em>proguardOutputDirectory</em>. Defaults to <em>proguard-phases.json</em>
+     */
+    @Parameter(defaultValue = "proguard-phases.json", property = "proguard.phasereport.file")
+    private String                  phaseReportFile              = "proguard-phases.json";
+
+    /**
+     * Indicates whether the phase report should be attached to the project as an artifact, with the classifier <em>phaseReportClassifier</em>.
+     * Defaults to false.
+     */
+    @Parameter(defaultValue = "false")
+    private boolean                 phaseReportAttachAsArtifact  = false;
+
+    /**
+     * Classifier of the attached phase report. Defaults to <em>proguard-phases</em>
+     */
+    @Parameter(defaultValue = "proguard-phases")
+    private String                  phaseReportClassifier        = "proguard-phases";
+
     // ////////////////////////////////////////////////////
     // MAVEN PARAMETERS
     // ////////////////////////////////////////////////////
@@ -425,22 +1068,11 @@ public final class ProguardMojo extends AbstractMojo {
     // Other instance variables
     // //
 
-    // The ProGuard arguments list
-    private List<Option>            args                         = null;
-
-    // The project's artifact map
-    private Map<String, Artifact>   projectArtifactMap           = null;
-
     // Plugin logger
     Log                             log                          = getLog();
 
-    // The aggregate list of all input files
-    List<File>                      inputFileList                = null;
-
-    // The aggregate list of all output files
-    List<File>                      outputFileList               = null;
-
-    List<InternalOutputArtifact>    internalOutputArtifactsList  = null;
+    // Library stubs and their digest index, created on the first library when stubLibraries is set
+    private LibraryStubs            stubs                        = null;
 
     /**
      * Simple utility method to enclose a filename in single quotes. This returns the canonical name of the file as a qutoed String. According to the ProGuard
@@ -451,10 +1083,20 @@ public final class ProguardMojo extends AbstractMojo {
      * @return the canonical or absolute filename as a String enclosed in single quotes
      */
     protected static final String returnQuotedFilename(File file) {
+        return "'" + canonicalFile(file).getPath() + "'";
+    }
+
+    /**
+     * Returns the canonical form of the provided file, or its absolute form if the canonical one cannot be determined
+     * 
+     * @param file
+     * @return the canonical or absolute file
+     */
+    static File canonicalFile(File file) {
         try {
-            return "'" + file.getCanonicalPath() + "'";
+            return file.getCanonicalFile();
         } catch (IOException e) {
-            return "'" + file.getAbsolutePath() + "'";
+            return file.getAbsoluteFile();
         }
     }
 
@@ -464,7 +1106,7 @@ public final class ProguardMojo extends AbstractMojo {
      * @throws MojoFailureException
      * @throws MojoExecutionException
      */
-    private void prepareInputs() throws MojoFailureException, MojoExecutionException {
+    void prepareInputs(Execution run) throws MojoFailureException, MojoExecutionException {
         log.info("Preparing ProGuard input parameters");
 
         // Make sure we have a proper input file
@@ -481,9 +1123,9 @@ public final class ProguardMojo extends AbstractMojo {
 
         // Process main inputFile
         if (inJarFile.exists()) {
-            StringBuffer filter = new StringBuffer(returnQuotedFilename(inJarFile));
+            StringBuffer filter = null;
             if (excludeManifests || excludeMavenDescriptor || (inputFileFilter != null)) {
-                filter.append("(");
+                filter = new StringBuffer();
                 if (excludeManifests)
                     filter.append("!META-INF/MANIFEST.MF");
                 if (excludeMavenDescriptor) {
@@ -496,11 +1138,11 @@ public final class ProguardMojo extends AbstractMojo {
                         filter.append(',');
                     filter.append(inputFileFilter);
                 }
-                filter.append(")");
             }
-            args.add(new Option("injars", filter.toString()));
-            inputFileList.add(inJarFile);
-            log.info("Primary input: " + filter);
+            Option option = new Option("injars", inJarFile, (filter != null) ? filter.toString() : null);
+            run.args.add(option);
+            run.inputFileList.add(inJarFile);
+            log.info("Primary input: " + option.value);
         } else
             log.warn("Input does not exist: " + inJarFile);
 
@@ -508,19 +1150,22 @@ public final class ProguardMojo extends AbstractMojo {
         if (inputArtifacts != null) {
             for (String str : inputArtifacts) {
                 log.debug("Looking for input artifact: " + str);
-                Artifact artifact = projectArtifactMap.get(str);
+                Artifact artifact = run.projectArtifactMap.get(str);
                 if (artifact == null)
                     throw new MojoExecutionException("No artifact was found matching " + str + ", please update your project dependencies");
-                File f = getFileForArtifact(artifact);
-                inputFileList.add(f);
-                addInputJar(f.getAbsolutePath());
+                File f = getFileForArtifact(run, artifact);
+                run.inputFileList.add(f);
+                run.inputNames.put(f, artifact.getArtifactId() + ((artifact.getClassifier() != null) ? "-" + artifact.getClassifier() : ""));
+                addInputJar(run, f.getAbsolutePath());
             }
         }
 
         // Process additional input paths
         if (inputJarPaths != null) {
-            for (String next : inputJarPaths)
-                addInputJar(next);
+            for (String next : inputJarPaths) {
+                run.inputFileList.add(resolveAbsoluteFile(next, buildDirectory));
+                addInputJar(run, next);
+            }
         }
     }
 
@@ -529,7 +1174,7 @@ public final class ProguardMojo extends AbstractMojo {
      * 
      * @throws MojoExecutionException
      */
-    private void prepareLibraries() throws MojoExecutionException {
+    void prepareLibraries(Execution run) throws MojoExecutionException {
         log.info("Preparing ProGuard library parameters");
 
         // More sanity checks - make sure any excluded libraryjar definition is in fact a dependency
@@ -554,223 +1199,1706 @@ public final class ProguardMojo extends AbstractMojo {
         if (includeDependencies) {
             for (Artifact artifact : mavenProject.getArtifacts()) {
                 log.debug("Processing dependency " + artifact.getId());
-                if (inputArtifacts != null && inputArtifacts.contains(artifact.getGroupId() + ":" + artifact.getArtifactId())) {
+                if (isInputArtifact(artifact)) {
                     log.info("Skipping " + artifact.getId() + " as a libraryjar since it is already an included dependency");
                     continue;
                 }
 
-                // TODO classifier?
-                if ((excludeLibraryArtifacts != null) && (excludeLibraryArtifacts.contains(artifact.getGroupId() + ":" + artifact.getArtifactId() + ":" + artifact.getBaseVersion()))) {
+                if (isExcludedLibraryArtifact(artifact)) {
                     log.info("Skipping " + excludeLibraryArtifacts + " as a libraryjar since it is on the exclude list");
                     continue;
                 }
 
                 log.info("Adding dependent library: " + artifact.getId());
-                File file = getFileForArtifact(artifact);
-                args.add(new Option("libraryjars", returnQuotedFilename(file)));
+                addLibrary(run, getFileForArtifact(run, artifact), artifact.getGroupId() + "." + artifact.getArtifactId() + "-" + artifact.getBaseVersion()
+                        + ((artifact.getClassifier() != null) ? "-" + artifact.getClassifier() : ""));
             }
         }
 
         // Process additional libraryJar paths
         if (libraryJarPaths != null) {
-            for (String nextLibJar : libraryJarPaths) {
-                String path = returnQuotedFilename(new File(nextLibJar));
-                args.add(new Option("libraryjars", path));
-            }
+            for (String nextLibJar : libraryJarPaths)
+                addLibrary(run, new File(nextLibJar), FilenameUtils.getBaseName(nextLibJar));
         }
 
         // Process additional artifactLibraryJars
         if (libraryArtifacts != null) {
-            for (String nextArtifactLibraryJar : libraryArtifacts) {
-                File artifactFile = getFileForArtifact(nextArtifactLibraryJar);
-                String path = returnQuotedFilename(artifactFile);
-                args.add(new Option("libraryjars", path));
-            }
+            for (String nextArtifactLibraryJar : libraryArtifacts)
+                addLibrary(run, getFileForArtifact(run, nextArtifactLibraryJar), nextArtifactLibraryJar.replace(':', '.'));
         }
 
-        // Process the default java runtime jar
+        // Process the default java runtime jar, or the runtime modules if there is none
         if (includeJreRuntimeJar) {
-            String path = returnQuotedFilename(new File(includedJreRuntimeJar));
-            log.info("Using default runtime jar: " + path);
-            args.add(new Option("libraryjars", path));
+            if (new File(includedJreRuntimeJar).exists() || !JdkRuntime.isModular()) {
+                String path = returnQuotedFilename(new File(includedJreRuntimeJar));
+                log.info("Using default runtime jar: " + path);
+                addLibrary(run, new File(includedJreRuntimeJar), "java-runtime-" + System.getProperty("java.version"));
+            } else
+                prepareRuntimeModules(run);
         }
     }
 
     /**
-     * Prepare other ProGuard options
+     * Adds a library jar as a ProGuard <em>libraryjars</em> entry, or its stub if <em>stubLibraries</em> is set
+     * 
+     * @param run
+     * @param file
+     * @param name
+     *            a name for the library, such as its artifact coordinates, used in the name of the stub file
      */
-    private void prepareOtherOptions() {
-        // Add include file if specified
-        if (ignoreIncludeFile)
-            log.info("Ignoring includeFile");
-        else if (proguardIncludeFile != null) {
-            File pgIncludeFile = resolveAbsoluteFile(proguardIncludeFile, buildDirectory);
-            if (pgIncludeFile.exists() && pgIncludeFile.canRead()) {
-                log.info("Including proguardInclude file: " + pgIncludeFile.getAbsolutePath());
-                args.add(new Option("include", returnQuotedFilename(pgIncludeFile)));
-            } else {
-                log.info("proguardIncludeFile could not be read: " + proguardIncludeFile);
-            }
-        }
-
-        // Obfuscate option
-        if (!obfuscate)
-            args.add(new Option("dontobfuscate"));
-
-        // Shrink option
-        if (!shrink)
-            args.add(new Option("dontshrink"));
-
-        // DontWarn option
-        if (dontwarn)
-            args.add(new Option("dontwarn"));
-
-        // PrintMapping options
-        if (printMapping)
-            args.add(new Option("printmapping", returnQuotedFilename(resolveAbsoluteFile(printMappingFile, proguardOutputDirectory))));
-
-        // PrintSeeds options
-        if (printSeeds)
-            args.add(new Option("printseeds", returnQuotedFilename(resolveAbsoluteFile(printSeedsFile, proguardOutputDirectory))));
-
-        // Propagate loglevel
-        if (log.isDebugEnabled())
-            args.add(new Option("verbose"));
-
-        // Pass along other miscellaneous options
-        if (options != null) {
-            for (String key : options.keySet())
-                args.add(new Option(key, options.get(key)));
+    private void addLibrary(Execution run, File file, String name) {
+        if (stubLibraries) {
+            if (stubs == null)
+                stubs = new LibraryStubs(libraryStubDirectory, log);
+            File stub = stubs.getStub(file, name);
+            if (!stub.equals(file))
+                run.libraryStubs.put(canonicalFile(stub), file);
+            file = stub;
         }
+        run.libraryFileList.add(file);
+        run.args.add(new Option("libraryjars", file, null));
     }
 
     /**
-     * Prepare the ProGuard output area and parameters
+     * Adds the Java runtime modules needed by the input classes, and by the library classes they use, as ProGuard <em>libraryjars</em>
      * 
-     * @throws MojoFailureException
      * @throws MojoExecutionException
      */
-    private void prepareOutput() throws MojoFailureException, MojoExecutionException {
-        // Make sure ProGuard output folder exists
-        if (!proguardOutputDirectory.exists()) {
-            log.debug("Creating output directory " + proguardOutputDirectory);
-            if (!proguardOutputDirectory.mkdir())
-                throw new MojoExecutionException("Failed to create output directory: " + proguardOutputDirectory);
-        }
-        if (!proguardOutputDirectory.isDirectory() || !proguardOutputDirectory.canWrite())
-            throw new MojoExecutionException("Output directory cannot be written to: " + proguardOutputDirectory);
-
-        // Create the internal OutputArtifacts list from the plugin parameter
-        internalOutputArtifactsList = new ArrayList<InternalOutputArtifact>();
-        if (outputArtifacts != null)
-            for (OutputArtifact data : outputArtifacts)
-                internalOutputArtifactsList.add(new InternalOutputArtifact(data));
+    private void prepareRuntimeModules(Execution run) throws MojoExecutionException {
+        if (ProguardRunner.getProguardVersion().matches("ProGuard, version [1-5]\\..*"))
+            log.warn(ProguardRunner.getProguardVersion() + " cannot read the class files of Java runtime modules; add a newer net.sf.proguard:proguard-base as a dependency of the plug-in");
 
-        // Use the default output artifact if no outputs are provided
-        if (internalOutputArtifactsList.size() == 0) {
-            InternalOutputArtifact o = new InternalOutputArtifact();
-            internalOutputArtifactsList.add(o);
-            log.info("No output artifacts were specified, so setting output file to " + o.getFile());
+        try {
+            // Selecting the modules scans every input and library class, so the selection is kept until the runtime, inputs or libraries change,
+            // which the file digests cached by the fingerprint tell without reading the files again
+            File selectionFile = new File(proguardOutputDirectory, RUNTIME_MODULES_FILE);
+            BuildFingerprint previous = BuildFingerprint.load(selectionFile);
+            BuildFingerprint selection = new BuildFingerprint(previous);
+            selection.addString("runtime", System.getProperty("java.home") + "\n" + System.getProperty("java.runtime.version"));
+            for (File f : run.inputFileList)
+                selection.addFile("input", f);
+            for (File f : run.libraryFileList)
+                selection.addFile("library", f);
+
+            JdkRuntime runtime = new JdkRuntime(new File(System.getProperty("java.home")), jdkModuleDirectory, log);
+            Set<String> modules = new TreeSet<String>();
+            if (previous != null && previous.getValue("modules") != null && selection.describeChanges(previous).isEmpty()) {
+                log.debug("Reusing the runtime modules selected for the same runtime, inputs and libraries");
+                modules.addAll(Arrays.asList(previous.getValue("modules").split(",")));
+            } else {
+                // The library classes the inputs need can need runtime modules of their own, through their supertypes and signatures
+                Set<String> referenced = new LibraryPruner(log).closeReferences(run.inputFileList, run.libraryFileList);
+                modules.addAll(runtime.selectModules(referenced));
+            }
+            StringBuilder sb = new StringBuilder();
+            for (String module : modules)
+                sb.append((sb.length() > 0) ? "," : "").append(module);
+            selection.setValue("modules", sb.toString());
+            try {
+                proguardOutputDirectory.mkdirs();
+                selection.store(selectionFile);
+            } catch (IOException e) {
+                log.warn("Could not store the selected runtime modules in " + selectionFile + ": " + e.getMessage());
+            }
+            log.info("Using runtime modules: " + modules);
+            for (String module : modules) {
+                File file = runtime.getModuleFile(module);
+                run.libraryFileList.add(file);
+                run.args.add(new Option("libraryjars", file, file.getName().endsWith(".jmod") ? JdkRuntime.JMOD_FILTER : null));
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to determine the Java runtime modules", e);
+        }
+    }
+
+    /**
+     * @param artifact
+     * @return true if the provided dependency is one of the <em>inputArtifacts</em>
+     */
+    private boolean isInputArtifact(Artifact artifact) {
+        return inputArtifacts != null && inputArtifacts.contains(artifact.getGroupId() + ":" + artifact.getArtifactId());
+    }
+
+    /**
+     * @param artifact
+     * @return true if the provided dependency is on the <em>excludeLibraryArtifacts</em> list
+     */
+    private boolean isExcludedLibraryArtifact(Artifact artifact) {
+        // TODO classifier?
+        return (excludeLibraryArtifacts != null) && (excludeLibraryArtifacts.contains(artifact.getGroupId() + ":" + artifact.getArtifactId() + ":" + artifact.getBaseVersion()));
+    }
+
+    /**
+     * Resolves every artifact needed as an input or a library up front and in parallel, instead of one at a time as they are added
+     * 
+     * @throws MojoExecutionException
+     */
+    private void resolveArtifacts(Execution run) throws MojoExecutionException {
+        List<org.eclipse.aether.artifact.Artifact> needed = new ArrayList<org.eclipse.aether.artifact.Artifact>();
+        if (inputArtifacts != null) {
+            for (String str : inputArtifacts) {
+                Artifact artifact = run.projectArtifactMap.get(str);
+                if (artifact != null)
+                    addUnresolvedArtifact(needed, toAetherArtifact(artifact));
+            }
+        }
+        if (includeDependencies) {
+            for (Artifact artifact : mavenProject.getArtifacts()) {
+                if (!isInputArtifact(artifact) && !isExcludedLibraryArtifact(artifact))
+                    addUnresolvedArtifact(needed, toAetherArtifact(artifact));
+            }
+        }
+        if (libraryArtifacts != null) {
+            for (String coordinates : libraryArtifacts) {
+                try {
+                    addUnresolvedArtifact(needed, new DefaultArtifact(coordinates));
+                } catch (IllegalArgumentException e) {
+                    // Reported when the libraries are prepared
+                }
+            }
+        }
+        run.resolvedArtifactFiles = new ParallelArtifactResolver(repoSystem, repoSession, remoteRepositories, resolutionThreads, log).resolve(needed);
+    }
+
+    /**
+     * Adds the provided artifact to the list if {@link #getFileForArtifact(Execution, org.eclipse.aether.artifact.Artifact)} would have to resolve it
+     */
+    private void addUnresolvedArtifact(List<org.eclipse.aether.artifact.Artifact> needed, org.eclipse.aether.artifact.Artifact artifact) {
+        boolean projectReference = (artifact.getClassifier() == null) && mavenProject.getProjectReferences().containsKey(artifact.getGroupId() + ":" + artifact.getArtifactId());
+        if (!projectReference && ((artifact.getFile() == null) || !artifact.getFile().exists()))
+            needed.add(artifact);
+    }
+
+    /**
+     * Prepare other ProGuard options
+     */
+    private void prepareOtherOptions(Execution run) {
+        // Add include file if specified
+        if (ignoreIncludeFile)
+            log.info("Ignoring includeFile");
+        else if (getIncludeFileName(run) != null) {
+            File pgIncludeFile = resolveAbsoluteFile(getIncludeFileName(run), buildDirectory);
+            if (pgIncludeFile.exists() && pgIncludeFile.canRead()) {
+                log.info("Including proguardInclude file: " + pgIncludeFile.getAbsolutePath());
+                run.includeFile = pgIncludeFile;
+                run.args.add(new Option("include", returnQuotedFilename(pgIncludeFile)));
+            } else {
+                log.info("proguardIncludeFile could not be read: " + getIncludeFileName(run));
+            }
+        }
+
+        // Obfuscate option
+        if (!isObfuscate(run))
+            run.args.add(new Option("dontobfuscate"));
+
+        // Shrink option
+        if (!isShrink(run))
+            run.args.add(new Option("dontshrink"));
+
+        // DontWarn option
+        if (dontwarn)
+            run.args.add(new Option("dontwarn"));
+
+        // PrintMapping options
+        if (isPrintMapping(run))
+            run.args.add(new Option("printmapping", getMappingFile(run), null));
+
+        // PrintSeeds options
+        if (printSeeds)
+            run.args.add(new Option("printseeds", getSeedsFile(run), null));
+
+        // Other report options
+        if (isPrintUsage(run))
+            run.args.add(new Option("printusage", getUsageFile(run), null));
+        if (printConfiguration)
+            run.args.add(new Option("printconfiguration", getConfigurationFile(run), null));
+        if (dump)
+            run.args.add(new Option("dump", getDumpFile(run), null));
+
+        // Propagate loglevel
+        if (log.isDebugEnabled())
+            run.args.add(new Option("verbose"));
+
+        // Pass along other miscellaneous options
+        Map<String, String> options = getOptions(run);
+        if (options != null) {
+            for (String key : options.keySet())
+                run.args.add(new Option(key, options.get(key)));
+        }
+    }
+
+    /**
+     * Prepare the ProGuard output area and the list of output artifacts
+     * 
+     * @throws MojoExecutionException
+     */
+    private void prepareOutputArtifacts(Execution run) throws MojoExecutionException {
+        // Make sure ProGuard output folder exists
+        if (!run.workDirectory.exists()) {
+            log.debug("Creating output directory " + run.workDirectory);
+            if (!run.workDirectory.mkdirs())
+                throw new MojoExecutionException("Failed to create output directory: " + run.workDirectory);
+        }
+        if (!run.workDirectory.isDirectory() || !run.workDirectory.canWrite())
+            throw new MojoExecutionException("Output directory cannot be written to: " + run.workDirectory);
+
+        // Create the internal OutputArtifacts list from the plugin parameter, or from the variant
+        List<OutputArtifact> outputs = (run.variant != null) ? run.variant.getOutputArtifacts() : outputArtifacts;
+        run.internalOutputArtifactsList = new ArrayList<InternalOutputArtifact>();
+        if (outputs != null)
+            for (OutputArtifact data : outputs)
+                run.internalOutputArtifactsList.add(new InternalOutputArtifact(data));
+
+        // Use the default output artifact if no outputs are provided
+        if (run.internalOutputArtifactsList.size() == 0) {
+            InternalOutputArtifact o = (run.variant != null) ? new InternalOutputArtifact(new OutputArtifact(null, null, null, null, run.variant.getName(), null, true))
+                    : new InternalOutputArtifact();
+            run.internalOutputArtifactsList.add(o);
+            log.info("No output artifacts were specified, so setting output file to " + o.getFile());
+        }
+    }
+
+    /**
+     * Prepare the ProGuard output files and parameters
+     * 
+     * @throws MojoFailureException
+     * @throws MojoExecutionException
+     */
+    private void prepareOutput(Execution run) throws MojoFailureException, MojoExecutionException {
+        // Go through all of the output files and back up any existing files we need to preserve
+        for (InternalOutputArtifact out : run.internalOutputArtifactsList) {
+            log.debug("Processing output artifact " + out);
+            File outJarFile = out.getFile();
+            if (outJarFile != null)
+                outJarFile = resolveAbsoluteFile(out.getFile().toString(), buildDirectory);
+            else {
+                log.error("Could not determine file to use for " + out + ", ignoring");
+                continue;
+            }
+            log.debug("Preparing output file " + outJarFile);
+
+            // Check if our input file contains this same output file
+            if (!run.inputFileList.contains(outJarFile)) {
+                // We aren't overwriting the input file so just move any existing output aside, unless an incremental run updates it
+                // A reproducible output archive is only replaced once the new one is known to differ
+                boolean partial = (run.incremental != null) && run.incremental.isPartial();
+                if (!test && !partial && !(reproducible && isArchive(outJarFile)))
+                    discard(run, outJarFile, "existing file");
+            } else {
+                // Writing back to our input file/folder - in this case we must back up the input file first
+                File backupFile = new File(buildDirectory, FilenameUtils.getBaseName(outJarFile.getName()) + "_proguard_base." + FilenameUtils.getExtension(outJarFile.getName()));
+                log.info("Backing up existing file " + outJarFile.getAbsolutePath() + " to " + backupFile.getAbsolutePath());
+                if (!test)
+                    discard(run, backupFile, "existing backup file");
+
+                // Rename the input file
+                if (!test && outJarFile.exists()) {
+                    log.debug("Renaming " + outJarFile + " to " + backupFile);
+                    try {
+                        Files.move(outJarFile.toPath(), backupFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                    } catch (IOException e) {
+                        throw new MojoFailureException("Cannot rename " + outJarFile + " to " + backupFile + ": " + e.getMessage());
+                    }
+                    run.inputFileList.remove(outJarFile);
+                    run.inputFileList.add(backupFile);
+
+                    // ProGuard reads the backup in place of the input
+                    File inJarFile = canonicalFile(outJarFile);
+                    for (int i = 0; i < run.args.size(); i++) {
+                        Option option = run.args.get(i);
+                        if ("injars".equals(option.name) && inJarFile.equals(option.file))
+                            run.args.set(i, new Option("injars", backupFile, option.filter));
+                    }
+                    if (run.shardOfInput != null)
+                        run.shardOfInput.put(canonicalFile(backupFile), run.shardOfInput.get(inJarFile));
+                }
+            }
+            
+            // Finally, add the outjar parameter
+            run.args.add(new Option("outjars", outJarFile.getAbsolutePath(), outJarFile.getAbsoluteFile(), null));
+        }
+    }
+
+    /**
+     * Moves a stale output out of the way, to be deleted in the background while ProGuard runs
+     * 
+     * @param run
+     * @param file
+     * @param description
+     *            what the file is, for the error message
+     * @throws MojoFailureException
+     *             if the file can neither be moved nor deleted
+     */
+    private void discard(Execution run, File file, String description) throws MojoFailureException {
+        if (run.trash == null)
+            run.trash = createTrash();
+        try {
+            run.trash.discard(file);
+        } catch (IOException e) {
+            throw new MojoFailureException("Cannot delete " + description + " " + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return the trash for stale outputs, shared by an execution and its shards
+     */
+    private OutputTrash createTrash() {
+        return new OutputTrash(new File(proguardOutputDirectory, "trash"), log);
+    }
+
+    /**
+     * Waits for the stale outputs moved aside by {@link #discard(Execution, File, String)} to be deleted
+     * 
+     * @param run
+     * @throws MojoExecutionException
+     *             if any of them could not be deleted
+     */
+    private void emptyTrash(Execution run) throws MojoExecutionException {
+        if (run.trash == null)
+            return;
+        try {
+            run.trash.await();
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to delete the previous ProGuard outputs in " + new File(proguardOutputDirectory, "trash"), e);
+        }
+    }
+
+    /**
+     * Main execution method
+     */
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        // Log and sanity checks
+        Log log = getLog();
+        if (skip) {
+            log.info("Bypassing ProGuard plug-in because proguard.skip is set to 'true'");
+            return;
+        }
+
+        // Everything this execution builds up is kept apart from other executions running in parallel
+        Execution run = new Execution(ProguardMojo.createArtifactMap(mavenProject.getArtifacts()), phaseReport ? new PhaseReport() : null, proguardOutputDirectory);
+        String outcome = "failed";
+        try {
+            // The artifacts are resolved and the inputs and libraries prepared once, for the plug-in configuration or for all of its variants
+            PhaseEvents.Phase phase = run.begin("resolveArtifacts", PhaseReport.PROCESS);
+            resolveArtifacts(run);
+            run.end(phase);
+            phase = run.begin("prepareInputs");
+            prepareInputs(run);
+            run.end(phase, run.inputFileList);
+            phase = run.begin("prepareLibraries");
+            prepareLibraries(run);
+            run.end(phase, run.libraryFileList);
+
+            if (variants != null && !variants.isEmpty())
+                outcome = executeVariants(run);
+            else {
+                outcome = execute(run);
+                if (!"test".equals(outcome))
+                    attachArtifacts(run);
+            }
+        } finally {
+            // A failed execution still waits for its stale outputs to be deleted, but only reports why they could not be
+            if (run.trash != null) {
+                try {
+                    run.trash.await();
+                } catch (IOException e) {
+                    log.warn(e.getMessage());
+                }
+            }
+            if (run.report != null)
+                writePhaseReport(run, outcome);
+        }
+    }
+
+    /**
+     * Performs a single execution, whose inputs and libraries are already prepared. The outputs are left to the caller to attach
+     * 
+     * @param run
+     * @return how the execution ended: <code>processed</code>, <code>up-to-date</code>, <code>cached</code> or <code>test</code>
+     * @throws MojoExecutionException
+     * @throws MojoFailureException
+     */
+    private String execute(Execution run) throws MojoExecutionException, MojoFailureException {
+        // Get ready...
+        PhaseEvents.Phase phase;
+        prepareOtherOptions(run);
+        prepareOutputArtifacts(run);
+        if (shard) {
+            phase = run.begin("planShards");
+            planShards(run);
+            run.end(phase);
+        }
+
+        // Skip the whole run if nothing has changed since the last one
+        File fingerprintFile = new File(run.workDirectory, BuildFingerprint.FINGERPRINT_FILE);
+        BuildFingerprint fingerprint = null;
+        if ((upToDateCheck || buildCacheDirectory != null) && !test) {
+            phase = run.begin("fingerprint");
+            BuildFingerprint previous = BuildFingerprint.load(fingerprintFile);
+            fingerprint = createFingerprint(run, previous);
+            boolean upToDate = upToDateCheck && isUpToDate(run, fingerprint, previous);
+            run.end(phase);
+            if (upToDate) {
+                log.info("ProGuard outputs are up to date, skipping ProGuard processing");
+                return "up-to-date";
+            }
+        }
+        if (incremental && !test) {
+            phase = run.begin("planIncremental");
+            run.incremental = planIncremental(run);
+            run.end(phase);
+        }
+        phase = run.begin("prepareOutput");
+        prepareOutput(run);
+        run.end(phase);
+
+        // Do it!
+        log.info("Launching " + ProGuard.class.getCanonicalName() + " " + run.args.toString());
+        if (test) {
+            log.info("This is just a test - no action taken");
+            return "test";
+        }
+        if (fingerprintFile.exists() && !fingerprintFile.delete())
+            log.warn("Could not delete stale fingerprint " + fingerprintFile);
+
+        // Reuse the outputs of an identical run from the shared build cache if there are any
+        BuildCache buildCache = null;
+        if (buildCacheDirectory != null && fingerprint != null) {
+            buildCache = new BuildCache(buildCacheDirectory, buildCacheMaxSize, log);
+            phase = run.begin("restoreFromBuildCache");
+            boolean restored = buildCache.restore(fingerprint.getCacheKey(), getOutputFiles(run));
+            run.end(phase);
+            if (restored) {
+                emptyTrash(run);
+                storeFingerprint(fingerprint, fingerprintFile);
+                return "cached";
+            }
+        }
+
+        if (pruneLibraries) {
+            phase = run.begin("pruneLibraries");
+            pruneLibraries(run);
+            run.end(phase);
+        }
+        if (reproducible && isPrintMapping(run))
+            keepPreviousMapping(run);
+
+        if (run.shardOfInput != null) {
+            phase = run.begin("runShards", PhaseReport.PROCESS);
+            runShards(run);
+            run.end(phase);
+        } else {
+            if (parallelCompression || reproducible) {
+                phase = run.begin("stageArchives");
+                stageArchives(run);
+                run.end(phase);
+            }
+
+            if (run.incremental != null && run.incremental.isEmpty())
+                log.info("No classes need to be processed again");
+            else {
+                if (run.incremental != null && run.incremental.isPartial())
+                    prepareIncrementalRun(run);
+                launchProguard(run);
+                log.info("ProGuard completed without exceptions");
+            }
+            if (!run.stagedArchives.isEmpty()) {
+                phase = run.begin("compressArchives", PhaseReport.PROCESS);
+                compressArchives(run);
+                run.end(phase);
+            }
+        }
+        phase = run.begin("emptyTrash", PhaseReport.PROCESS);
+        emptyTrash(run);
+        run.end(phase);
+        if (run.incremental != null) {
+            phase = run.begin("completeIncremental");
+            completeIncremental(run);
+            run.end(phase);
+        }
+        if (reproducible && isPrintMapping(run)) {
+            phase = run.begin("sortMapping");
+            sortMapping(run);
+            run.end(phase);
+        }
+        if (isPrintMapping(run) && printMappingIndex) {
+            phase = run.begin("writeMappingIndex");
+            writeMappingIndex(run);
+            run.end(phase);
+        }
+        storeFingerprint(fingerprint, fingerprintFile);
+
+        if (buildCache != null) {
+            phase = run.begin("storeInBuildCache");
+            try {
+                buildCache.store(fingerprint.getCacheKey(), getOutputFiles(run));
+            } catch (IOException e) {
+                log.warn("Could not store ProGuard outputs in build cache " + buildCacheDirectory + ": " + e.getMessage());
+            }
+            run.end(phase);
+        }
+
+        return "processed";
+    }
+
+    /**
+     * Runs the variants of the plug-in configuration in parallel, each in an execution of its own that starts from the inputs and libraries prepared
+     * by the provided one, and attaches their outputs in the order of the variants
+     * 
+     * @param run
+     * @return how the variants ended: the outcome they share, or <code>processed</code> if they differ
+     * @throws MojoExecutionException
+     * @throws MojoFailureException
+     */
+    private String executeVariants(Execution run) throws MojoExecutionException, MojoFailureException {
+        Set<String> names = new HashSet<String>();
+        for (Variant variant : variants) {
+            if (variant.getName() == null || !variant.getName().matches("[\\w.-]+"))
+                throw new MojoExecutionException("Every variant needs a name made of letters, digits, '.', '-' or '_': " + variant);
+            if (!names.add(variant.getName()))
+                throw new MojoExecutionException("There is more than one variant named " + variant.getName());
+        }
+        checkVariantOutputs(run);
+        if (run.trash == null)
+            run.trash = createTrash();
+
+        final List<Execution> executions = new ArrayList<Execution>();
+        List<Callable<String>> tasks = new ArrayList<Callable<String>>();
+        for (Variant variant : variants) {
+            final Execution execution = new Execution(run.projectArtifactMap, run.report, new File(proguardOutputDirectory, variant.getName()));
+            execution.variant = variant;
+            execution.trash = run.trash;
+            execution.resolvedArtifactFiles = run.resolvedArtifactFiles;
+            // Every variant changes its own options, such as the filters of pruned libraries, while the others run
+            for (Option option : run.args)
+                execution.args.add(new Option(option));
+            execution.inputFileList.addAll(run.inputFileList);
+            execution.libraryFileList.addAll(run.libraryFileList);
+            execution.inputNames.putAll(run.inputNames);
+            execution.libraryStubs.putAll(run.libraryStubs);
+            executions.add(execution);
+            tasks.add(new Callable<String>() {
+                public String call() throws Exception {
+                    String outcome = execute(execution);
+                    log.info("Variant " + execution.variant.getName() + ": " + outcome);
+                    return outcome;
+                }
+            });
+        }
+        // Variants run in process share ProGuard's static name caches, so the runner lets only one of them obfuscate at a time
+        List<String> outcomes = runInParallel("variant", tasks, variantThreads);
+
+        for (int i = 0; i < executions.size(); i++) {
+            if (!"test".equals(outcomes.get(i)))
+                attachArtifacts(executions.get(i));
+        }
+        return (new HashSet<String>(outcomes).size() == 1) ? outcomes.get(0) : "processed";
+    }
+
+    /**
+     * Checks that no two variants write the same output file and that no variant writes to an input, as the variants run at the same time and the
+     * backup made of an input that is written to would be made by each of them
+     * 
+     * @param run
+     *            the execution whose inputs the variants read
+     * @throws MojoExecutionException
+     */
+    private void checkVariantOutputs(Execution run) throws MojoExecutionException {
+        Set<File> inputs = new HashSet<File>();
+        for (File file : run.inputFileList)
+            inputs.add(canonicalFile(file));
+        Map<File, String> writers = new HashMap<File, String>();
+        for (Variant variant : variants) {
+            List<InternalOutputArtifact> outputs = new ArrayList<InternalOutputArtifact>();
+            if (variant.getOutputArtifacts() != null && !variant.getOutputArtifacts().isEmpty()) {
+                for (OutputArtifact data : variant.getOutputArtifacts())
+                    outputs.add(new InternalOutputArtifact(data));
+            } else
+                outputs.add(new InternalOutputArtifact(new OutputArtifact(null, null, null, null, variant.getName(), null, true)));
+            for (InternalOutputArtifact out : outputs) {
+                if (out.getFile() == null)
+                    continue;
+                File file = canonicalFile(resolveAbsoluteFile(out.getFile().toString(), buildDirectory));
+                if (inputs.contains(file))
+                    throw new MojoExecutionException("Variant " + variant.getName() + " writes to its input " + file
+                            + ", which variants cannot do as they share their inputs");
+                String other = writers.put(file, variant.getName());
+                if (other != null)
+                    throw new MojoExecutionException("Variants " + other + " and " + variant.getName() + " both write " + file);
+            }
+        }
+    }
+
+    /**
+     * Runs tasks on a pool of daemon threads and waits for all of them. Runs in the daemon are served one at a time, so they get a single thread
+     * 
+     * @param kind
+     *            what a task processes, for thread names and messages
+     * @param tasks
+     * @param threads
+     *            the number of threads, or 0 for one per available processor
+     * @return the results of the tasks, in the same order
+     * @throws MojoExecutionException
+     *             if a task failed, or with the exception the first failed task threw
+     * @throws MojoFailureException
+     *             as thrown by the first failed task
+     */
+    private <T> List<T> runInParallel(final String kind, List<Callable<T>> tasks, int threads) throws MojoExecutionException, MojoFailureException {
+        int count = (threads > 0) ? threads : Runtime.getRuntime().availableProcessors();
+        if (daemon)
+            count = 1;
+        count = Math.min(count, tasks.size());
+        log.info("Processing " + tasks.size() + " " + kind + "s, " + count + " at a time");
+        ExecutorService executor = Executors.newFixedThreadPool(count, new ThreadFactory() {
+            private int number = 0;
+
+            public synchronized Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "proguard-" + kind + "-" + (number++));
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            List<Future<T>> futures = new ArrayList<Future<T>>();
+            for (Callable<T> task : tasks)
+                futures.add(executor.submit(task));
+            List<T> results = new ArrayList<T>();
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    results.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof MojoExecutionException)
+                        throw (MojoExecutionException) cause;
+                    if (cause instanceof MojoFailureException)
+                        throw (MojoFailureException) cause;
+                    throw new MojoExecutionException("ProGuard failed to process " + kind + " " + i, cause);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new MojoExecutionException("Interrupted while processing the " + kind + "s", e);
+                }
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return the ProGuard options of an execution: those of its variant if it sets any, or else those of the plug-in configuration
+     */
+    private Map<String, String> getOptions(Execution run) {
+        return (run.variant != null && run.variant.getOptions() != null) ? run.variant.getOptions() : options;
+    }
+
+    /**
+     * @return whether an execution writes a mapping, which ProGuard only does when it obfuscates
+     */
+    private boolean isPrintMapping(Execution run) {
+        return printMapping && isObfuscate(run);
+    }
+
+    /**
+     * @return whether an execution writes a usage file, which ProGuard only does when it shrinks
+     */
+    private boolean isPrintUsage(Execution run) {
+        return printUsage && isShrink(run);
+    }
+
+    /**
+     * @return the include file name of an execution: that of its variant if it sets one, or else that of the plug-in configuration
+     */
+    private String getIncludeFileName(Execution run) {
+        return (run.variant != null && run.variant.getProguardIncludeFile() != null) ? run.variant.getProguardIncludeFile() : proguardIncludeFile;
+    }
+
+    /**
+     * @return whether an execution obfuscates: as its variant sets it, or else as the plug-in configuration does
+     */
+    private boolean isObfuscate(Execution run) {
+        return (run.variant != null && run.variant.getObfuscate() != null) ? run.variant.getObfuscate() : obfuscate;
+    }
+
+    /**
+     * @return whether an execution shrinks: as its variant sets it, or else as the plug-in configuration does
+     */
+    private boolean isShrink(Execution run) {
+        return (run.variant != null && run.variant.getShrink() != null) ? run.variant.getShrink() : shrink;
+    }
+
+    /**
+     * Writes the phase report of an execution and attaches it if configured to do so. A report that cannot be written is only logged, so that it never
+     * hides the outcome of the execution
+     * 
+     * @param run
+     * @param outcome
+     */
+    private void writePhaseReport(Execution run, String outcome) {
+        File file = resolveAbsoluteFile(phaseReportFile, proguardOutputDirectory);
+        run.report.setOutcome(outcome);
+        try {
+            run.report.write(file);
+        } catch (IOException e) {
+            log.warn("Could not write ProGuard phase report " + file + ": " + e.getMessage());
+            return;
+        }
+        log.info("Wrote ProGuard phase report " + file);
+        if (!dontattach && phaseReportAttachAsArtifact && !"failed".equals(outcome)) {
+            log.info("Attaching phase report to project: " + phaseReportFile);
+            mavenProjectHelper.attachArtifact(mavenProject, FilenameUtils.getExtension(phaseReportFile), phaseReportClassifier, file);
+        }
+    }
+
+    /**
+     * Restricts the <em>libraryjars</em> added by the plug-in to the library classes the inputs can use, and reports the dependencies they do not use at
+     * all. If the inputs cannot be scanned, the libraries are left as they are
+     */
+    private void pruneLibraries(Execution run) {
+        List<LibraryPruner.LibraryUsage> usages;
+        try {
+            usages = new LibraryPruner(log).prune(run.inputFileList, run.libraryFileList);
+        } catch (IOException e) {
+            log.warn("Not pruning libraries because the inputs cannot be scanned: " + e.getMessage());
+            return;
+        }
+
+        Map<File, Artifact> dependencies = new HashMap<File, Artifact>();
+        for (Artifact artifact : mavenProject.getArtifacts()) {
+            if (artifact.getFile() != null)
+                dependencies.put(artifact.getFile().getAbsoluteFile(), artifact);
+        }
+
+        for (LibraryPruner.LibraryUsage usage : usages) {
+            File file = canonicalFile(usage.getFile());
+            String path = returnQuotedFilename(file);
+            Option option = null;
+            for (Option o : run.args) {
+                if ("libraryjars".equals(o.name) && file.equals(o.file) && o.filter == null) {
+                    option = o;
+                    break;
+                }
+            }
+            if (option == null)
+                continue;
+
+            if (usage.isUnused()) {
+                File original = run.libraryStubs.get(file);
+                Artifact artifact = dependencies.get(((original != null) ? original : usage.getFile()).getAbsoluteFile());
+                if (artifact != null)
+                    log.warn("Unused dependency " + artifact.getId() + ": none of its classes are referenced by the ProGuard inputs");
+                log.info("Leaving out library " + path + " because none of its classes are referenced");
+                run.args.remove(option);
+            } else {
+                String filter = usage.getFilter();
+                if (filter != null) {
+                    log.debug("Filtering library " + path + " to " + filter);
+                    option.setFilter(filter);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stores the fingerprint of a successful run for the next up-to-date check
+     * 
+     * @param fingerprint
+     *            may be null
+     * @param fingerprintFile
+     */
+    private void storeFingerprint(BuildFingerprint fingerprint, File fingerprintFile) {
+        if (fingerprint == null)
+            return;
+        try {
+            fingerprint.store(fingerprintFile);
+        } catch (IOException e) {
+            log.warn("Could not store ProGuard fingerprint " + fingerprintFile + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Points the <em>outjars</em> of every output archive at a staging directory, so that ProGuard writes the entries unpacked for
+     * {@link #compressArchives(Execution)} to compress. ProGuard writes the contents of an input archive as an archive of the same name even into a
+     * directory, so the input archives are staged unpacked as well, with the first input providing a resource winning as it does in an archive.
+     * <p>
+     * Obfuscated class names that differ only in case would overwrite each other on a case-insensitive file system, so unless the options include
+     * <code>-dontusemixedcaseclassnames</code>, an obfuscating run is only staged for reproducible outputs, as archives in the staging directory
+     * that {@link #compressArchives(Execution)} rebuilds
+     * 
+     * @param run
+     * @throws MojoExecutionException
+     * @throws MojoFailureException
+     */
+    private void stageArchives(Execution run) throws MojoExecutionException, MojoFailureException {
+        if (compressionLevel < 0 || compressionLevel > 9)
+            throw new MojoExecutionException("compressionLevel must be between 0 and 9, not " + compressionLevel);
+        File stagingDirectory = new File(run.workDirectory, "staging");
+        discard(run, stagingDirectory, "staging directory");
+        List<Integer> outputs = new ArrayList<Integer>();
+        for (int i = 0; i < run.args.size(); i++) {
+            Option option = run.args.get(i);
+            if ("outjars".equals(option.name) && option.file != null && isArchive(option.file))
+                outputs.add(i);
+        }
+        if (outputs.isEmpty()) {
+            log.info("Not compressing in parallel: there are no output archives");
+            return;
+        }
+        if (isObfuscate(run) && !hasOption(run, "dontobfuscate") && !hasOption(run, "dontusemixedcaseclassnames")) {
+            if (!reproducible) {
+                log.info("Not compressing in parallel: obfuscated class names may differ only in case, which a staging directory cannot hold on a"
+                        + " case-insensitive file system; set the option dontusemixedcaseclassnames to compress in parallel");
+                return;
+            }
+            log.info("Staging the output archives as archives, as obfuscated class names may differ only in case, which a staging directory cannot"
+                    + " hold on a case-insensitive file system");
+            int count = 0;
+            for (int i : outputs) {
+                File archive = run.args.get(i).file;
+                File staged = new File(stagingDirectory, "out" + (count++) + "-" + archive.getName());
+                run.args.set(i, new Option("outjars", staged, null));
+                run.stagedArchives.put(staged, archive);
+            }
+            if (!stagingDirectory.isDirectory() && !stagingDirectory.mkdirs())
+                throw new MojoExecutionException("Failed to create the staging directory " + stagingDirectory);
+            return;
+        }
+
+        // Each resource is extracted from the first input providing it, as ProGuard would write it, so that the inputs can be extracted in parallel
+        Set<String> resourceNames = new HashSet<String>();
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        int count = 0;
+        for (int i = 0; i < run.args.size(); i++) {
+            Option option = run.args.get(i);
+            if ("injars".equals(option.name) && option.file != null && option.file.isFile() && isArchive(option.file)) {
+                final File archive = option.file;
+                final File directory = new File(stagingDirectory, "in" + (count++) + "-" + FilenameUtils.getBaseName(archive.getName()));
+                final Set<String> owned = new HashSet<String>();
+                try {
+                    for (String name : ParallelArchiveWriter.listResources(archive)) {
+                        if (resourceNames.add(name))
+                            owned.add(name);
+                    }
+                } catch (IOException e) {
+                    throw new MojoExecutionException("Failed to extract " + archive + " for the parallel compression stage", e);
+                }
+                tasks.add(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        log.debug("Extracting " + archive + " to " + directory);
+                        try {
+                            ParallelArchiveWriter.extract(archive, directory, owned);
+                        } catch (IOException e) {
+                            throw new MojoExecutionException("Failed to extract " + archive + " for the parallel compression stage", e);
+                        }
+                        return null;
+                    }
+                });
+                run.args.set(i, new Option("injars", directory, option.filter));
+            }
+        }
+        if (!tasks.isEmpty())
+            runInParallel("input archive", tasks, compressionThreads);
+        for (int i : outputs) {
+            File archive = run.args.get(i).file;
+            File directory = new File(stagingDirectory, "out" + (count++) + "-" + FilenameUtils.getBaseName(archive.getName()));
+            run.args.set(i, new Option("outjars", directory, null));
+            run.stagedArchives.put(directory, archive);
+        }
+    }
+
+    /**
+     * Builds the output archives from the staging directories or archives ProGuard wrote them to, and removes the staging directory
+     * 
+     * @param run
+     * @throws MojoExecutionException
+     * @throws MojoFailureException
+     */
+    private void compressArchives(Execution run) throws MojoExecutionException, MojoFailureException {
+        ParallelArchiveWriter writer = new ParallelArchiveWriter(compressionLevel, compressionThreads, ParallelArchiveWriter.parseExtensions(storedExtensions), log);
+        if (reproducible) {
+            try {
+                writer.setEntryTime(ReproducibleOutputs.parseTimestamp(outputTimestamp));
+            } catch (IllegalArgumentException e) {
+                throw new MojoExecutionException(e.getMessage());
+            }
+            writer.setKeepUnchanged(true);
+        }
+        for (Map.Entry<File, File> staged : run.stagedArchives.entrySet()) {
+            File directory = staged.getKey();
+            File archive = staged.getValue();
+            if (!directory.exists())
+                throw new MojoExecutionException("ProGuard did not write any output to " + directory);
+            try {
+                if (directory.isFile())
+                    writer.rewrite(directory, archive);
+                else
+                    writer.write(directory, archive);
+            } catch (IOException e) {
+                throw new MojoExecutionException("Failed to compress " + archive, e);
+            }
+        }
+        discard(run, new File(run.workDirectory, "staging"), "staging directory");
+    }
+
+    /**
+     * @return true if the name of the provided file is that of an archive ProGuard would read or write as one
+     */
+    private static boolean isArchive(File file) {
+        return file.getName().matches("(?i).*\\.(jar|war|ear|zip)");
+    }
+
+    /**
+     * Splits the inputs into shards that do not reference each other, and adds an output artifact for every shard but the one of <em>inputFile</em>.
+     * The inputs are left to a single run if they cannot be split
+     * 
+     * @param run
+     */
+    private void planShards(Execution run) {
+        String reason = null;
+        if (run.inputFileList.size() < 2)
+            reason = "there are fewer than two inputs";
+        else if (run.internalOutputArtifactsList.size() != 1)
+            reason = "there is more than one output artifact";
+        for (Option option : run.args) {
+            if ("injars".equals(option.name) && option.file == null)
+                reason = "some injars are given as options";
+        }
+        if (reason == null) {
+            // Moving classes to other packages would give classes of different shards the same obfuscated names
+            for (String name : Arrays.asList("repackageclasses", "flattenpackagehierarchy")) {
+                if (hasOption(run, name))
+                    reason = "the options include " + name + ", which would give classes of different shards the same names";
+            }
+        }
+
+        // Each shard names the obfuscated packages it renames from scratch, so only packages whose names are kept stay apart
+        StringMatcher keptPackages = null;
+        if (reason == null && isObfuscate(run) && !hasOption(run, "dontobfuscate")) {
+            List<String> filters = getOptionArguments(run, "keeppackagenames");
+            if (filters.isEmpty())
+                reason = "the classes are obfuscated without keeppackagenames, which would give packages of different shards the same names";
+            else if (!filters.contains("")) {
+                List<String> names = new ArrayList<String>();
+                for (String filter : filters) {
+                    for (String name : filter.split(","))
+                        names.add(name.trim().replace('.', '/'));
+                }
+                keptPackages = new ListParser(new FileNameParser()).parse(names);
+            }
+        }
+        if (reason != null) {
+            log.info("Not processing the inputs in shards because " + reason);
+            return;
+        }
+
+        List<List<File>> groups;
+        Set<String> packages = new TreeSet<String>();
+        try {
+            groups = InputShards.group(run.inputFileList, packages);
+        } catch (IOException e) {
+            log.warn("Not processing the inputs in shards because they cannot be scanned: " + e.getMessage());
+            return;
+        }
+        if (groups.size() < 2) {
+            log.info("Not processing the inputs in shards because they all depend on each other");
+            return;
+        }
+        if (keptPackages != null) {
+            for (String packageName : packages) {
+                if (packageName.length() > 0 && !keptPackages.matches(packageName)) {
+                    log.info("Not processing the inputs in shards because keeppackagenames does not keep package " + packageName.replace('/', '.')
+                            + ", which could get the same obfuscated name as a package of another shard");
+                    return;
+                }
+            }
+        }
+
+        InternalOutputArtifact main = run.internalOutputArtifactsList.get(0);
+        Set<String> classifiers = new HashSet<String>();
+        run.shardOfInput = new HashMap<File, Integer>();
+        for (int i = 0; i < groups.size(); i++) {
+            List<File> group = groups.get(i);
+            for (File f : group)
+                run.shardOfInput.put(canonicalFile(f), i);
+            if (i > 0) {
+                File first = group.get(0);
+                String name = run.inputNames.containsKey(first) ? run.inputNames.get(first) : FilenameUtils.getBaseName(first.getName());
+                String classifier = (main.getClassifier() != null) ? main.getClassifier() + "-" + name : name;
+                if (!classifiers.add(classifier))
+                    classifier = classifier + "-" + i;
+                run.internalOutputArtifactsList.add(new InternalOutputArtifact(new OutputArtifact(null, null, null, main.getType(), classifier, null, main.isAttach())));
+            }
+            log.info("Shard " + i + " of " + groups.size() + ": " + group + " to " + run.internalOutputArtifactsList.get(i).getFile());
+        }
+    }
+
+    /**
+     * Checks whether an option is set, either among the <em>options</em> or in the include file
+     * 
+     * @param run
+     * @param name
+     *            the name of the option without its leading dash
+     * @return true if the option is set
+     */
+    private boolean hasOption(Execution run, String name) {
+        return !getOptionArguments(run, name).isEmpty();
+    }
+
+    /**
+     * Lists the arguments an option is given, either among the <em>options</em> or in the include file
+     * 
+     * @param run
+     * @param name
+     *            the name of the option without its leading dash
+     * @return the argument of every occurrence of the option, an empty string for an occurrence without one
+     */
+    private List<String> getOptionArguments(Execution run, String name) {
+        List<String> arguments = new ArrayList<String>();
+        if (getOptions(run) != null && getOptions(run).containsKey(name)) {
+            String value = getOptions(run).get(name);
+            arguments.add((value != null) ? value.trim() : "");
+        }
+        if (run.includeFile == null || !run.includeFile.isFile())
+            return arguments;
+        Pattern pattern = Pattern.compile("(?:^|\\s)-" + Pattern.quote(name) + "(?:\\s+([^-\\s]\\S*(?:\\s*,\\s*\\S+)*))?(?=\\s|$)");
+        try {
+            for (String line : FileUtils.readLines(run.includeFile, "UTF-8")) {
+                int comment = line.indexOf('#');
+                if (comment >= 0)
+                    line = line.substring(0, comment);
+                Matcher matcher = pattern.matcher(line);
+                while (matcher.find())
+                    arguments.add((matcher.group(1) != null) ? matcher.group(1) : "");
+            }
+        } catch (IOException e) {
+            log.warn("Could not read the include file " + run.includeFile + ": " + e.getMessage());
         }
+        return arguments;
+    }
 
-        // Go through all of the output files and back up any existing files we need to preserve
-        for (InternalOutputArtifact out : internalOutputArtifactsList) {
-            log.debug("Processing output artifact " + out);
-            File outJarFile = out.getFile();
-            if (outJarFile != null)
-                outJarFile = resolveAbsoluteFile(out.getFile().toString(), buildDirectory);
-            else {
-                log.error("Could not determine file to use for " + out + ", ignoring");
-                continue;
+    /**
+     * Processes every shard planned by {@link #planShards(Execution)} in a ProGuard run of its own, several at a time, and merges their mappings,
+     * seeds and other reports
+     * 
+     * @param run
+     * @throws MojoExecutionException
+     * @throws MojoFailureException
+     */
+    private void runShards(Execution run) throws MojoExecutionException, MojoFailureException {
+        if (run.trash == null)
+            run.trash = createTrash();
+        File shardsDirectory = new File(run.workDirectory, "shards");
+        discard(run, shardsDirectory, "shards directory");
+
+        // Every shard gets the same options and libraries, its own inputs and output, and its own mapping and seeds to be merged afterwards
+        int count = run.internalOutputArtifactsList.size();
+        List<Execution> shards = new ArrayList<Execution>();
+        List<File> outJarFiles = new ArrayList<File>();
+        for (int i = 0; i < count; i++) {
+            Execution shard = new Execution(run.projectArtifactMap, run.report, new File(shardsDirectory, Integer.toString(i)));
+            shard.name = run.name + "/shard-" + i;
+            shard.trash = run.trash;
+            shard.includeFile = run.includeFile;
+            shard.libraryFileList.addAll(run.libraryFileList);
+            shard.internalOutputArtifactsList = Collections.singletonList(run.internalOutputArtifactsList.get(i));
+            if (!shard.workDirectory.mkdirs())
+                throw new MojoExecutionException("Failed to create shard directory " + shard.workDirectory);
+            shards.add(shard);
+            outJarFiles.add(canonicalFile(resolveAbsoluteFile(run.internalOutputArtifactsList.get(i).getFile().toString(), buildDirectory)));
+        }
+        for (Option option : run.args) {
+            if ("injars".equals(option.name)) {
+                Integer i = run.shardOfInput.get(option.file);
+                if (i == null)
+                    throw new MojoExecutionException("Input " + option.file + " does not belong to any shard");
+                shards.get(i).args.add(option);
+                shards.get(i).inputFileList.add(option.file);
+            } else if ("outjars".equals(option.name)) {
+                int i = outJarFiles.indexOf(canonicalFile(option.file));
+                if (i < 0)
+                    throw new MojoExecutionException("Output " + option.file + " does not belong to any shard");
+                shards.get(i).args.add(option);
+            } else {
+                for (Execution shard : shards) {
+                    if (REPORT_OPTIONS.contains(option.name) && option.file != null)
+                        shard.args.add(new Option(option.name, new File(shard.workDirectory, option.file.getName()), null));
+                    else
+                        shard.args.add(option);
+                }
             }
-            log.debug("Preparing output file " + outJarFile);
+        }
 
-            // Check if our input file contains this same output file
-            if (!inputFileList.contains(outJarFile)) {
-                // We aren't overwriting the input file so just check if the output file exists and delete
-                if (!test && outJarFile.exists() && (!deleteFileOrDirectory(outJarFile)))
-                    throw new MojoFailureException("Cannot delete existing file " + outJarFile);
-            } else {
-                // Writing back to our input file/folder - in this case we must back up the input file first
-                File backupFile = new File(buildDirectory, FilenameUtils.getBaseName(outJarFile.getName()) + "_proguard_base." + FilenameUtils.getExtension(outJarFile.getName()));
-                log.info("Backing up existing file " + outJarFile.getAbsolutePath() + " to " + backupFile.getAbsolutePath());
-                if (backupFile.exists() && !test) {
-                    if (!deleteFileOrDirectory(backupFile))
-                        throw new MojoFailureException("Cannot delete existing backup file " + backupFile);
+        List<Callable<String>> tasks = new ArrayList<Callable<String>>();
+        for (int i = 0; i < count; i++) {
+            final int index = i;
+            final Execution shard = shards.get(i);
+            tasks.add(new Callable<String>() {
+                public String call() throws Exception {
+                    runShard(shard);
+                    log.info("ProGuard completed shard " + index + " without exceptions");
+                    return null;
                 }
+            });
+        }
+        // Shards run in process share ProGuard's static name caches, so the runner lets only one of them obfuscate at a time
+        runInParallel("shard", tasks, shardThreads);
 
-                // Rename the input file
-                if (!test && outJarFile.exists()) {
-                    log.debug("Renaming " + outJarFile + " to " + backupFile);
-                    File tempfile = new File(outJarFile.getAbsolutePath());
-                    if (!tempfile.renameTo(backupFile))
-                        throw new MojoFailureException("Cannot rename " + tempfile + " to " + backupFile);
-                    inputFileList.remove(outJarFile);
-                    inputFileList.add(backupFile);
+        for (Option option : run.args) {
+            if (REPORT_OPTIONS.contains(option.name) && option.file != null)
+                mergeShardFiles(shards, option.file.getName(), option.file);
+        }
+        discard(run, shardsDirectory, "shards directory");
+    }
+
+    /**
+     * Runs ProGuard for a single shard
+     * 
+     * @param shard
+     * @throws MojoExecutionException
+     * @throws MojoFailureException
+     */
+    private void runShard(Execution shard) throws MojoExecutionException, MojoFailureException {
+        if (parallelCompression || reproducible)
+            stageArchives(shard);
+        launchProguard(shard);
+        if (!shard.stagedArchives.isEmpty())
+            compressArchives(shard);
+    }
+
+    /**
+     * Concatenates a file written by every shard, in shard order. Mapping, seeds and usage files list each class on its own, so their concatenation is
+     * a valid file of the same kind, and concatenated gzip files are read as one
+     * 
+     * @param shards
+     * @param name
+     *            the name of the file in the work directory of each shard
+     * @param merged
+     * @throws MojoExecutionException
+     */
+    private void mergeShardFiles(List<Execution> shards, String name, File merged) throws MojoExecutionException {
+        try {
+            OutputStream out = new FileOutputStream(merged);
+            try {
+                for (Execution shard : shards) {
+                    File file = new File(shard.workDirectory, name);
+                    if (file.exists())
+                        Files.copy(file.toPath(), out);
                 }
+            } finally {
+                out.close();
             }
-            
-            // Finally, add the outjar parameter
-            args.add(new Option("outjars", outJarFile.getAbsolutePath()));
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to merge the shard outputs into " + merged, e);
         }
+        log.info("Merged the " + name + " files of " + shards.size() + " shards into " + merged);
     }
 
     /**
-     * Main execution method
+     * Decides whether the inputs allow an incremental run and works out what it has to process. An incremental run is also set up for a full run, so
+     * that its state is recorded for the next one
+     * 
+     * @param run
+     * @return the incremental run, or null if the inputs or options do not allow one
      */
-    public void execute() throws MojoExecutionException, MojoFailureException {
-        // Log and sanity checks
-        Log log = getLog();
-        if (skip) {
-            log.info("Bypassing ProGuard plug-in because proguard.skip is set to 'true'");
+    private IncrementalBuild planIncremental(Execution run) {
+        File input = resolveAbsoluteFile(inputFile, buildDirectory);
+        File output = (run.internalOutputArtifactsList.size() == 1) ? resolveAbsoluteFile(run.internalOutputArtifactsList.get(0).getFile().toString(), buildDirectory) : null;
+        String reason = null;
+        if (!input.isDirectory())
+            reason = "inputFile is not a classes directory";
+        else if ((inputArtifacts != null && !inputArtifacts.isEmpty()) || (inputJarPaths != null && !inputJarPaths.isEmpty()))
+            reason = "there are other inputs than " + input;
+        else if (output == null)
+            reason = "there is more than one output artifact";
+        else if (output.getName().matches("(?i).*\\.(jar|war|ear|zip|apk|jmod)") || run.inputFileList.contains(output))
+            reason = "the output " + output + " is not a separate directory";
+        else if (isShrink(run))
+            reason = "shrinking depends on all of the classes";
+        else if (getOptions(run) == null || !getOptions(run).containsKey("dontoptimize"))
+            reason = "optimization depends on all of the classes; add dontoptimize to the options";
+        else if (getOptions(run).containsKey("applymapping") || getOptions(run).containsKey("injars") || getOptions(run).containsKey("outjars"))
+            reason = "the options already set injars, outjars or applymapping";
+        else if (getOptions(run).containsKey("adaptresourcefilenames") || getOptions(run).containsKey("adaptresourcefilecontents"))
+            reason = "adapting resources depends on all of the classes";
+        File stateDirectory = new File(run.workDirectory, "incremental");
+        if (reason != null) {
+            log.info("Not processing incrementally: " + reason);
+            FileUtils.deleteQuietly(stateDirectory);
+            return null;
+        }
+
+        // Any change to the options, the libraries or the include file leads to a full run
+        StringBuilder settings = new StringBuilder(ProguardRunner.getProguardVersion()).append('\n');
+        for (Option option : run.args) {
+            if (!"injars".equals(option.name) && !"outjars".equals(option.name))
+                settings.append(option).append('\n');
+        }
+        List<File> files = new ArrayList<File>(run.libraryFileList);
+        if (run.includeFile != null)
+            files.add(run.includeFile);
+        for (File f : files)
+            settings.append(f.getAbsolutePath()).append(',').append(f.length()).append(',').append(f.lastModified()).append('\n');
+
+        IncrementalBuild build = new IncrementalBuild(input, output, stateDirectory, settings.toString(), isObfuscate(run), log);
+        try {
+            build.prepare();
+        } catch (IOException e) {
+            log.warn("Not processing incrementally: " + e.getMessage());
+            FileUtils.deleteQuietly(stateDirectory);
+            return null;
+        }
+        if (!build.isPartial() && isObfuscate(run) && !isPrintMapping(run))
+            run.args.add(new Option("printmapping", build.getMappingFile(), null));
+        return build;
+    }
+
+    /**
+     * Points the ProGuard options of a partial incremental run at the staged classes and the staging output. The whole classes directory becomes a
+     * library, so that the classes which are not processed can still be resolved, and the mapping of the last run is applied
+     * 
+     * @param run
+     */
+    private void prepareIncrementalRun(Execution run) {
+        IncrementalBuild build = run.incremental;
+        File input = resolveAbsoluteFile(inputFile, buildDirectory);
+        boolean mapped = false;
+        for (int i = 0; i < run.args.size(); i++) {
+            Option option = run.args.get(i);
+            if ("injars".equals(option.name))
+                run.args.set(i, new Option("injars", build.getStagingInput(), option.filter));
+            else if ("outjars".equals(option.name))
+                run.args.set(i, new Option("outjars", build.getStagingOutput(), null));
+            else if ("printmapping".equals(option.name)) {
+                run.args.set(i, new Option("printmapping", build.getStagingMapping(), null));
+                mapped = true;
+            }
+        }
+        run.args.add(new Option("libraryjars", input, null));
+        if (isObfuscate(run)) {
+            if (!mapped)
+                run.args.add(new Option("printmapping", build.getStagingMapping(), null));
+            run.args.add(new Option("applymapping", build.getMappingFile(), null));
+        }
+    }
+
+    /**
+     * Merges the outputs of a partial incremental run into the previous outputs, or records the state of a full run for the next incremental one
+     * 
+     * @param run
+     * @throws MojoExecutionException
+     *             if the outputs of a partial run cannot be merged
+     */
+    private void completeIncremental(Execution run) throws MojoExecutionException {
+        File mappingFile = isPrintMapping(run) ? getMappingFile(run) : null;
+        if (run.incremental.isPartial()) {
+            try {
+                run.incremental.complete(mappingFile);
+            } catch (IOException e) {
+                throw new MojoExecutionException("Failed to merge the outputs of the incremental ProGuard run", e);
+            }
+        } else {
+            try {
+                run.incremental.recordFullRun(mappingFile);
+            } catch (IOException e) {
+                log.warn("Could not record the state for the next incremental run: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Creates the fingerprint of the current run. This must be called after all of the ProGuard options have been prepared but before any of the output
+     * files have been touched
+     * 
+     * @param previous
+     *            the fingerprint of the last successful run, whose cached file digests are reused; may be null
+     * @return the fingerprint
+     * @throws MojoExecutionException
+     */
+    private BuildFingerprint createFingerprint(Execution run, BuildFingerprint previous) throws MojoExecutionException {
+        BuildFingerprint fingerprint = new BuildFingerprint(previous);
+
+        // Another ProGuard or plug-in version can produce different outputs from the same inputs
+        fingerprint.addString("proguard version", ProguardRunner.getProguardVersion());
+        fingerprint.addString("plugin version", String.valueOf(pluginVersion));
+        try {
+            for (File f : run.inputFileList)
+                fingerprint.addFile("input", f);
+            for (File f : run.libraryFileList)
+                fingerprint.addFile("library", f);
+            if (run.includeFile != null)
+                fingerprint.addFile("include file", run.includeFile);
+
+            // The files named in the options and include files, such as a mapping to apply or a dictionary, change the outputs as well
+            Set<File> visited = new HashSet<File>();
+            if (run.includeFile != null)
+                addReadFiles(fingerprint, run.includeFile, visited);
+            if (getOptions(run) != null) {
+                for (Map.Entry<String, String> option : getOptions(run).entrySet()) {
+                    if (READ_FILE_OPTIONS.contains(option.getKey()) && option.getValue() != null)
+                        addReadFiles(fingerprint, option.getKey(), option.getValue(), null, visited);
+                }
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to compute the ProGuard fingerprint", e);
+        }
+
+        // File locations are already part of the file components, so they are left out of the options, and -verbose only changes what ProGuard
+        // logs, so that running Maven with -X to find out why a build runs does not make it run
+        StringBuilder sb = new StringBuilder();
+        for (Option option : run.args) {
+            if (!"verbose".equals(option.name))
+                sb.append(option.toPortableString()).append('\n');
+        }
+        // But ProGuard writes an archive or a directory depending on the extension of an output, and names the archives in an output directory
+        // after the inputs, so those parts of the names are kept
+        for (File f : run.inputFileList)
+            sb.append("input ").append(f.getName()).append('\n');
+        for (InternalOutputArtifact out : run.internalOutputArtifactsList) {
+            String extension = FilenameUtils.getExtension(out.getFile().getName()).toLowerCase();
+            sb.append("outjar ").append(extension.isEmpty() ? "<directory>" : extension).append('\n');
+        }
+        if (pruneLibraries)
+            sb.append("prunelibraries\n");
+        if (run.shardOfInput != null)
+            sb.append("shard\n");
+        if (reproducible)
+            sb.append("reproducible ").append(outputTimestamp).append('\n');
+        fingerprint.addString("options", sb.toString());
+
+        sb = new StringBuilder();
+        for (File f : getOutputFiles(run))
+            sb.append(f.getAbsolutePath()).append('\n');
+        fingerprint.addLocalString("outputs", sb.toString());
+        return fingerprint;
+    }
+
+    /**
+     * Adds the contents of the files read by an option to a fingerprint, along with those read by the options of any file it includes
+     * 
+     * @param fingerprint
+     * @param name
+     *            the name of the option without its leading dash
+     * @param argument
+     *            the file names of the option, separated as in a class path and possibly quoted or followed by filters
+     * @param base
+     *            the directory relative file names are resolved against, or null for the current directory as ProGuard does for options
+     * @param visited
+     *            the include files already added, so that an include cycle ends
+     * @throws IOException
+     */
+    private void addReadFiles(BuildFingerprint fingerprint, String name, String argument, File base, Set<File> visited) throws IOException {
+        for (String fileName : getFileNames(argument)) {
+            Matcher matcher = Pattern.compile("<([^>]+)>").matcher(fileName);
+            StringBuffer sb = new StringBuffer();
+            while (matcher.find()) {
+                String property = System.getProperty(matcher.group(1));
+                matcher.appendReplacement(sb, Matcher.quoteReplacement((property != null) ? property : matcher.group()));
+            }
+            matcher.appendTail(sb);
+            File file = new File(sb.toString());
+            if (!file.isAbsolute())
+                file = (base != null) ? new File(base, sb.toString()) : file.getAbsoluteFile();
+            if ("include".equals(name)) {
+                if (visited.add(canonicalFile(file))) {
+                    fingerprint.addFile("include file", file);
+                    addReadFiles(fingerprint, file, visited);
+                }
+            } else
+                fingerprint.addFile(name, file);
+        }
+    }
+
+    /**
+     * Adds the contents of the files read by the options of a ProGuard configuration file to a fingerprint, resolving their names relative to the
+     * directory of the file
+     * 
+     * @param fingerprint
+     * @param file
+     * @param visited
+     *            the include files already added, so that an include cycle ends
+     * @throws IOException
+     */
+    private void addReadFiles(BuildFingerprint fingerprint, File file, Set<File> visited) throws IOException {
+        visited.add(canonicalFile(file));
+        if (!file.isFile())
             return;
+        for (String line : FileUtils.readLines(file, "UTF-8")) {
+            int comment = line.indexOf('#');
+            if (comment >= 0)
+                line = line.substring(0, comment);
+            Matcher matcher = READ_FILE_OPTION.matcher(line);
+            while (matcher.find())
+                addReadFiles(fingerprint, (matcher.group(1) != null) ? matcher.group(1) : "include", matcher.group(2), file.getParentFile(), visited);
         }
+    }
 
-        // Initialize instance variables
-        args = new ArrayList<Option>(); // The ProGuard arguments list
-        projectArtifactMap = ProguardMojo.createArtifactMap(mavenProject.getArtifacts());
-        inputFileList = new ArrayList<File>();
+    /**
+     * Splits the argument of an option into its file names, the way ProGuard reads a class path: names are separated by the path separator, may
+     * be quoted, and may be followed by filters in parentheses
+     * 
+     * @param argument
+     * @return the file names, without quotes or filters
+     */
+    private static List<String> getFileNames(String argument) {
+        List<String> names = new ArrayList<String>();
+        int i = 0;
+        while (i < argument.length()) {
+            char c = argument.charAt(i);
+            if (c == '\'' || c == '"') {
+                int end = argument.indexOf(c, i + 1);
+                if (end < 0)
+                    end = argument.length();
+                names.add(argument.substring(i + 1, end));
+                i = end + 1;
+            } else if (c == '(') {
+                int end = argument.indexOf(')', i);
+                i = (end < 0) ? argument.length() : end + 1;
+            } else if (Character.isWhitespace(c) || File.pathSeparatorChar == c) {
+                i++;
+            } else {
+                int end = i;
+                while (end < argument.length() && argument.charAt(end) != '(' && argument.charAt(end) != File.pathSeparatorChar
+                        && !Character.isWhitespace(argument.charAt(end)))
+                    end++;
+                names.add(argument.substring(i, end));
+                i = end;
+            }
+        }
+        return names;
+    }
 
-        // Get ready...
-        prepareInputs();
-        prepareLibraries();
-        prepareOtherOptions();
-        prepareOutput();
+    /**
+     * Checks the provided fingerprint against the one stored by the last successful run, and makes sure all of the outputs of that run still exist
+     * 
+     * @param fingerprint
+     * @param previous
+     *            the fingerprint of the last successful run, may be null
+     * @return true if ProGuard does not need to run again
+     */
+    private boolean isUpToDate(Execution run, BuildFingerprint fingerprint, BuildFingerprint previous) {
+        for (InternalOutputArtifact out : run.internalOutputArtifactsList) {
+            if (run.inputFileList.contains(out.getFile())) {
+                log.debug("Output " + out.getFile() + " overwrites an input, so the up-to-date check is not used");
+                return false;
+            }
+        }
 
-        // Do it!
-        log.info("Launching " + ProGuard.class.getCanonicalName() + " " + args.toString());
-        if (test) {
-            log.info("This is just a test - no action taken");
+        List<String> reasons = fingerprint.describeChanges(previous);
+        for (File f : getOutputFiles(run)) {
+            if (!f.exists())
+                reasons.add("output " + f + " does not exist");
+        }
+
+        for (String reason : reasons)
+            log.info("Running ProGuard because " + reason);
+        return reasons.isEmpty();
+    }
+
+    /**
+     * @return the <em>printmapping</em> file of an execution, which for a variant is in the directory named after it
+     */
+    private File getMappingFile(Execution run) {
+        return (run.variant != null) ? new File(run.workDirectory, new File(printMappingFile).getName()) : resolveAbsoluteFile(printMappingFile, proguardOutputDirectory);
+    }
+
+    /**
+     * @return the <em>printseeds</em> file of an execution, which for a variant is in the directory named after it
+     */
+    private File getSeedsFile(Execution run) {
+        return (run.variant != null) ? new File(run.workDirectory, new File(printSeedsFile).getName()) : resolveAbsoluteFile(printSeedsFile, proguardOutputDirectory);
+    }
+
+    /**
+     * @return the <em>printusage</em> file of an execution, which for a variant is in the directory named after it
+     */
+    private File getUsageFile(Execution run) {
+        return getReportFile(run, printUsageFile);
+    }
+
+    /**
+     * @return the <em>printconfiguration</em> file of an execution, which for a variant is in the directory named after it
+     */
+    private File getConfigurationFile(Execution run) {
+        return getReportFile(run, printConfigurationFile);
+    }
+
+    /**
+     * @return the <em>dump</em> file of an execution, which for a variant is in the directory named after it
+     */
+    private File getDumpFile(Execution run) {
+        return getReportFile(run, dumpFile);
+    }
+
+    private File getReportFile(Execution run, String name) {
+        return (run.variant != null) ? new File(run.workDirectory, new File(name).getName()) : resolveAbsoluteFile(name, proguardOutputDirectory);
+    }
+
+    /**
+     * @return the binary index of the <em>printmapping</em> file
+     */
+    private File getMappingIndexFile(Execution run) {
+        return new File(getMappingFile(run).getPath() + ".idx");
+    }
+
+    /**
+     * Writes the binary index of the <em>printmapping</em> file
+     * 
+     * @throws MojoExecutionException
+     *             if the mapping cannot be read or the index cannot be written
+     */
+    private void writeMappingIndex(Execution run) throws MojoExecutionException {
+        File mapping = getMappingFile(run);
+        File index = getMappingIndexFile(run);
+        try {
+            if (reproducible) {
+                File written = new File(run.workDirectory, index.getName() + ".tmp");
+                int classes = MappingIndexWriter.write(mapping, written);
+                if (ReproducibleOutputs.replaceIfChanged(written, index))
+                    log.info("Wrote mapping index of " + classes + " classes to " + index);
+                else
+                    log.info("Kept mapping index " + index + " as it is unchanged");
+                return;
+            }
+            int classes = MappingIndexWriter.write(mapping, index);
+            log.info("Wrote mapping index of " + classes + " classes to " + index);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to write the mapping index " + index, e);
+        }
+    }
+
+    /**
+     * @return where the <em>printmapping</em> file of the previous run is kept while ProGuard writes the new one
+     */
+    private File getPreviousMappingFile(Execution run) {
+        return new File(run.workDirectory, getMappingFile(run).getName() + ".previous");
+    }
+
+    /**
+     * Moves the <em>printmapping</em> file of the previous run aside, so that it can be put back if the new one turns out to be the same
+     * 
+     * @throws MojoExecutionException
+     */
+    private void keepPreviousMapping(Execution run) throws MojoExecutionException {
+        File mapping = getMappingFile(run);
+        File previous = getPreviousMappingFile(run);
+        try {
+            if (mapping.isFile())
+                Files.move(mapping.toPath(), previous.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            else
+                Files.deleteIfExists(previous.toPath());
+        } catch (IOException e) {
+            throw new MojoExecutionException("Cannot move the previous mapping " + mapping + " aside", e);
+        }
+    }
+
+    /**
+     * Sorts the classes of the <em>printmapping</em> file by their original names, and puts the mapping of the previous run back if it is the same
+     * 
+     * @throws MojoExecutionException
+     */
+    private void sortMapping(Execution run) throws MojoExecutionException {
+        File mapping = getMappingFile(run);
+        File previous = getPreviousMappingFile(run);
+        if (!mapping.isFile())
             return;
+        File sorted = new File(run.workDirectory, mapping.getName() + ".sorted");
+        try {
+            int classes = ReproducibleOutputs.sortMapping(mapping, sorted);
+            boolean restored = previous.isFile();
+            if (restored)
+                Files.move(previous.toPath(), mapping.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            if (ReproducibleOutputs.replaceIfChanged(sorted, mapping) || !restored)
+                log.info("Sorted the " + classes + " classes of mapping " + mapping);
+            else
+                log.info("Kept mapping " + mapping + " as it is unchanged");
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to sort the mapping " + mapping, e);
         }
-        launchProguard(args);
-        log.info("ProGuard completed without exceptions");
+    }
+
+    /**
+     * Returns every file produced by a ProGuard run: the output artifacts followed by the mapping and seeds files, if enabled
+     * 
+     * @return the list of output files
+     */
+    private List<File> getOutputFiles(Execution run) {
+        List<File> files = new ArrayList<File>();
+        for (InternalOutputArtifact out : run.internalOutputArtifactsList)
+            files.add(out.getFile());
+        if (isPrintMapping(run))
+            files.add(getMappingFile(run));
+        if (isPrintMapping(run) && printMappingIndex)
+            files.add(getMappingIndexFile(run));
+        if (printSeeds)
+            files.add(getSeedsFile(run));
+        if (isPrintUsage(run))
+            files.add(getUsageFile(run));
+        if (printConfiguration)
+            files.add(getConfigurationFile(run));
+        if (dump)
+            files.add(getDumpFile(run));
+        return files;
+    }
 
-        // Attach new artifacts to project
+    /**
+     * Attaches the ProGuard outputs to the project
+     */
+    private void attachArtifacts(Execution run) {
         if (!dontattach) {
-            for (InternalOutputArtifact o : internalOutputArtifactsList) {
-                if (!test && o.isAttach() && !inputFileList.contains(o.getFile())) {
+            for (InternalOutputArtifact o : run.internalOutputArtifactsList) {
+                if (!test && o.isAttach() && !run.inputFileList.contains(o.getFile())) {
                     log.info("Attaching resulting artifact to project: " + o.getFile());
                     log.debug("Attaching artifact with type " + o.getType() + " and classifier " + o.getClassifier());
                     mavenProjectHelper.attachArtifact(mavenProject, o.getType(), o.getClassifier(), o.getFile());
                 }
             }
 
-            if (printMapping && printMappingAttachAsArtifact) {
-                log.info("Attaching printMapping output to project: " + printMappingFile);
-                mavenProjectHelper.attachArtifact(mavenProject, FilenameUtils.getExtension(printMappingFile), defaultOutputArtifactClassifier,
-                        resolveAbsoluteFile(printMappingFile, proguardOutputDirectory));
+            // The files of a variant are told apart by its name
+            String classifier = (run.variant != null) ? run.variant.getName() : defaultOutputArtifactClassifier;
+            if (isPrintMapping(run) && printMappingAttachAsArtifact) {
+                log.info("Attaching printMapping output to project: " + getMappingFile(run));
+                mavenProjectHelper.attachArtifact(mavenProject, FilenameUtils.getExtension(printMappingFile), classifier, getMappingFile(run));
+                if (printMappingIndex) {
+                    log.info("Attaching mapping index to project: " + getMappingIndexFile(run));
+                    mavenProjectHelper.attachArtifact(mavenProject, "idx",
+                            (run.variant != null) ? printMappingIndexClassifier + "-" + run.variant.getName() : printMappingIndexClassifier, getMappingIndexFile(run));
+                }
             }
 
             if (printSeeds && printSeedsAttachAsArtifact) {
-                log.info("Attaching printSeeds output to project: " + printSeedsFile);
-                mavenProjectHelper.attachArtifact(mavenProject, FilenameUtils.getExtension(printSeedsFile), defaultOutputArtifactClassifier,
-                        resolveAbsoluteFile(printSeedsFile, proguardOutputDirectory));
+                log.info("Attaching printSeeds output to project: " + getSeedsFile(run));
+                mavenProjectHelper.attachArtifact(mavenProject, FilenameUtils.getExtension(printSeedsFile), classifier, getSeedsFile(run));
+            }
+
+            if (reportsAttachAsArtifacts) {
+                if (isPrintUsage(run))
+                    attachReport(run, "printUsage", getUsageFile(run), printUsageClassifier);
+                if (printConfiguration)
+                    attachReport(run, "printConfiguration", getConfigurationFile(run), printConfigurationClassifier);
+                if (dump)
+                    attachReport(run, "dump", getDumpFile(run), dumpClassifier);
             }
         } else
             log.debug("dontattach = true, no attachments performed");
     }
 
+    /**
+     * Attaches a report to the project, with the classifier followed by the name of the variant for a variant
+     * 
+     * @param run
+     * @param description
+     * @param file
+     * @param classifier
+     */
+    private void attachReport(Execution run, String description, File file, String classifier) {
+        if (!file.isFile()) {
+            log.warn("Not attaching " + description + " output " + file + " because ProGuard did not write it");
+            return;
+        }
+        log.info("Attaching " + description + " output to project: " + file);
+        mavenProjectHelper.attachArtifact(mavenProject, FilenameUtils.getExtension(file.getName()), (run.variant != null) ? classifier + "-" + run.variant.getName()
+                : classifier, file);
+    }
+
     /**
      * Utility method to generate a String key for the provided artifact of the form <code>&lt;groupid&gt;:&lt;artifactid&gt;[:&lt;classifier&gt;]</code>
      * 
@@ -803,40 +2931,124 @@ public final class ProguardMojo extends AbstractMojo {
     /**
      * Launches the ProGuard task
      * 
-     * @param options
+     * @param run
      * @throws MojoExecutionException
      */
-    protected void launchProguard(List<Option> options) throws MojoExecutionException {
-        getLog().info(ProGuard.VERSION);
+    protected void launchProguard(Execution run) throws MojoExecutionException {
+        getLog().info(ProguardRunner.getProguardVersion());
 
-        if (options == null || options.size() == 0) {
+        if (run.args.size() == 0) {
             getLog().error("Must specify 1 or more arguments");
             return;
         }
 
-        // Create the default options.
-        Configuration configuration = new Configuration();
-
         List<String> argsStr = new ArrayList<String>();
-        for (Option option : args)
+        for (Option option : run.args)
             argsStr.add(option.toString());
 
+        // The whole run is only recorded as an event, as the report already holds its steps
+        PhaseEvents.Phase proguard = PhaseEvents.begin(null, "proguard", run.name);
+        if (proguard != null)
+            proguard.setBytes(run.getClassBytes());
         try {
-            // Parse the options specified in the command line arguments.
-            ConfigurationParser parser = new ConfigurationParser(argsStr.toArray(new String[] {}), System.getProperties());
+            runProguard(run, argsStr);
+        } finally {
+            if (proguard != null)
+                proguard.end();
+        }
+    }
+
+    /**
+     * Runs ProGuard in the daemon, in a forked JVM or in process
+     * 
+     * @param run
+     * @param argsStr
+     *            the ProGuard options as strings, for a daemon or forked JVM
+     * @throws MojoExecutionException
+     */
+    private void runProguard(Execution run, List<String> argsStr) throws MojoExecutionException {
+        if (libraryCache || sharedLibraryPoolMaxClasses > 0) {
             try {
-                parser.parse(configuration);
-            } finally {
-                parser.close();
+                ProguardRunner.checkLibraryClassCache();
+            } catch (IllegalStateException e) {
+                throw new MojoExecutionException(e.getMessage(), e);
             }
+        }
+
+        if (daemon) {
+            ProguardFork jvm = new ProguardFork(forkMaxMemory, forkGarbageCollector, forkJvmArgs, getLog());
+            PhaseEvents.Phase phase = run.begin("proguardInDaemon", PhaseReport.EXTERNAL);
+            new ProguardDaemon(daemonDirectory, jvm, pluginVersion, daemonIdleTimeout, getLog()).execute(argsStr, libraryCache ? libraryCacheDirectory : null,
+                    sharedLibraryPoolMaxClasses);
+            run.end(phase);
+            return;
+        }
+
+        if (isForked(run)) {
+            PhaseEvents.Phase phase = run.begin("proguardInForkedJvm", PhaseReport.EXTERNAL);
+            new ProguardFork(forkMaxMemory, forkGarbageCollector, forkJvmArgs, getLog()).execute(argsStr, new File(run.workDirectory, "proguard-fork.pro"),
+                    libraryCache ? libraryCacheDirectory : null);
+            run.end(phase);
+            return;
+        }
 
-            // Execute ProGuard with these options.
-            new ProGuard(configuration).execute();
+        // Wait until the other in-process runs leave enough of the heap budget for this one
+        long heap = run.getClassBytes() * HEAP_PER_CLASS_BYTE;
+        long budget = (heapBudget > 0) ? heapBudget : Runtime.getRuntime().maxMemory() / 4 * 3;
+        long granted;
+        PhaseEvents.Phase phase = run.begin("waitForHeap");
+        try {
+            granted = HeapGovernor.acquire(heap, budget, log);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted while waiting for heap to run ProGuard", e);
+        }
+        run.end(phase);
+
+        try {
+            // Set the class paths and flags directly, and parse only the remaining options
+            phase = run.begin("buildConfiguration");
+            ConfigurationBuilder builder = new ConfigurationBuilder();
+            for (Option option : run.args)
+                option.applyTo(builder);
+            Configuration configuration = builder.build();
+            run.end(phase);
+
+            // Execute ProGuard with these options; the runner serializes obfuscation with the other in-process runs
+            LibraryClassCache libraryClassCache = null;
+            if (libraryCache || sharedLibraryPoolMaxClasses > 0) {
+                SharedLibraryPools.beginSession(repoSession);
+                libraryClassCache = new LibraryClassCache(libraryCache ? libraryCacheDirectory : null, sharedLibraryPoolMaxClasses, getLog());
+            }
+            new ProguardRunner(configuration, libraryClassCache, run.report, run.name).execute();
         } catch (Exception e) {
             throw new MojoExecutionException("ProGuard threw an exception", e);
+        } finally {
+            HeapGovernor.release(granted);
         }
     }
 
+    /**
+     * Decides whether ProGuard runs in a child JVM, as set by the <em>fork</em> parameter
+     * 
+     * @return true to fork
+     * @throws MojoExecutionException
+     *             if the fork mode is not valid
+     */
+    private boolean isForked(Execution run) throws MojoExecutionException {
+        if ("never".equals(fork))
+            return false;
+        if ("always".equals(fork))
+            return true;
+        if (!"auto".equals(fork))
+            throw new MojoExecutionException("Invalid fork mode '" + fork + "', must be one of never, always or auto");
+
+        long bytes = run.getClassBytes();
+        boolean forked = bytes > forkThreshold;
+        log.info("Input and library classes take about " + (bytes / (1024 * 1024)) + " MB, so ProGuard runs " + (forked ? "in a forked JVM" : "in process"));
+        return forked;
+    }
+
     /**
      * Utility method used to delete the output file or folder in preparation for running the task
      * 
@@ -868,14 +3080,23 @@ public final class ProguardMojo extends AbstractMojo {
      * @return File
      * @throws MojoExecutionException
      */
-    protected File getFileForArtifact(Artifact artifact) throws MojoExecutionException {
-        org.eclipse.aether.artifact.Artifact aetherartifact = null;
+    protected File getFileForArtifact(Execution run, Artifact artifact) throws MojoExecutionException {
+        return getFileForArtifact(run, toAetherArtifact(artifact));
+    }
+
+    /**
+     * Utility method to convert a Maven artifact to an Aether artifact
+     * 
+     * @param artifact
+     * @return the Aether artifact
+     * @throws MojoExecutionException
+     */
+    protected static org.eclipse.aether.artifact.Artifact toAetherArtifact(Artifact artifact) throws MojoExecutionException {
         try {
-            aetherartifact = new DefaultArtifact(artifact.getGroupId(), artifact.getArtifactId(), artifact.getClassifier(), artifact.getType(), artifact.getVersion());
+            return new DefaultArtifact(artifact.getGroupId(), artifact.getArtifactId(), artifact.getClassifier(), artifact.getType(), artifact.getVersion());
         } catch (IllegalArgumentException e) {
             throw new MojoExecutionException(e.getMessage(), e);
         }
-        return getFileForArtifact(aetherartifact);
     }
 
     /**
@@ -886,14 +3107,14 @@ public final class ProguardMojo extends AbstractMojo {
      * @return File
      * @throws MojoExecutionException
      */
-    protected File getFileForArtifact(String coordinates) throws MojoExecutionException {
+    protected File getFileForArtifact(Execution run, String coordinates) throws MojoExecutionException {
         org.eclipse.aether.artifact.Artifact artifact = null;
         try {
             artifact = new DefaultArtifact(coordinates);
         } catch (IllegalArgumentException e) {
             throw new MojoExecutionException(e.getMessage(), e);
         }
-        return getFileForArtifact(artifact);
+        return getFileForArtifact(run, artifact);
     }
 
     /**
@@ -904,7 +3125,7 @@ public final class ProguardMojo extends AbstractMojo {
      * @return File
      * @throws MojoExecutionException
      */
-    protected File getFileForArtifact(org.eclipse.aether.artifact.Artifact aetherArtifact) throws MojoExecutionException {
+    protected File getFileForArtifact(Execution run, org.eclipse.aether.artifact.Artifact aetherArtifact) throws MojoExecutionException {
         String refId = aetherArtifact.getGroupId() + ":" + aetherArtifact.getArtifactId();
         MavenProject project = mavenProject.getProjectReferences().get(refId);
 
@@ -912,7 +3133,7 @@ public final class ProguardMojo extends AbstractMojo {
         if ((aetherArtifact.getClassifier() != null) || (project == null)) {
             File file = aetherArtifact.getFile();
             if ((file == null) || (!file.exists()))
-                return resolveArtifact(aetherArtifact);
+                return resolveArtifact(run, aetherArtifact);
             return file;
         }
 
@@ -927,12 +3148,33 @@ public final class ProguardMojo extends AbstractMojo {
      * @param artifactCoordinates
      * @throws MojoExecutionException
      */
-    protected File resolveArtifact(org.eclipse.aether.artifact.Artifact artifact) throws MojoExecutionException {
+    protected File resolveArtifact(Execution run, org.eclipse.aether.artifact.Artifact artifact) throws MojoExecutionException {
+        // Most artifacts have already been resolved in parallel
+        File resolved = (run.resolvedArtifactFiles != null) ? run.resolvedArtifactFiles.get(artifact.toString()) : null;
+        if (resolved != null)
+            return resolved;
+        return resolveArtifact(repoSystem, repoSession, remoteRepositories, artifact, getLog());
+    }
+
+    /**
+     * Resolves a single artifact from the remote repositories, also for goals other than this one
+     * 
+     * @param repoSystem
+     * @param repoSession
+     * @param remoteRepositories
+     * @param artifact
+     * @param log
+     * @return the resolved file
+     * @throws MojoExecutionException
+     *             if the artifact cannot be resolved
+     */
+    static File resolveArtifact(RepositorySystem repoSystem, RepositorySystemSession repoSession, List<RemoteRepository> remoteRepositories,
+            org.eclipse.aether.artifact.Artifact artifact, Log log) throws MojoExecutionException {
         ArtifactRequest request = new ArtifactRequest();
         request.setArtifact(artifact);
         request.setRepositories(remoteRepositories);
 
-        getLog().info("Attempting to resolving artifact " + artifact + " from " + remoteRepositories);
+        log.info("Attempting to resolving artifact " + artifact + " from " + remoteRepositories);
 
         ArtifactResult result;
         try {
@@ -941,7 +3183,7 @@ public final class ProguardMojo extends AbstractMojo {
             throw new MojoExecutionException(e.getMessage(), e);
         }
 
-        getLog().info("Successfully resolved artifact " + artifact + " to " + result.getArtifact().getFile() + " from " + result.getRepository());
+        log.info("Successfully resolved artifact " + artifact + " to " + result.getArtifact().getFile() + " from " + result.getRepository());
         return result.getArtifact().getFile();
     }
 
@@ -965,21 +3207,15 @@ public final class ProguardMojo extends AbstractMojo {
      * 
      * @param inJarName
      */
-    protected void addInputJar(String inJarName) {
+    protected void addInputJar(Execution run, String inJarName) {
         // TODO handle if there is a filter already specified
-        String nextInJarPath = returnQuotedFilename(resolveAbsoluteFile(inJarName, buildDirectory));
-        StringBuffer filter = new StringBuffer(nextInJarPath);
-        if (excludeManifests || excludeMavenDescriptor) {
-            filter.append("(");
-            if (excludeManifests)
-                filter.append("!META-INF/MANIFEST.MF");
-            if (excludeMavenDescriptor) {
-                if (excludeManifests)
-                    filter.append(",");
-                filter.append("!META-INF/maven/**");
-            }
-            filter.append(")");
-        }
-        args.add(new Option("injars", filter.toString()));
+        String filter = null;
+        if (excludeManifests && excludeMavenDescriptor)
+            filter = "!META-INF/MANIFEST.MF,!META-INF/maven/**";
+        else if (excludeManifests)
+            filter = "!META-INF/MANIFEST.MF";
+        else if (excludeMavenDescriptor)
+            filter = "!META-INF/maven/**";
+        run.args.add(new Option("injars", resolveAbsoluteFile(inJarName, buildDirectory), filter));
     }
 }
@@ -0,0 +1,475 @@
+package com.idfconnect.devtools.maven.proguard;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.zip.GZIPOutputStream;
+
+import proguard.ClassPath;
+import proguard.Configuration;
+import proguard.ConfigurationWriter;
+import proguard.GPL;
+import proguard.Initializer;
+import proguard.InputReader;
+import proguard.OutputWriter;
+import proguard.ProGuard;
+import proguard.SeedPrinter;
+import proguard.Targeter;
+import proguard.UpToDateChecker;
+import proguard.classfile.ClassPool;
+import proguard.classfile.editor.ClassElementSorter;
+import proguard.classfile.visitor.ClassPrinter;
+import proguard.obfuscate.Obfuscator;
+import proguard.obfuscate.SimpleNameFactory;
+import proguard.optimize.Optimizer;
+import proguard.preverify.Preverifier;
+import proguard.preverify.SubroutineInliner;
+import proguard.shrink.Shrinker;
+
+/**
+ * Runs ProGuard on a parsed configuration. Unless it needs control over the processing steps, the runner lets {@link ProGuard#execute()} perform
+ * them. With ProGuard 4.9, whose steps it repeats in the same order, it performs them itself when it has to: to obtain the library classes from a
+ * {@link LibraryClassCache}, which it releases once processing is complete, to measure each step in a {@link PhaseReport}, or to write reports whose
+ * file name ends with <code>.gz</code> compressed as they are printed. Each step it performs is recorded as a Flight Recorder event if the JVM records
+ * them, including in a forked JVM or the daemon. With any other ProGuard version a library class cache is refused, the whole run is measured as a
+ * single step, and compressed reports are printed plain by ProGuard and compressed afterwards.
+ * <p>
+ * ProGuard's {@link SimpleNameFactory} caches the names it generates in static lists that it does not synchronize, so runs obfuscating in the same
+ * JVM at the same time could give classes the same names or fail. Obfuscation is therefore serialized on that class: the obfuscation step when the
+ * runner performs the steps, and the whole run when ProGuard performs them.
+ */
+class ProguardRunner {
+    // The version of ProGuard whose processing steps the runner performs itself
+    static final String             STEPS_VERSION    = "ProGuard, version 4.9";
+
+    private final Configuration     configuration;
+    private final LibraryClassCache libraryClassCache;
+    private final PhaseReport       phaseReport;
+    private final String            execution;
+    private ClassPool               programClassPool = new ClassPool();
+    private final ClassPool         libraryClassPool = new ClassPool();
+
+    /**
+     * @param configuration
+     *            the fully parsed ProGuard configuration
+     * @param libraryClassCache
+     *            the cache to read library classes from, or null to let ProGuard parse the library jars itself
+     */
+    ProguardRunner(Configuration configuration, LibraryClassCache libraryClassCache) {
+        this(configuration, libraryClassCache, null, null);
+    }
+
+    /**
+     * @param configuration
+     *            the fully parsed ProGuard configuration
+     * @param libraryClassCache
+     *            the cache to read library classes from, or null to let ProGuard parse the library jars itself
+     * @param phaseReport
+     *            the report to record each processing step and the class counts in, or null
+     * @param execution
+     *            the name of the execution the steps belong to, such as the name of a variant or shard, or null
+     */
+    ProguardRunner(Configuration configuration, LibraryClassCache libraryClassCache, PhaseReport phaseReport, String execution) {
+        this.configuration = configuration;
+        this.libraryClassCache = libraryClassCache;
+        this.phaseReport = phaseReport;
+        this.execution = execution;
+    }
+
+    /**
+     * Returns the version of the ProGuard classes at run time. {@link ProGuard#VERSION} is a constant, so referring to it directly yields the version
+     * the plug-in was compiled against
+     *
+     * @return the version, such as <code>ProGuard, version 4.9</code>
+     */
+    static String getProguardVersion() {
+        try {
+            return String.valueOf(ProGuard.class.getField("VERSION").get(null));
+        } catch (Exception e) {
+            return ProGuard.VERSION;
+        }
+    }
+
+    /**
+     * Makes sure that a library class cache can be used with the ProGuard version at run time
+     *
+     * @throws IllegalStateException
+     *             if it cannot
+     */
+    static void checkLibraryClassCache() {
+        String version = getProguardVersion();
+        if (!STEPS_VERSION.equals(version))
+            throw new IllegalStateException("The library cache and the shared library pools only work with " + STEPS_VERSION + ", not with " + version
+                    + "; set libraryCache to false and sharedLibraryPoolMaxClasses to 0");
+    }
+
+    /**
+     * Performs all of the ProGuard processing steps
+     *
+     * @throws IOException
+     */
+    void execute() throws IOException {
+        try {
+            if (libraryClassCache != null)
+                checkLibraryClassCache();
+            boolean steps = STEPS_VERSION.equals(getProguardVersion());
+            if (steps && (libraryClassCache != null || phaseReport != null || hasCompressedReport()))
+                process();
+            else
+                executeProguard();
+        } finally {
+            if (libraryClassCache != null)
+                libraryClassCache.release();
+        }
+    }
+
+    /**
+     * Lets ProGuard perform all of the processing steps, with any compressed report printed to a plain file first and then compressed
+     *
+     * @throws IOException
+     */
+    private void executeProguard() throws IOException {
+        File[] reports = getReports();
+        File[] plain = new File[reports.length];
+        for (int i = 0; i < reports.length; i++) {
+            if (isCompressed(reports[i]))
+                plain[i] = new File(reports[i].getParentFile(), "." + reports[i].getName() + ".tmp");
+        }
+        setReports(plain, reports);
+        try {
+            PhaseEvents.Phase phase = begin("execute");
+            if (configuration.obfuscate) {
+                synchronized (SimpleNameFactory.class) {
+                    new ProGuard(configuration).execute();
+                }
+            } else
+                new ProGuard(configuration).execute();
+            for (int i = 0; i < reports.length; i++) {
+                if (plain[i] != null && plain[i].exists())
+                    compress(plain[i], reports[i]);
+            }
+            end(phase);
+        } finally {
+            setReports(reports, null);
+            for (File f : plain) {
+                if (f != null)
+                    Files.deleteIfExists(f.toPath());
+            }
+        }
+    }
+
+    /**
+     * @return the reports ProGuard prints: the configuration, the seeds, the usage and the dump, each of which may be null
+     */
+    private File[] getReports() {
+        return new File[] { configuration.printConfiguration, configuration.printSeeds, configuration.printUsage, configuration.dump };
+    }
+
+    /**
+     * Sets the reports ProGuard prints, in the order of {@link #getReports()}
+     *
+     * @param reports
+     * @param defaults
+     *            the reports to set where <em>reports</em> holds null, or null
+     */
+    private void setReports(File[] reports, File[] defaults) {
+        File[] files = reports.clone();
+        for (int i = 0; defaults != null && i < files.length; i++) {
+            if (files[i] == null)
+                files[i] = defaults[i];
+        }
+        configuration.printConfiguration = files[0];
+        configuration.printSeeds = files[1];
+        configuration.printUsage = files[2];
+        configuration.dump = files[3];
+    }
+
+    private boolean hasCompressedReport() {
+        for (File f : getReports()) {
+            if (isCompressed(f))
+                return true;
+        }
+        return false;
+    }
+
+    private void process() throws IOException {
+        System.out.println(ProGuard.VERSION);
+        GPL.check();
+
+        if (configuration.printConfiguration != null) {
+            PhaseEvents.Phase phase = begin("printConfiguration");
+            printConfiguration();
+            end(phase);
+        }
+
+        if (configuration.programJars != null && configuration.programJars.hasOutput() && new UpToDateChecker(configuration).check())
+            return;
+
+        PhaseEvents.Phase phase = begin("readInput");
+        readInput();
+        if (phase != null)
+            phase.setClasses(programClassPool.size() + libraryClassPool.size());
+        end(phase);
+        if (phaseReport != null) {
+            phaseReport.setCount(execution, "inputClasses", programClassPool.size());
+            phaseReport.setCount(execution, "libraryClasses", libraryClassPool.size());
+        }
+
+        if (configuration.printSeeds != null || configuration.shrink || configuration.optimize || configuration.obfuscate || configuration.preverify) {
+            phase = begin("initialize");
+            initialize();
+            end(phase);
+        }
+
+        if (configuration.targetClassVersion != 0) {
+            phase = begin("target");
+            target();
+            end(phase);
+        }
+
+        if (configuration.printSeeds != null) {
+            phase = begin("printSeeds");
+            printSeeds();
+            end(phase);
+        }
+
+        if (configuration.shrink) {
+            phase = begin("shrink");
+            shrink();
+            end(phase);
+        }
+
+        if (configuration.preverify) {
+            phase = begin("inlineSubroutines");
+            inlineSubroutines();
+            end(phase);
+        }
+
+        if (configuration.optimize) {
+            for (int optimizationPass = 0; optimizationPass < configuration.optimizationPasses; optimizationPass++) {
+                phase = begin("optimize." + (optimizationPass + 1));
+                boolean optimized = optimize();
+                end(phase);
+                if (!optimized)
+                    break;
+
+                // Shrink again, if we may, without printing any usage this time around
+                if (configuration.shrink) {
+                    configuration.printUsage = null;
+                    configuration.whyAreYouKeeping = null;
+                    phase = begin("shrink." + (optimizationPass + 1));
+                    shrink();
+                    end(phase);
+                }
+            }
+        }
+
+        if (configuration.obfuscate) {
+            phase = begin("obfuscate");
+            obfuscate();
+            end(phase);
+        }
+
+        if (configuration.preverify) {
+            phase = begin("preverify");
+            preverify();
+            end(phase);
+        }
+
+        if (configuration.shrink || configuration.optimize || configuration.obfuscate || configuration.preverify) {
+            phase = begin("sortClassElements");
+            sortClassElements();
+            end(phase);
+        }
+
+        if (configuration.programJars.hasOutput()) {
+            phase = begin("writeOutput");
+            writeOutput();
+            if (phase != null)
+                phase.setClasses(programClassPool.size());
+            end(phase);
+        }
+        if (phaseReport != null)
+            phaseReport.setCount(execution, "outputClasses", programClassPool.size());
+
+        if (configuration.dump != null) {
+            phase = begin("dump");
+            dump();
+            end(phase);
+        }
+    }
+
+    private PhaseEvents.Phase begin(String name) {
+        return PhaseEvents.begin(phaseReport, name, execution);
+    }
+
+    private static void end(PhaseEvents.Phase phase) {
+        if (phase != null)
+            phase.end();
+    }
+
+    private void printConfiguration() throws IOException {
+        verbose("Printing configuration to [" + fileName(configuration.printConfiguration) + "]...");
+        PrintStream ps = createPrintStream(configuration.printConfiguration);
+        try {
+            new ConfigurationWriter(ps).write(configuration);
+        } finally {
+            closePrintStream(ps);
+        }
+    }
+
+    private void readInput() throws IOException {
+        verbose("Reading input...");
+        if (libraryClassCache == null || configuration.libraryJars == null) {
+            new InputReader(configuration).execute(programClassPool, libraryClassPool);
+            return;
+        }
+
+        // Let ProGuard read the program classes only, then fill in the library classes from the cache
+        ClassPath libraryJars = configuration.libraryJars;
+        configuration.libraryJars = null;
+        try {
+            new InputReader(configuration).execute(programClassPool, libraryClassPool);
+        } finally {
+            configuration.libraryJars = libraryJars;
+        }
+        libraryClassCache.fill(configuration, libraryJars, programClassPool, libraryClassPool);
+    }
+
+    private void initialize() throws IOException {
+        verbose("Initializing...");
+        new Initializer(configuration).execute(programClassPool, libraryClassPool);
+    }
+
+    private void target() throws IOException {
+        verbose("Setting target versions...");
+        new Targeter(configuration).execute(programClassPool);
+    }
+
+    private void printSeeds() throws IOException {
+        verbose("Printing kept classes, fields, and methods...");
+        PrintStream ps = createPrintStream(configuration.printSeeds);
+        try {
+            new SeedPrinter(ps).write(configuration, programClassPool, libraryClassPool);
+        } finally {
+            closePrintStream(ps);
+        }
+    }
+
+    private void shrink() throws IOException {
+        verbose("Shrinking...");
+        if (configuration.whyAreYouKeeping != null)
+            System.out.println("Explaining why classes and class members are being kept...");
+        File usage = configuration.printUsage;
+        if (usage != null)
+            verbose("Printing usage to [" + fileName(usage) + "]...");
+
+        // The shrinker opens the usage file itself, and the marking it prints from cannot be repeated outside of ProGuard, whose usage marker is
+        // not public, so a compressed report is written in full first and then compressed
+        File plain = isCompressed(usage) ? new File(usage.getParentFile(), "." + usage.getName() + ".tmp") : null;
+        if (plain != null)
+            configuration.printUsage = plain;
+        try {
+            programClassPool = new Shrinker(configuration).execute(programClassPool, libraryClassPool);
+            if (plain != null)
+                compress(plain, usage);
+        } finally {
+            configuration.printUsage = usage;
+            if (plain != null)
+                Files.deleteIfExists(plain.toPath());
+        }
+    }
+
+    private void inlineSubroutines() {
+        verbose("Inlining subroutines...");
+        new SubroutineInliner(configuration).execute(programClassPool);
+    }
+
+    private boolean optimize() throws IOException {
+        verbose("Optimizing...");
+        return new Optimizer(configuration).execute(programClassPool, libraryClassPool);
+    }
+
+    private void obfuscate() throws IOException {
+        verbose("Obfuscating...");
+        if (configuration.applyMapping != null)
+            verbose("Applying mapping [" + fileName(configuration.applyMapping) + "]");
+        if (configuration.printMapping != null)
+            verbose("Printing mapping to [" + fileName(configuration.printMapping) + "]...");
+        synchronized (SimpleNameFactory.class) {
+            new Obfuscator(configuration).execute(programClassPool, libraryClassPool);
+        }
+    }
+
+    private void preverify() {
+        verbose("Preverifying...");
+        new Preverifier(configuration).execute(programClassPool);
+    }
+
+    private void sortClassElements() {
+        programClassPool.classesAccept(new ClassElementSorter());
+    }
+
+    private void writeOutput() throws IOException {
+        verbose("Writing output...");
+        new OutputWriter(configuration).execute(programClassPool);
+    }
+
+    private void dump() throws IOException {
+        verbose("Printing classes to [" + fileName(configuration.dump) + "]...");
+        PrintStream ps = createPrintStream(configuration.dump);
+        try {
+            programClassPool.classesAccept(new ClassPrinter(ps));
+        } finally {
+            closePrintStream(ps);
+        }
+    }
+
+    private void verbose(String message) {
+        if (configuration.verbose)
+            System.out.println(message);
+    }
+
+    private static PrintStream createPrintStream(File file) throws IOException {
+        return (file == Configuration.STD_OUT) ? System.out : new PrintStream(createOutputStream(file));
+    }
+
+    private static OutputStream createOutputStream(File file) throws IOException {
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 65536);
+        return isCompressed(file) ? new GZIPOutputStream(out, 65536) : out;
+    }
+
+    private static void compress(File plain, File file) throws IOException {
+        OutputStream out = createOutputStream(file);
+        try {
+            Files.copy(plain.toPath(), out);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static boolean isCompressed(File file) {
+        return file != null && file != Configuration.STD_OUT && file.getName().endsWith(".gz");
+    }
+
+    private static void closePrintStream(PrintStream ps) {
+        if (ps == System.out)
+            ps.flush();
+        else
+            ps.close();
+    }
+
+    private static String fileName(File file) {
+        if (file == Configuration.STD_OUT)
+            return "standard output";
+        try {
+            return file.getCanonicalPath();
+        } catch (IOException e) {
+            return file.getPath();
+        }
+    }
+}
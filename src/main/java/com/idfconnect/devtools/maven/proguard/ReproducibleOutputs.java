@@ -0,0 +1,135 @@
+package com.idfconnect.devtools.maven.proguard;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Helps making the outputs of a ProGuard run the same, byte for byte, for the same inputs, and leaving outputs whose contents did not change in
+ * place, so that their modification times do not trigger the steps that consume them
+ */
+final class ReproducibleOutputs {
+    /**
+     * The time output archive entries are dated when no other time is configured: 1980-01-01T00:00:00Z, the earliest time a zip entry can have
+     */
+    static final long DEFAULT_TIME = 315532800000L;
+
+    private static final Comparator<List<String>> BY_CLASS_LINE = new Comparator<List<String>>() {
+        public int compare(List<String> a, List<String> b) {
+            return a.get(0).compareTo(b.get(0));
+        }
+    };
+
+    private ReproducibleOutputs() {
+    }
+
+    /**
+     * Parses a timestamp the way the Maven archiver parses <code>project.build.outputTimestamp</code>
+     *
+     * @param timestamp
+     *            an ISO 8601 date and time with an offset, such as <code>2024-01-01T00:00:00Z</code>, or a number of seconds since the epoch; values
+     *            shorter than two characters, as Maven uses to disable the property, and null stand for {@link #DEFAULT_TIME}
+     * @return the time in milliseconds since the epoch
+     * @throws IllegalArgumentException
+     *             if the timestamp cannot be parsed
+     */
+    static long parseTimestamp(String timestamp) {
+        if (timestamp == null || timestamp.trim().length() < 2)
+            return DEFAULT_TIME;
+        timestamp = timestamp.trim();
+        if (timestamp.matches("\\d+"))
+            return Long.parseLong(timestamp) * 1000;
+        try {
+            return OffsetDateTime.parse(timestamp).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid output timestamp " + timestamp + ": expected an ISO 8601 date and time such as 2024-01-01T00:00:00Z or seconds since the epoch");
+        }
+    }
+
+    /**
+     * Writes a ProGuard mapping file with its classes in the order of their original names and Unix line endings. The members of each class keep
+     * their order
+     *
+     * @param mapping
+     * @param sorted
+     *            the file to write the sorted mapping to
+     * @return the number of classes
+     * @throws IOException
+     */
+    static int sortMapping(File mapping, File sorted) throws IOException {
+        // Lines before the first class, if any, stay in front
+        List<String> header = new ArrayList<String>();
+        List<List<String>> classes = new ArrayList<List<String>>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(mapping), StandardCharsets.UTF_8), 65536);
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.length() > 0 && !Character.isWhitespace(line.charAt(0)) && line.endsWith(":")) {
+                    List<String> lines = new ArrayList<String>();
+                    lines.add(line);
+                    classes.add(lines);
+                } else if (classes.isEmpty())
+                    header.add(line);
+                else
+                    classes.get(classes.size() - 1).add(line);
+            }
+        } finally {
+            reader.close();
+        }
+        Collections.sort(classes, BY_CLASS_LINE);
+
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(sorted), StandardCharsets.UTF_8), 65536);
+        try {
+            for (String line : header)
+                writer.write(line + "\n");
+            for (List<String> lines : classes) {
+                for (String line : lines)
+                    writer.write(line + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+        return classes.size();
+    }
+
+    /**
+     * Moves a newly written file over its destination, unless the destination already has the same contents. In that case the new file is deleted
+     * and the destination is kept, with its modification time
+     *
+     * @param file
+     * @param destination
+     * @return true if the destination was replaced, false if it was kept
+     * @throws IOException
+     */
+    static boolean replaceIfChanged(File file, File destination) throws IOException {
+        if (destination.isFile() && destination.length() == file.length() && FileUtils.contentEquals(file, destination)) {
+            if (!file.delete())
+                throw new IOException("Cannot delete " + file);
+            return false;
+        }
+        try {
+            Files.move(file.toPath(), destination.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(file.toPath(), destination.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,598 @@
+package com.idfconnect.devtools.maven.proguard;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugins.annotations.Component;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.eclipse.aether.RepositorySystem;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.repository.RemoteRepository;
+
+/**
+ * De-obfuscates stack traces in log files with a ProGuard mapping, reading the logs in chunks of lines that are retraced in parallel and written
+ * back in their original order.
+ * <p>
+ * The mapping is looked up through a {@link MappingIndex}, so it is never loaded onto the heap. It is either a local file or the mapping attached by
+ * the <em>obfuscate</em> goal for a given version, resolved from the repositories. The mapping index attached with <em>printMappingIndex</em> is
+ * used if there is one; otherwise the index is built from the mapping file first. Stack frames, and class names at the start of exception lines
+ * such as <code>Caused by:</code>, are retraced; a frame whose method is ambiguous is followed by lines with the other candidate methods, as
+ * ProGuard's ReTrace does. Every line keeps its original terminator. The throughput is logged for every file and in total.
+ */
+@Mojo(name = "retrace", requiresProject = false, threadSafe = true)
+public final class RetraceMojo extends AbstractMojo {
+    /**
+     * The log files to retrace
+     */
+    @Parameter(property = "proguard.retrace.inputFiles", required = true)
+    private File[]                  inputFiles;
+
+    /**
+     * The directory the retraced logs are written to, each with the name of its input file. Defaults to
+     * <em>${project.build.directory}/retrace</em>
+     */
+    @Parameter(defaultValue = "${project.build.directory}/retrace", property = "proguard.retrace.outputDirectory")
+    private File                    outputDirectory;
+
+    /**
+     * The base directory, which holds the retraced logs when the goal runs without a project
+     */
+    @Parameter(defaultValue = "${basedir}", readonly = true)
+    private File                    basedir;
+
+    /**
+     * A local mapping file, or mapping index written with <em>printMappingIndex</em>. Takes precedence over <em>mappingArtifact</em>
+     */
+    @Parameter(property = "proguard.retrace.mappingFile")
+    private File                    mappingFile;
+
+    /**
+     * The coordinates of the project whose attached mapping is used, as <code>groupId:artifactId:version</code>. Coordinates of the form
+     * <code>groupId:artifactId:extension[:classifier]:version</code> name the mapping artifact itself. Defaults to the current project, so it must
+     * be set, or else <em>mappingFile</em>, when the goal runs without one
+     */
+    @Parameter(defaultValue = "${project.groupId}:${project.artifactId}:${project.version}", property = "proguard.retrace.mappingArtifact")
+    private String                  mappingArtifact;
+
+    /**
+     * The classifier the mapping was attached with, which is the <em>defaultOutputArtifactClassifier</em> of the <em>obfuscate</em> goal. Defaults
+     * to <em>small</em>
+     */
+    @Parameter(defaultValue = "small", property = "proguard.retrace.mappingClassifier")
+    private String                  mappingClassifier;
+
+    /**
+     * The classifier the mapping index was attached with, which is the <em>printMappingIndexClassifier</em> of the <em>obfuscate</em> goal.
+     * Defaults to <em>proguard-mapping-index</em>
+     */
+    @Parameter(defaultValue = "proguard-mapping-index", property = "proguard.retrace.mappingIndexClassifier")
+    private String                  mappingIndexClassifier;
+
+    /**
+     * The encoding of the log files. Defaults to UTF-8
+     */
+    @Parameter(defaultValue = "UTF-8", property = "proguard.retrace.encoding")
+    private String                  encoding;
+
+    /**
+     * The number of threads retracing chunks of lines. Defaults to 0, meaning one per available processor
+     */
+    @Parameter(defaultValue = "0", property = "proguard.retrace.threads")
+    private int                     threads;
+
+    /**
+     * The approximate number of characters in each chunk of lines handed to a thread. Defaults to 1048576
+     */
+    @Parameter(defaultValue = "1048576", property = "proguard.retrace.chunkSize")
+    private int                     chunkSize;
+
+    /**
+     * RepositorySystemSession
+     */
+    @Parameter(defaultValue = "${repositorySystemSession}", required = true, readonly = true)
+    private RepositorySystemSession repoSession;
+
+    /**
+     * RepositorySystem
+     */
+    @Component
+    private RepositorySystem        repoSystem;
+
+    /**
+     * The project's remote repositories to use for the resolution.
+     */
+    @Parameter(defaultValue = "${project.remoteProjectRepositories}", readonly = true)
+    private List<RemoteRepository>  remoteRepositories;
+
+    /**
+     * Main execution method
+     */
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        Log log = getLog();
+        // Without a project, the build directory is left unresolved
+        if (outputDirectory.getPath().contains("${"))
+            outputDirectory = new File(basedir, "target" + File.separator + "retrace");
+        if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs())
+            throw new MojoFailureException("Cannot create directory " + outputDirectory);
+
+        // Open the index of the mapping, building it first if only the mapping itself is available
+        File indexFile = null;
+        File temporaryIndex = null;
+        File mapping = getMapping();
+        if (isIndex(mapping))
+            indexFile = mapping;
+        else {
+            try {
+                temporaryIndex = File.createTempFile("retrace", ".idx", outputDirectory);
+                long start = System.currentTimeMillis();
+                int classes = MappingIndexWriter.write(mapping, temporaryIndex);
+                log.info("Indexed " + classes + " classes of " + mapping + " in " + (System.currentTimeMillis() - start) + " ms");
+            } catch (IOException e) {
+                if (temporaryIndex != null)
+                    temporaryIndex.delete();
+                throw new MojoExecutionException("Failed to index the mapping " + mapping, e);
+            }
+            indexFile = temporaryIndex;
+        }
+
+        int threadCount = (threads > 0) ? threads : Runtime.getRuntime().availableProcessors();
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        MappingIndex index = null;
+        try {
+            index = MappingIndex.open(indexFile);
+            long totalBytes = 0;
+            long start = System.nanoTime();
+            for (File input : inputFiles) {
+                File output = new File(outputDirectory, input.getName());
+                if (output.getCanonicalFile().equals(input.getCanonicalFile()))
+                    throw new MojoFailureException("The retraced log " + output + " would overwrite its input");
+                long fileStart = System.nanoTime();
+                long bytes = retrace(index, input, output, executor, threadCount);
+                log.info("Retraced " + input + " to " + output + " at " + throughput(bytes, System.nanoTime() - fileStart));
+                totalBytes += bytes;
+            }
+            if (inputFiles.length > 1)
+                log.info("Retraced " + inputFiles.length + " files (" + (totalBytes / (1024 * 1024)) + " MB) at " + throughput(totalBytes, System.nanoTime() - start));
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to retrace: " + e.getMessage(), e);
+        } finally {
+            executor.shutdownNow();
+            if (index != null) {
+                try {
+                    index.close();
+                } catch (IOException e) {
+                    log.debug("Could not close " + indexFile + ": " + e.getMessage());
+                }
+            }
+            if (temporaryIndex != null && !temporaryIndex.delete())
+                temporaryIndex.deleteOnExit();
+        }
+    }
+
+    /**
+     * @return the local mapping file, or else the mapping index or mapping resolved from the repositories
+     * @throws MojoExecutionException
+     */
+    private File getMapping() throws MojoExecutionException {
+        if (mappingFile != null) {
+            if (!mappingFile.isFile())
+                throw new MojoExecutionException("Cannot find mapping file " + mappingFile);
+            return mappingFile;
+        }
+        // Without a project, the default coordinates are left unresolved or name the stub project Maven runs in
+        if (mappingArtifact == null || mappingArtifact.contains("${") || mappingArtifact.startsWith("org.apache.maven:standalone-pom:"))
+            throw new MojoExecutionException("There is no project to take the mapping from; set mappingFile (proguard.retrace.mappingFile) or "
+                    + "mappingArtifact (proguard.retrace.mappingArtifact)");
+        String[] parts = mappingArtifact.split(":");
+        if (parts.length != 3)
+            return ProguardMojo.resolveArtifact(repoSystem, repoSession, remoteRepositories, new DefaultArtifact(mappingArtifact), getLog());
+
+        // Prefer the index, which does not need to be built first
+        try {
+            return ProguardMojo.resolveArtifact(repoSystem, repoSession, remoteRepositories, new DefaultArtifact(parts[0], parts[1], mappingIndexClassifier,
+                    "idx", parts[2]), getLog());
+        } catch (MojoExecutionException e) {
+            getLog().info("No mapping index was attached for " + mappingArtifact + ", using the mapping");
+        }
+        return ProguardMojo.resolveArtifact(repoSystem, repoSession, remoteRepositories, new DefaultArtifact(parts[0], parts[1], mappingClassifier, "map",
+                parts[2]), getLog());
+    }
+
+    /**
+     * @return true if the file starts with the magic number of a {@link MappingIndex}
+     */
+    private static boolean isIndex(File file) throws MojoExecutionException {
+        try {
+            InputStream in = new FileInputStream(file);
+            try {
+                int magic = 0;
+                for (int i = 0; i < 4; i++) {
+                    int b = in.read();
+                    if (b < 0)
+                        return false;
+                    magic = (magic << 8) | b;
+                }
+                return magic == MappingIndex.MAGIC;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException("Cannot read mapping " + file, e);
+        }
+    }
+
+    /**
+     * Retraces a single file, reading it in chunks that are retraced in parallel and written in order
+     *
+     * @return the number of bytes read
+     */
+    private long retrace(final MappingIndex index, File input, File output, ExecutorService executor, int threadCount) throws IOException {
+        CountingInputStream counter = new CountingInputStream(new FileInputStream(input));
+        LineReader reader = new LineReader(new InputStreamReader(counter, encoding));
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(output), encoding), 65536);
+        try {
+            LinkedList<Future<String>> window = new LinkedList<Future<String>>();
+            boolean eof = false;
+            while (!eof || !window.isEmpty()) {
+                while (!eof && window.size() < threadCount * 2) {
+                    final List<String> chunk = new ArrayList<String>();
+                    int size = 0;
+                    while (size < chunkSize) {
+                        String line = reader.readLine();
+                        if (line == null) {
+                            eof = true;
+                            break;
+                        }
+                        chunk.add(line);
+                        size += line.length();
+                    }
+                    if (chunk.isEmpty())
+                        break;
+                    window.add(executor.submit(new Callable<String>() {
+                        public String call() {
+                            Retracer retracer = new Retracer(index);
+                            StringBuilder sb = new StringBuilder(chunk.size() * 80);
+                            for (String l : chunk)
+                                retracer.retrace(l, sb);
+                            return sb.toString();
+                        }
+                    }));
+                }
+                if (!window.isEmpty())
+                    writer.write(window.removeFirst().get());
+            }
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to retrace " + input, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while retracing " + input, e);
+        } finally {
+            reader.close();
+            writer.close();
+        }
+        return counter.count;
+    }
+
+    private static String throughput(long bytes, long nanos) {
+        double seconds = Math.max(nanos, 1) / 1e9;
+        return String.format("%.1f MB/s (%d bytes in %.2f s)", bytes / (1024.0 * 1024.0) / seconds, bytes, seconds);
+    }
+
+    /**
+     * Retraces the lines of a single chunk. Logs repeat the same frames over and over, so the frames and class names looked up in the index are kept
+     * for the rest of the chunk
+     */
+    static class Retracer {
+        private final MappingIndex          index;
+        private final Map<String, String[]> frames  = new HashMap<String, String[]>();
+        private final Map<String, String>   classes = new HashMap<String, String>();
+
+        Retracer(MappingIndex index) {
+            this.index = index;
+        }
+
+        /**
+         * Retraces a single line, appending the result and any lines with alternatives, each ended with the terminator of the line
+         *
+         * @param line
+         *            the line, with its terminator if it has one
+         * @param sb
+         */
+        void retrace(String line, StringBuilder sb) {
+            int length = line.length();
+            if (length > 0 && line.charAt(length - 1) == '\n')
+                length--;
+            if (length > 0 && line.charAt(length - 1) == '\r')
+                length--;
+            String terminator = line.substring(length);
+            line = line.substring(0, length);
+
+            int[] frame = parseFrame(line);
+            if (frame != null) {
+                String lineNumber = (frame[3] >= 0) ? line.substring(frame[3] + 1, frame[4]) : null;
+                String[] retraced = retraceFrame(line.substring(frame[0], frame[1]), line.substring(frame[1] + 1, frame[2]), lineNumber);
+                if (retraced != null) {
+                    // The class name, the original line number or null, and the candidate methods
+                    int prefixLength = frame[0] + retraced[0].length() + 1;
+                    sb.append(line, 0, frame[0]).append(retraced[0]).append('.').append(retraced[2]);
+                    sb.append(line, frame[2], (frame[3] >= 0) ? frame[3] : frame[4]);
+                    if (retraced[1] != null)
+                        sb.append(':').append(retraced[1]);
+                    sb.append(line, frame[4], line.length());
+
+                    // Ambiguous methods are listed below the first one, aligned with it, even after a last line without a terminator
+                    for (int i = 3; i < retraced.length; i++) {
+                        sb.append(terminator.isEmpty() ? "\n" : terminator);
+                        for (int j = 0; j < prefixLength; j++)
+                            sb.append(' ');
+                        sb.append(retraced[i]);
+                    }
+                    sb.append(terminator);
+                    return;
+                }
+            }
+
+            int[] exception = parseException(line);
+            if (exception != null) {
+                String className = getClassName(line.substring(exception[0], exception[1]));
+                if (className != null) {
+                    sb.append(line, 0, exception[0]).append(className).append(line, exception[1], line.length()).append(terminator);
+                    return;
+                }
+            }
+            sb.append(line).append(terminator);
+        }
+
+        private String[] retraceFrame(String obfuscatedClass, String obfuscatedMethod, String lineNumber) {
+            String key = obfuscatedClass + ' ' + obfuscatedMethod + ' ' + lineNumber;
+            if (frames.containsKey(key))
+                return frames.get(key);
+
+            String[] retraced = null;
+            String className = getClassName(obfuscatedClass);
+            if (className != null) {
+                int line = (lineNumber != null) ? Integer.parseInt(lineNumber) : 0;
+                List<MappingIndex.Member> methods = index.getMethods(obfuscatedClass, obfuscatedMethod, line);
+                retraced = new String[2 + Math.max(1, methods.size())];
+                retraced[0] = className;
+                if (methods.isEmpty()) {
+                    retraced[1] = lineNumber;
+                    retraced[2] = obfuscatedMethod;
+                } else {
+                    retraced[1] = (lineNumber != null) ? String.valueOf(methods.get(0).getOriginalLine(line)) : null;
+                    for (int i = 0; i < methods.size(); i++)
+                        retraced[2 + i] = methods.get(i).getName();
+                }
+            }
+            frames.put(key, retraced);
+            return retraced;
+        }
+
+        /**
+         * Finds a stack frame such as <code>at a.b.c(SourceFile:12)</code> in a line, the way the pattern
+         * <code>.*?\bat\s+([^\s(]+)\.([^\s.(]+)\(([^:)]*)(?::(\d+))?\).*</code> would, but without the cost of a regular expression. Frames
+         * whose line number does not fit in an int are skipped
+         *
+         * @return the start of the class name, the dot before the method name, the opening parenthesis, the colon before the line number or -1, and
+         *         the closing parenthesis; or null if there is no frame
+         */
+        static int[] parseFrame(String line) {
+            int n = line.length();
+            for (int at = line.indexOf("at"); at >= 0; at = line.indexOf("at", at + 1)) {
+                if (at > 0 && isWordChar(line.charAt(at - 1)))
+                    continue;
+                int start = at + 2;
+                if (start >= n || !Character.isWhitespace(line.charAt(start)))
+                    continue;
+                while (start < n && Character.isWhitespace(line.charAt(start)))
+                    start++;
+                int open = start;
+                while (open < n && line.charAt(open) != '(' && !Character.isWhitespace(line.charAt(open)))
+                    open++;
+                if (open >= n || line.charAt(open) != '(')
+                    continue;
+                int dot = line.lastIndexOf('.', open - 1);
+                if (dot <= start || dot == open - 1)
+                    continue;
+                int end = open + 1;
+                while (end < n && line.charAt(end) != ':' && line.charAt(end) != ')')
+                    end++;
+                int colon = -1;
+                if (end < n && line.charAt(end) == ':') {
+                    colon = end++;
+                    long number = 0;
+                    while (end < n && Character.isDigit(line.charAt(end)) && number <= Integer.MAX_VALUE)
+                        number = number * 10 + Character.digit(line.charAt(end++), 10);
+                    if (end == colon + 1 || number > Integer.MAX_VALUE)
+                        continue;
+                }
+                if (end < n && line.charAt(end) == ')')
+                    return new int[] { start, dot, open, colon, end };
+            }
+            return null;
+        }
+
+        /**
+         * Finds the class name of an exception line such as <code>Caused by: a.b: message</code>, the way the pattern
+         * <code>(?:.*?[:"]\s+)?(\p{L}[\p{L}\p{N}]*(?:\.\p{L}[\p{L}\p{N}]*)+)(?::.*)?</code> would, with <code>_</code> and <code>$</code>
+         * counting as letters
+         *
+         * @return the start and end of the class name, or null if there is none
+         */
+        static int[] parseException(String line) {
+            int n = line.length();
+            int start = 0;
+            while (start < n) {
+                int end = scanClassName(line, start);
+                if (end > 0 && (end == n || line.charAt(end) == ':'))
+                    return new int[] { start, end };
+
+                // The next candidate follows a colon or quote and white space
+                int next = start;
+                while (next < n) {
+                    char c = line.charAt(next++);
+                    if ((c == ':' || c == '"') && next < n && Character.isWhitespace(line.charAt(next)))
+                        break;
+                }
+                while (next < n && Character.isWhitespace(line.charAt(next)))
+                    next++;
+                if (next >= n)
+                    break;
+                start = next;
+            }
+            return null;
+        }
+
+        /**
+         * @return the end of the dotted class name starting at the provided position, or -1 if there is no class name with at least one dot
+         */
+        private static int scanClassName(String line, int start) {
+            int n = line.length();
+            int i = start;
+            int segments = 0;
+            while (true) {
+                if (i >= n || !isIdentifierStart(line.charAt(i)))
+                    return -1;
+                i++;
+                while (i < n && isIdentifierPart(line.charAt(i)))
+                    i++;
+                segments++;
+                if (i < n && line.charAt(i) == '.')
+                    i++;
+                else
+                    return (segments > 1) ? i : -1;
+            }
+        }
+
+        private static boolean isWordChar(char c) {
+            return c == '_' || Character.isLetterOrDigit(c);
+        }
+
+        private static boolean isIdentifierStart(char c) {
+            return c == '_' || c == '$' || Character.isLetter(c);
+        }
+
+        private static boolean isIdentifierPart(char c) {
+            return c == '_' || c == '$' || Character.isLetterOrDigit(c);
+        }
+
+        private String getClassName(String obfuscatedClass) {
+            if (classes.containsKey(obfuscatedClass))
+                return classes.get(obfuscatedClass);
+            String className = index.getClassName(obfuscatedClass);
+            classes.put(obfuscatedClass, className);
+            return className;
+        }
+    }
+
+    /**
+     * Reads lines together with their terminator, <code>\n</code>, <code>\r\n</code> or <code>\r</code>, so that they are written back as they were
+     */
+    private static class LineReader {
+        private final Reader in;
+        private final char[] buffer   = new char[65536];
+        private int          position = 0;
+        private int          limit    = 0;
+
+        LineReader(Reader in) {
+            this.in = in;
+        }
+
+        /**
+         * @return the next line with its terminator, which the last line may not have, or null at the end of the input
+         */
+        String readLine() throws IOException {
+            StringBuilder line = null;
+            while (true) {
+                if (position >= limit && !fill())
+                    return (line != null) ? line.toString() : null;
+                int start = position;
+                while (position < limit) {
+                    char c = buffer[position++];
+                    if (c == '\n')
+                        return append(line, start).toString();
+                    if (c == '\r') {
+                        line = append(line, start);
+                        if ((position < limit || fill()) && buffer[position] == '\n')
+                            line.append(buffer[position++]);
+                        return line.toString();
+                    }
+                }
+                line = append(line, start);
+            }
+        }
+
+        private StringBuilder append(StringBuilder line, int start) {
+            if (line == null)
+                line = new StringBuilder(Math.max(80, position - start));
+            return line.append(buffer, start, position - start);
+        }
+
+        /**
+         * Reads more characters into the emptied buffer
+         *
+         * @return false at the end of the input
+         */
+        private boolean fill() throws IOException {
+            position = 0;
+            limit = Math.max(in.read(buffer), 0);
+            return limit > 0;
+        }
+
+        void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * Counts the bytes read, to report the throughput
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        long count = 0;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0)
+                count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0)
+                count += n;
+            return n;
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package com.idfconnect.devtools.maven.proguard;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import proguard.classfile.LibraryClass;
+import proguard.classfile.LibraryField;
+import proguard.classfile.LibraryMethod;
+
+import com.idfconnect.devtools.maven.proguard.LibraryClassCache.CachedClass;
+
+/**
+ * An in-memory registry of parsed library jars shared by all plugin executions in the same Maven session, so that the modules of a reactor build do
+ * not each parse the same runtime jar and dependencies again.
+ * <p>
+ * Entries are keyed by the canonical path, length and modification time of the jar. They are reference counted: an entry in use by an execution is
+ * held strongly, while an unused entry is only softly referenced and is dropped by the garbage collector when heap runs short. The total number of
+ * classes held is bounded, and the least recently used unused entries are evicted beyond that bound.
+ * <p>
+ * ProGuard links library classes to the program classes of a run while processing it, so an execution gets exclusive use of the cached classes. If
+ * another execution is already using them, it gets a private copy instead, which is still much cheaper than parsing the jar.
+ */
+final class SharedLibraryPools {
+    private static final Map<String, Entry> entries      = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private static Object                   sessionId    = null;
+    private static int                      totalClasses = 0;
+
+    private SharedLibraryPools() {
+    }
+
+    /**
+     * Discards all entries if the provided session differs from the one the entries were created in
+     *
+     * @param session
+     *            an object identifying the current Maven session
+     */
+    static synchronized void beginSession(Object session) {
+        if (sessionId != session) {
+            entries.clear();
+            totalClasses = 0;
+            sessionId = session;
+        }
+    }
+
+    /**
+     * Returns the key under which the provided jar is registered
+     *
+     * @param jar
+     * @param flags
+     *            the parsing flags the classes were read with
+     * @return the key
+     */
+    static String key(File jar, String flags) {
+        String path;
+        try {
+            path = jar.getCanonicalPath();
+        } catch (IOException e) {
+            path = jar.getAbsolutePath();
+        }
+        return path + "|" + jar.length() + "|" + jar.lastModified() + "|" + flags;
+    }
+
+    /**
+     * Acquires the classes registered under the provided key. Every successful call must be balanced by a call to {@link #release(String)}
+     *
+     * @param key
+     * @return the classes, reset to their unlinked state, or null if no classes are registered
+     */
+    static synchronized List<CachedClass> acquire(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null)
+            return null;
+        List<CachedClass> classes = entry.get();
+        if (classes == null) {
+            // Collected under memory pressure
+            entries.remove(key);
+            totalClasses -= entry.size;
+            return null;
+        }
+
+        entry.pin(classes);
+        if (entry.refCount > 1)
+            return copy(classes);
+        for (CachedClass cached : classes)
+            reset(cached.clazz);
+        return classes;
+    }
+
+    /**
+     * Registers freshly parsed classes, acquired by the caller. Nothing is registered if another execution registered the same jar in the meantime and
+     * still uses it. Every successful call must be balanced by a call to {@link #release(String)}
+     *
+     * @param key
+     * @param classes
+     * @param maxClasses
+     *            the maximum number of classes held by the registry
+     * @return true if the classes were registered
+     */
+    static synchronized boolean register(String key, List<CachedClass> classes, int maxClasses) {
+        Entry old = entries.get(key);
+        if (old != null) {
+            if (old.refCount > 0)
+                return false;
+            entries.remove(key);
+            totalClasses -= old.size;
+        }
+
+        Entry entry = new Entry(classes);
+        entry.pin(classes);
+        entries.put(key, entry);
+        totalClasses += entry.size;
+        evict(maxClasses);
+        return true;
+    }
+
+    /**
+     * Releases classes previously acquired or registered
+     *
+     * @param key
+     */
+    static synchronized void release(String key) {
+        Entry entry = entries.get(key);
+        if (entry != null)
+            entry.unpin();
+    }
+
+    private static void evict(int maxClasses) {
+        Iterator<Entry> it = entries.values().iterator();
+        while (totalClasses > maxClasses && it.hasNext()) {
+            Entry entry = it.next();
+            if (entry.refCount == 0) {
+                it.remove();
+                totalClasses -= entry.size;
+            }
+        }
+    }
+
+    /**
+     * Clears everything ProGuard links into a library class while processing, so that the class can be used for another run
+     */
+    private static void reset(LibraryClass clazz) {
+        clazz.superClass = null;
+        clazz.interfaceClasses = null;
+        clazz.subClasses = null;
+        clazz.visitorInfo = null;
+        if (clazz.fields != null) {
+            for (LibraryField field : clazz.fields) {
+                field.referencedClass = null;
+                field.visitorInfo = null;
+            }
+        }
+        if (clazz.methods != null) {
+            for (LibraryMethod method : clazz.methods) {
+                method.referencedClasses = null;
+                method.visitorInfo = null;
+            }
+        }
+    }
+
+    private static List<CachedClass> copy(List<CachedClass> classes) {
+        List<CachedClass> copies = new ArrayList<CachedClass>(classes.size());
+        for (CachedClass cached : classes) {
+            LibraryClass original = cached.clazz;
+            LibraryClass clazz = new LibraryClass();
+            clazz.u2accessFlags = original.u2accessFlags;
+            clazz.thisClassName = original.thisClassName;
+            clazz.superClassName = original.superClassName;
+            clazz.interfaceNames = original.interfaceNames;
+            clazz.fields = new LibraryField[(original.fields != null) ? original.fields.length : 0];
+            for (int i = 0; i < clazz.fields.length; i++)
+                clazz.fields[i] = new LibraryField(original.fields[i].u2accessFlags, original.fields[i].name, original.fields[i].descriptor);
+            clazz.methods = new LibraryMethod[(original.methods != null) ? original.methods.length : 0];
+            for (int i = 0; i < clazz.methods.length; i++)
+                clazz.methods[i] = new LibraryMethod(original.methods[i].u2accessFlags, original.methods[i].name, original.methods[i].descriptor);
+            copies.add(new CachedClass(cached.entryName, clazz));
+        }
+        return copies;
+    }
+
+    /**
+     * A registered jar: softly referenced, and strongly referenced while in use
+     */
+    private static class Entry {
+        final SoftReference<List<CachedClass>> soft;
+        final int                              size;
+        List<CachedClass>                      strong;
+        int                                    refCount;
+
+        Entry(List<CachedClass> classes) {
+            this.soft = new SoftReference<List<CachedClass>>(classes);
+            this.size = classes.size();
+        }
+
+        List<CachedClass> get() {
+            return (strong != null) ? strong : soft.get();
+        }
+
+        void pin(List<CachedClass> classes) {
+            refCount++;
+            strong = classes;
+        }
+
+        void unpin() {
+            if (refCount > 0 && --refCount == 0)
+                strong = null;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.idfconnect.devtools.maven.proguard;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A simple JavaBean for holding the parameters of a variant: a differently configured ProGuard run over the same inputs and libraries. Settings left
+ * out are taken from the plug-in configuration, except for the output artifacts
+ */
+public class Variant {
+    private String               name                = null;
+    private Map<String, String>  options             = null;
+    private String               proguardIncludeFile = null;
+    private Boolean              obfuscate           = null;
+    private Boolean              shrink              = null;
+    private List<OutputArtifact> outputArtifacts     = null;
+
+    public Variant() {
+
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public Map<String, String> getOptions() {
+        return options;
+    }
+
+    public void setOptions(Map<String, String> options) {
+        this.options = options;
+    }
+
+    public String getProguardIncludeFile() {
+        return proguardIncludeFile;
+    }
+
+    public void setProguardIncludeFile(String proguardIncludeFile) {
+        this.proguardIncludeFile = proguardIncludeFile;
+    }
+
+    public Boolean getObfuscate() {
+        return obfuscate;
+    }
+
+    public void setObfuscate(Boolean obfuscate) {
+        this.obfuscate = obfuscate;
+    }
+
+    public Boolean getShrink() {
+        return shrink;
+    }
+
+    public void setShrink(Boolean shrink) {
+        this.shrink = shrink;
+    }
+
+    public List<OutputArtifact> getOutputArtifacts() {
+        return outputArtifacts;
+    }
+
+    public void setOutputArtifacts(List<OutputArtifact> outputArtifacts) {
+        this.outputArtifacts = outputArtifacts;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("Variant [name=");
+        builder.append(name);
+        if (options != null) {
+            builder.append(", options=");
+            builder.append(options);
+        }
+        if (proguardIncludeFile != null) {
+            builder.append(", proguardIncludeFile=");
+            builder.append(proguardIncludeFile);
+        }
+        if (obfuscate != null) {
+            builder.append(", obfuscate=");
+            builder.append(obfuscate);
+        }
+        if (shrink != null) {
+            builder.append(", shrink=");
+            builder.append(shrink);
+        }
+        if (outputArtifacts != null) {
+            builder.append(", outputArtifacts=");
+            builder.append(outputArtifacts);
+        }
+        builder.append("]");
+        return builder.toString();
+    }
+}